@@ -0,0 +1,183 @@
+package com.dnsabr.vad.ukrsib.models;
+
+import org.hibernate.annotations.Immutable;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * Неизменяемое значение суммы транзакции (поле Trans.amount)
+ * Способ представления суммы при разборе файла задается параметром spring.jpa.properties.app.parser.amount:
+ *  decimal - сумма хранится в BigDecimal big, созданном из записи (метод decimal), как до введения фиксированной точки
+ *  fixed - сумма хранится целым числом минимальных единиц minor с количеством знаков после точки scale
+ *          (для "110.75" minor = 11075, scale = 2). Запись разбирается по цифрам без создания BigDecimal (метод parse).
+ *          Суммы, которые не помещаются в long или записаны в другом виде (экспонента и т.д.), хранятся в BigDecimal big
+ * Масштаб scale берется из записи суммы, а не из таблицы масштабов валют: в исходных данных и в БД валюта - только
+ * трехбуквенное обозначение, а столбец amount имеет тип DECIMAL(19,2). Поэтому значение в обоих режимах совпадает
+ * с new BigDecimal(запись), и режимы дают одинаковые идентификаторы транзакций и строки в БД.
+ * Тип поля Trans.amount не зависит от режима, так как отображение сущности на таблицу задается при компиляции;
+ * в режиме decimal значение только передается через этот класс без преобразования.
+ * Эквивалентность и hashCode - по числовому значению (как сравнение BigDecimal в Hibernate: 1.0 = 1.00).
+ * В БД сумма хранится в столбце DECIMAL (AmountConverter)
+ */
+@Immutable
+public final class Amount implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAX_DIGITS = 18;
+    private static final int MAX_EXACT_SCALE = 22;
+    private static final long MAX_EXACT_UNITS = 1L << 52;
+    private static final double[] POWERS = new double[MAX_EXACT_SCALE + 1];
+
+    static {
+        POWERS[0] = 1;
+        for (int i = 1; i < POWERS.length; i++) {
+            POWERS[i] = POWERS[i - 1] * 10;
+        }
+    }
+
+    private final long minor;
+    private final int scale;
+    private final BigDecimal big;
+
+    private Amount(long minor, int scale, BigDecimal big) {
+        this.minor = minor;
+        this.scale = scale;
+        this.big = big;
+    }
+
+    /**
+     * Разбирает запись суммы
+     * @param text запись суммы вида [+-]цифры[.цифры] или другая запись, допустимая для new BigDecimal
+     * @return объект данного класса
+     * @throws NumberFormatException если запись недопустима для new BigDecimal
+     */
+    public static Amount parse(String text) {
+        if (null == text) {
+            throw new NumberFormatException("Пустая сумма");
+        }
+        int length = text.length();
+        int i = 0;
+        boolean negative = false;
+        if (i < length && ('+' == text.charAt(i) || '-' == text.charAt(i))) {
+            negative = '-' == text.charAt(i);
+            i++;
+        }
+        long units = 0;
+        int digits = 0;
+        int significant = 0;
+        int scale = -1;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if ('.' == c && scale < 0) {
+                scale = 0;
+            } else if (c >= '0' && c <= '9') {
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+                if (0 != units || '0' != c) {
+                    significant++;
+                }
+                units = units * 10 + (c - '0');
+            } else {
+                break;
+            }
+        }
+        if (i < length || 0 == digits || significant > MAX_DIGITS) {
+            return valueOf(new BigDecimal(text));
+        }
+        return new Amount(negative ? -units : units, Math.max(0, scale), null);
+    }
+
+    /**
+     * Разбирает запись суммы с созданием BigDecimal (режим decimal)
+     * @param text запись суммы, допустимая для new BigDecimal
+     * @return объект данного класса
+     * @throws NumberFormatException если запись недопустима для new BigDecimal
+     */
+    public static Amount decimal(String text) {
+        if (null == text) {
+            throw new NumberFormatException("Пустая сумма");
+        }
+        return new Amount(0, 0, new BigDecimal(text));
+    }
+
+    /**
+     * Возвращает значение суммы
+     * @param amount сумма - не null
+     * @return объект данного класса
+     */
+    public static Amount valueOf(BigDecimal amount) {
+        if (amount.scale() >= 0 && amount.precision() <= MAX_DIGITS) {
+            return new Amount(amount.unscaledValue().longValue(), amount.scale(), null);
+        }
+        return new Amount(0, 0, amount);
+    }
+
+    /**
+     * Проверяет, что сумма больше 0
+     * @return {@code true} если сумма больше 0
+     */
+    public boolean isPositive() {
+        return null == big ? minor > 0 : big.signum() > 0;
+    }
+
+    /**
+     * Возвращает сумму в виде BigDecimal (для записи в БД)
+     */
+    public BigDecimal toBigDecimal() {
+        return null == big ? BigDecimal.valueOf(minor, scale) : big;
+    }
+
+    /**
+     * Возвращает сумму в виде double. Результат совпадает с BigDecimal.doubleValue для той же суммы: деление
+     * целого числа минимальных единиц (не более 2^52) на точную степень 10 округляется к ближайшему double,
+     * как и преобразование BigDecimal
+     */
+    public double doubleValue() {
+        if (null == big) {
+            if (0 == scale) {
+                return (double) minor;
+            }
+            if (Math.abs(minor) < MAX_EXACT_UNITS && scale <= MAX_EXACT_SCALE) {
+                return (double) minor / POWERS[scale];
+            }
+        }
+        return toBigDecimal().doubleValue();
+    }
+
+    /**
+     * Возвращает запись суммы без экспоненты
+     */
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+
+    /**
+     * Возвращает hash-код по числовому значению суммы
+     * @return hash-код
+     */
+    @Override
+    public int hashCode() {
+        return toBigDecimal().stripTrailingZeros().hashCode();
+    }
+
+    /**
+     * Проверяет на эквивалентность переданный объект с этим объектом
+     * @param obj объект для проверки на эквивалентность этому объекту
+     * @return {@code true} если суммы численно равны {@code false} иначе
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        Amount amount1 = (Amount) obj;
+        if (null == big && null == amount1.big && scale == amount1.scale) {
+            return minor == amount1.minor;
+        }
+        return toBigDecimal().compareTo(amount1.toBigDecimal()) == 0;
+    }
+}
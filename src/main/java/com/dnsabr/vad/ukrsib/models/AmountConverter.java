@@ -0,0 +1,22 @@
+package com.dnsabr.vad.ukrsib.models;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+import java.math.BigDecimal;
+
+/**
+ * Преобразует значение суммы (Amount) в число столбца amount таблицы transactions и обратно
+ */
+@Converter
+public class AmountConverter implements AttributeConverter<Amount, BigDecimal> {
+
+    @Override
+    public BigDecimal convertToDatabaseColumn(Amount amount) {
+        return null == amount ? null : amount.toBigDecimal();
+    }
+
+    @Override
+    public Amount convertToEntityAttribute(BigDecimal amount) {
+        return null == amount ? null : Amount.valueOf(amount);
+    }
+}
@@ -0,0 +1,161 @@
+package com.dnsabr.vad.ukrsib.models;
+
+import org.hibernate.annotations.Immutable;
+
+import java.io.Serializable;
+
+/**
+ * Неизменяемое значение части номера банковской карты транзакции (поле Trans.card)
+ * Допустим только номер вида "123456****1234" (6 первых цифр, 4 символа '*', 4 последних цифры, метод isValid).
+ * Он хранится числом packed = первые цифры * 10000 + последние цифры без строки. Номер другого вида (только
+ * прочитанный из БД, CardConverter) хранится строкой raw.
+ * Строка номера создается при первом обращении (toString) и запоминается в поле text. hashCode совпадает с hash-кодом
+ * строки номера, поэтому ключи транзакций (Trans.calculateKey) не изменились.
+ * В БД номер хранится строкой (CardConverter)
+ */
+@Immutable
+public final class Card implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int PREFIX = 6;
+    private static final int MASK = 4;
+    private static final int SUFFIX = 4;
+    private static final int LENGTH = PREFIX + MASK + SUFFIX;
+    private static final int SUFFIX_RANGE = 10000;
+
+    private final long packed;
+    private final String raw;
+    private transient String text;
+
+    private Card(long packed, String raw) {
+        this.packed = packed;
+        this.raw = raw;
+    }
+
+    /**
+     * Проверяет допустимость номера карты за один проход по символам без регулярного выражения
+     * @param card часть номера банковской карты
+     * @return {@code true} если номер вида "123456****1234"
+     */
+    public static boolean isValid(String card) {
+        return pack(card) >= 0;
+    }
+
+    /**
+     * Проверяет допустимость номера карты и возвращает его значение
+     * @param card часть номера банковской карты
+     * @return объект данного класса или null, если номер не вида "123456****1234"
+     */
+    public static Card parse(String card) {
+        long packed = pack(card);
+        return packed < 0 ? null : new Card(packed, null);
+    }
+
+    /**
+     * Возвращает значение номера карты. Номер другого вида хранится строкой без изменений
+     * @param card часть номера банковской карты - не null
+     * @return объект данного класса
+     */
+    public static Card valueOf(String card) {
+        long packed = pack(card);
+        return packed < 0 ? new Card(-1, card) : new Card(packed, null);
+    }
+
+    /**
+     * Упаковывает номер вида "123456****1234" в число
+     * @return первые цифры * 10000 + последние цифры или -1, если номер null или другого вида
+     */
+    private static long pack(String card) {
+        if (null == card || card.length() != LENGTH) {
+            return -1;
+        }
+        long prefix = 0;
+        long suffix = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            char c = card.charAt(i);
+            if (i >= PREFIX && i < PREFIX + MASK) {
+                if ('*' != c) {
+                    return -1;
+                }
+            } else if (c < '0' || c > '9') {
+                return -1;
+            } else if (i < PREFIX) {
+                prefix = prefix * 10 + (c - '0');
+            } else {
+                suffix = suffix * 10 + (c - '0');
+            }
+        }
+        return prefix * SUFFIX_RANGE + suffix;
+    }
+
+    /**
+     * Возвращает строку номера карты. Строка создается при первом обращении
+     * @return часть номера банковской карты
+     */
+    @Override
+    public String toString() {
+        if (null != raw) {
+            return raw;
+        }
+        String result = text;
+        if (null == result) {
+            result = format();
+            text = result;
+        }
+        return result;
+    }
+
+    private String format() {
+        char[] chars = new char[LENGTH];
+        long prefix = packed / SUFFIX_RANGE;
+        long suffix = packed % SUFFIX_RANGE;
+        for (int i = PREFIX - 1; i >= 0; i--) {
+            chars[i] = (char) ('0' + prefix % 10);
+            prefix /= 10;
+        }
+        for (int i = PREFIX; i < PREFIX + MASK; i++) {
+            chars[i] = '*';
+        }
+        for (int i = LENGTH - 1; i >= PREFIX + MASK; i--) {
+            chars[i] = (char) ('0' + suffix % 10);
+            suffix /= 10;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Возвращает hash-код, равный hash-коду строки номера карты (без создания строки)
+     * @return hash-код
+     */
+    @Override
+    public int hashCode() {
+        if (null != raw) {
+            return raw.hashCode();
+        }
+        int hash = 0;
+        for (long divisor = 100_000L; divisor > 0; divisor /= 10) {
+            hash = 31 * hash + (int) ('0' + packed / SUFFIX_RANGE / divisor % 10);
+        }
+        for (int i = 0; i < MASK; i++) {
+            hash = 31 * hash + '*';
+        }
+        for (long divisor = 1000L; divisor > 0; divisor /= 10) {
+            hash = 31 * hash + (int) ('0' + packed % SUFFIX_RANGE / divisor % 10);
+        }
+        return hash;
+    }
+
+    /**
+     * Проверяет на эквивалентность переданный объект с этим объектом
+     * @param obj объект для проверки на эквивалентность этому объекту
+     * @return {@code true} если номера карт совпадают {@code false} иначе
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        Card card1 = (Card) obj;
+        return this.packed == card1.packed && (null == raw ? null == card1.raw : raw.equals(card1.raw));
+    }
+}
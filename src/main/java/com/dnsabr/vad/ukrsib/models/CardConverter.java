@@ -0,0 +1,21 @@
+package com.dnsabr.vad.ukrsib.models;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * Преобразует значение номера карты (Card) в строку столбца card таблицы transactions и обратно
+ */
+@Converter
+public class CardConverter implements AttributeConverter<Card, String> {
+
+    @Override
+    public String convertToDatabaseColumn(Card card) {
+        return null == card ? null : card.toString();
+    }
+
+    @Override
+    public Card convertToEntityAttribute(String card) {
+        return null == card ? null : Card.valueOf(card);
+    }
+}
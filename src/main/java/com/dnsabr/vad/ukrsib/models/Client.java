@@ -8,7 +8,6 @@ import org.hibernate.annotations.CacheConcurrencyStrategy;
 import javax.persistence.*;
 import java.io.Serializable;
 import java.util.Optional;
-import java.util.regex.Pattern;
 
 /**
  * Класс-сущность для таблицы clients
@@ -20,7 +19,12 @@ import java.util.regex.Pattern;
  * firstName - имя лица связанного с транзакций - значение тега <firstName> из файла данных
  * lastName - фамилия лица связанного с транзакций - значение тега <lastName> из файла данных
  * middleName - отчество лица связанного с транзакций - значение тега <middleName> из файла данных
- * inn - индивидуальный налоговый номер лица связанного с транзакций - значение тега <inn> из файла данных
+ * inn - индивидуальный налоговый номер лица связанного с транзакций - значение тега <inn> из файла данных.
+ * Хранится числом (-1 - ИНН не задан): ИНН всегда 10 цифр, поэтому число однозначно задает ИНН, а
+ * строка ИНН создается при первом обращении (getInn) и запоминается в поле innText. Hibernate, сохранение
+ * транзакций и вывод в журнал обращаются к getInn многократно, но строка создается один раз на объект. Hibernate обращается к ИНН через getInn/setInn
+ * (@Access(AccessType.PROPERTY)), остальные поля - напрямую. hashCode совпадает с hash-кодом строки ИНН, поэтому
+ * ключи транзакций (Trans.calculateKey) не изменились
  * Доступ к конструкторам ограничен. Новые объекты создаются с помощью метода newClient
  * Объекты являются эквивалентными если у них совпадает id. Hash только по id.
  * Изменен стандартный SQL-запрос вставки в БД на INSERT IGNORE ..., что дает возможность не откатывать JPA-транзакцию,
@@ -28,6 +32,7 @@ import java.util.regex.Pattern;
  * Объекты кешируются в кэш 2-го уровня. Версионность не используется
  */
 @Entity
+@Access(AccessType.FIELD)
 @Cacheable
 @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "clients")
@@ -36,10 +41,11 @@ public class Client implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
-    @Id
-    @NaturalId
-    @Column(unique = true, nullable = false, length = 10)
-    private String inn;
+    @Transient
+    private long inn = -1;
+
+    @Transient
+    private transient String innText;
 
     @Column(nullable = false)
     private String firstName;
@@ -53,7 +59,7 @@ public class Client implements Serializable {
     Client() {
     }
 
-    private Client(String firstName, String lastName, String middleName, String inn) {
+    private Client(String firstName, String lastName, String middleName, long inn) {
             this.firstName = firstName;
             this.lastName = lastName;
             this.middleName = middleName;
@@ -70,25 +76,74 @@ public class Client implements Serializable {
      *          если параметры транзакции не удовлетворяют критериям
      */
     public static Optional<Client> newClient(String firstName, String lastName, String middleName, String inn) {
-        if (null!=inn && inn.length()==10 && !inn.equals("0000000000") && Pattern.matches("\\d*",inn) && null!=firstName
+        long number = parseInn(inn);
+        if (-1!=number && null!=firstName
                 && !firstName.trim().isEmpty() && null!=lastName && !lastName.trim().isEmpty() && null!=middleName
                 && !middleName.trim().isEmpty()) {
-            return Optional.of(new Client(firstName,lastName,middleName,inn));
+            return Optional.of(new Client(firstName,lastName,middleName,number));
         } else {
             return Optional.empty();
         }
     }
 
+    /**
+     * Проверяет ИНН и преобразует его в число
+     * @param inn ИНН клиента
+     * @return ИНН числом или -1, если ИНН null, не 10 цифр или все цифры 0
+     */
+    public static long parseInn(String inn) {
+        if (null==inn || inn.length()!=10) {
+            return -1;
+        }
+        long number = 0;
+        for (int i = 0; i < 10; i++) {
+            char c = inn.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return 0 == number ? -1 : number;
+    }
+
+    @Id
+    @NaturalId
+    @Access(AccessType.PROPERTY)
+    @Column(unique = true, nullable = false, length = 10)
     public String getInn() {
-        return inn;
+        if (inn < 0) {
+            return null;
+        }
+        String text = innText;
+        if (null == text) {
+            char[] digits = new char[10];
+            long rest = inn;
+            for (int i = 10 - 1; i >= 0; i--) {
+                digits[i] = (char) ('0' + rest % 10);
+                rest /= 10;
+            }
+            text = new String(digits);
+            innText = text;
+        }
+        return text;
     }
 
     public void setInn(String inn) {
-        if (null!=inn && inn.length()==10 && !inn.equals("0000000000") && Pattern.matches("\\d*",inn)) {
-            this.inn = inn;
+        long number = parseInn(inn);
+        if (-1!=number) {
+            this.inn = number;
+            this.innText = inn;
         }
     }
 
+    /**
+     * Возвращает ИНН числом
+     * @return ИНН или -1, если ИНН не задан
+     */
+    public long getInnNumber() {
+        return inn;
+    }
+
     public String getFirstName() {
         return firstName;
     }
@@ -127,7 +182,7 @@ public class Client implements Serializable {
     @Override
     public String toString() {
         return "Client{" +
-                "inn='" + inn + '\'' +
+                "inn='" + getInn() + '\'' +
                 ", firstName='" + firstName + '\'' +
                 ", lastName='" + lastName + '\'' +
                 ", middleName='" + middleName + '\'' +
@@ -135,12 +190,19 @@ public class Client implements Serializable {
     }
 
     /**
-     * Возвращает hash-код этого объекта
+     * Возвращает hash-код этого объекта, равный hash-коду строки ИНН (без создания строки)
      * @return hash-код
      */
     @Override
     public int hashCode() {
-        return null != inn ? inn.hashCode() : 0;
+        if (inn < 0) {
+            return 0;
+        }
+        int hash = 0;
+        for (long divisor = 1_000_000_000L; divisor > 0; divisor /= 10) {
+            hash = 31 * hash + (int) ('0' + inn / divisor % 10);
+        }
+        return hash;
     }
 
     /**
@@ -154,7 +216,7 @@ public class Client implements Serializable {
         if (this == obj) return true;
         if (obj == null || getClass() != obj.getClass()) return false;
         Client client1 = (Client) obj;
-        return this.inn.equals(client1.inn);
+        return this.inn == client1.inn;
     }
 
     /**
@@ -169,7 +231,7 @@ public class Client implements Serializable {
         Client client1 = (Client) obj;
         return this.firstName.equals(client1.firstName)
                 && this.lastName.equals(client1.lastName) && this.middleName.equals(client1.middleName)
-                && this.inn.equals(client1.inn);
+                && this.inn == client1.inn;
     }
 
     /**
@@ -16,7 +16,8 @@ import java.util.Optional;
  * id - уникальный идентификатор данной таблицы используется для связи с таблицей транзакций. @GeneratedValue SEQUENCE
  * для осуществления вставок в базу данных пакетами. Кроме того используется естественный ключ - название места.
  * placeName - название места проведения транзакций - значение тегов <place> из файла данных
- * Доступ к конструкторам ограничен. Новые объекты создаются с помощью метода newPlace. Setter для id отсутствует.
+ * Доступ к конструкторам ограничен. Новые объекты создаются с помощью метода newPlace, объекты мест, уже имеющихся
+ * в БД, - с помощью метода reference. Setter для id отсутствует.
  * Объекты являются эквивалентными если у них совпадает placeName. Hash только по placeName.
  * Изменен стандартный SQL-запрос вставки в БД на INSERT IGNORE ..., что дает возможность не откатывать JPA-транзакцию,
  * когда конкурирующая транзакция добавила это же Место между SELECT и INSERT текущей JPA-транзакции.
@@ -63,6 +64,19 @@ public class Place implements Serializable {
         }
     }
 
+    /**
+     * Возвращает объект места, уже имеющегося в БД, для ссылки на него из транзакции без загрузки места из БД
+     * (запись через StatelessSession)
+     * @param id идентификатор места в БД
+     * @param placeName название места проведения транзакции
+     * @return объект данного класса
+     */
+    public static Place reference(int id, String placeName) {
+        Place place = new Place(placeName);
+        place.id = id;
+        return place;
+    }
+
     public int getId() {
         return id;
     }
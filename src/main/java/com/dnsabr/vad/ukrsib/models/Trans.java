@@ -1,5 +1,6 @@
 package com.dnsabr.vad.ukrsib.models;
 
+import com.dnsabr.vad.ukrsib.utils.TransKeyGenerator;
 import javax.persistence.*;
 import java.io.Serializable;
 import java.math.BigDecimal;
@@ -14,10 +15,16 @@ import java.util.*;
  * id - уникальный идентификатор данной таблицы. Не отмечен анноацией @GeneratedValue и
  * будет формироваться при создании объктов в методе calculateKey. Это необходимо для
  * осуществления вставок в базу данных пакетами.
- * amount - сумма транзакции - значение тега <amount> из файла данных
+ * amount - сумма транзакции - значение тега <amount> из файла данных. Хранится значением Amount: BigDecimal или
+ * целым числом минимальных единиц в зависимости от параметра spring.jpa.properties.app.parser.amount,
+ * в БД - столбцом DECIMAL (AmountConverter)
  * currency - обозначение валюты транзакций - значение тега <currency> из файла данных
- * card - часть номера банковской карты связанной с транзакций - значение тега <card> из файла данных
- * Содержит Map<id,serial> transactions для предотвращения коллизии ключей.
+ * card - часть номера банковской карты связанной с транзакций - значение тега <card> из файла данных. Хранится
+ * компактным значением Card, в БД - строкой (CardConverter)
+ * serial - порядковый номер транзакции в файле данных. Не сохраняется в БД
+ * offset - позиция в файле данных сразу после блока транзакции или -1, если позиция неизвестна. Не сохраняется в БД.
+ * serial и offset используются для контрольных точек возобновления загрузки (CheckpointService)
+ * Содержит генератор ключей keys для предотвращения коллизии ключей (подробнее смотреть TransKeyGenerator).
  * Доступ к конструкторам ограничен. Новые объекты создаются с помощью метода newTrans
  * Setter для id отсутствует. Объекты являются эквивалентными если у них совпадает id.
  * Hash только по id. Версионность не используется
@@ -28,20 +35,22 @@ public class Trans implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
-    private static final Map<Long,Integer> transactions = new HashMap<>();
+    private static final TransKeyGenerator keys = new TransKeyGenerator();
 
     @Id
     @Column(unique = true, nullable = false)
     private long id;
 
-    @Column(nullable = false)
-    private BigDecimal amount;
+    @Convert(converter = AmountConverter.class)
+    @Column(nullable = false, precision = 19, scale = 2)
+    private Amount amount;
 
     @Column(nullable = false, length = 3)
     private String currency;
 
+    @Convert(converter = CardConverter.class)
     @Column(nullable = false, length = 14)
-    private String card;
+    private Card card;
 
     @ManyToOne(fetch = FetchType.LAZY, cascade = {CascadeType.PERSIST,CascadeType.MERGE})
     @JoinColumn(name = "client_id", nullable = false)
@@ -51,15 +60,22 @@ public class Trans implements Serializable {
     @JoinColumn(name = "place_id", nullable = false)
     private Place place;
 
+    @Transient
+    private int serial;
+
+    @Transient
+    private long offset = -1;
+
     Trans() {
     }
 
-    private Trans(BigDecimal amount, String currency, String card, Client client, Place place, int serial) {
+    private Trans(Amount amount, String currency, Card card, Client client, Place place, int serial) {
             this.amount = amount;
             this.currency = currency;
             this.card = card;
             this.client = client;
             this.place = place;
+            this.serial = serial;
             this.id = calculateKey(serial);
     }
 
@@ -67,7 +83,7 @@ public class Trans implements Serializable {
      * Возвращает новые объекты данного класса
      * @param amount сумма транзакции > 0
      * @param currency обозначение валюты транзакции - не null и не пусто
-     * @param card часть номера банковской карты связанной с транзакций - не null и не пусто
+     * @param card часть номера банковской карты связанной с транзакций - вида "123456****1234" (Card.isValid)
      * @param client клиент связанный с транзакцией - не null
      * @param place место проведения транзакции - не null
      * @param serial порядковый номер транзакции в файле > 0
@@ -75,9 +91,27 @@ public class Trans implements Serializable {
      *          если параметры транзакции не удовлетворяют критериям
      */
     public static Optional<Trans> newTrans(BigDecimal amount, String currency, String card, Client client, Place place, int serial) {
-        if (null!=amount && amount.compareTo(new BigDecimal(0))>0 && null!=currency && !currency.trim().isEmpty()
-                && null!=card && !card.trim().isEmpty() && null!=client && null!=place && serial>0) {
-            return Optional.of(new Trans(amount, currency, card, client, place, serial));
+        return newParsedTrans(null == amount ? null : Amount.valueOf(amount), currency, card, client, place, serial);
+    }
+
+    /**
+     * Возвращает новые объекты данного класса. Используется парсером: сумма разбирается из записи способом,
+     * заданным параметром spring.jpa.properties.app.parser.amount (Amount.decimal или Amount.parse)
+     * @param amount сумма транзакции > 0
+     * @param currency обозначение валюты транзакции - не null и не пусто
+     * @param card часть номера банковской карты связанной с транзакций - вида "123456****1234" (Card.isValid).
+     *             Номер разбирается один раз (Card.parse)
+     * @param client клиент связанный с транзакцией - не null
+     * @param place место проведения транзакции - не null
+     * @param serial порядковый номер транзакции в файле > 0
+     * @return объект класса Optional с новым объектом данного класса или пустой,
+     *          если параметры транзакции не удовлетворяют критериям
+     */
+    public static Optional<Trans> newParsedTrans(Amount amount, String currency, String card, Client client, Place place, int serial) {
+        Card value = Card.parse(card);
+        if (null!=amount && amount.isPositive() && null!=currency && !currency.trim().isEmpty()
+                && null!=value && null!=client && null!=place && serial>0) {
+            return Optional.of(new Trans(amount, currency, value, client, place, serial));
         } else {
             return Optional.empty();
         }
@@ -88,12 +122,12 @@ public class Trans implements Serializable {
     }
 
     public BigDecimal getAmount() {
-        return amount;
+        return null == amount ? null : amount.toBigDecimal();
     }
 
     public void setAmount(BigDecimal amount) {
-        if (null!=amount && amount.compareTo(new BigDecimal(0))>0) {
-            this.amount = amount;
+        if (null!=amount && amount.signum()>0) {
+            this.amount = Amount.valueOf(amount);
         }
     }
 
@@ -108,12 +142,13 @@ public class Trans implements Serializable {
     }
 
     public String getCard() {
-        return card;
+        return null == card ? null : card.toString();
     }
 
     public void setCard(String card) {
-        if (null!=card && !card.trim().isEmpty()) {
-            this.card = card;
+        Card value = Card.parse(card);
+        if (null!=value) {
+            this.card = value;
         }
     }
 
@@ -137,6 +172,18 @@ public class Trans implements Serializable {
         }
     }
 
+    public int getSerial() {
+        return serial;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
     /**
      * Возвращает строку с названиями и значениями полей объекта
      * исключая информацию о коллекциях объекта
@@ -187,7 +234,7 @@ public class Trans implements Serializable {
         if (this == obj) return true;
         if (obj == null || getClass() != obj.getClass()) return false;
         Trans trans1 = (Trans) obj;
-        return this.id==trans1.id && this.amount.compareTo(trans1.amount)==0 && this.currency.equals(trans1.currency)
+        return this.id==trans1.id && this.amount.equals(trans1.amount) && this.currency.equals(trans1.currency)
                 && this.card.equals(trans1.card) && this.client.deepEquals(trans1.client) && this.place.deepEquals(trans1.place);
     }
 
@@ -208,18 +255,8 @@ public class Trans implements Serializable {
      */
     private long calculateKey(int serial) {
         int key = (int)(amount.doubleValue()*100) + currency.hashCode() + card.hashCode() + client.hashCode() + place.hashCode();
-        long key1 = 10000000000L * serial + Math.abs(key);
-
-        // Защита от коллизии ключей
-        while (transactions.containsKey(key1) && serial!=transactions.get(key1) || key1<=0) {
-            if (key1<=0) {
-                key1 = key1 + Long.MAX_VALUE;
-            } else {
-                key1 += 141414141414L;
-            }
-        }
-        transactions.put(key1,serial);
 
-        return key1;
+        // Защита от коллизии ключей. Генератор потокобезопасен и используется при параллельном разборе файла
+        return keys.generate(serial, key);
     }
 }
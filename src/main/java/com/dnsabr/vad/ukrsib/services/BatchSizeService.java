@@ -0,0 +1,115 @@
+package com.dnsabr.vad.ukrsib.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Сервис подбора размера пакета транзакций, записываемого в БД одной JPA-транзакцией
+ * Размер пакета изменяется по принципу AIMD (аддитивное увеличение, мультипликативное уменьшение) по результатам
+ * записи каждого пакета:
+ *  - если полный пакет записан быстрее maxLatency и скорость записи (транзакций в секунду) не ниже 90% средней,
+ *    размер пакета увеличивается на четверть начального размера;
+ *  - если пакет записывался дольше maxLatency или запись не удалась из-за нагрузки на БД (взаимоблокировка,
+ *    таймаут, потеря соединения), размер пакета уменьшается в 2 раза. Ошибки данных размер пакета не изменяют.
+ * Размер пакета всегда находится в границах [minSize, maxSize]. Начальный размер - hibernate.jdbc.batch_size.
+ * Потоки записи (SaveService) запрашивают у хранилища пакеты текущего размера.
+ * Поля:
+ *  initialSize - начальный размер пакета (hibernate.jdbc.batch_size)
+ *  minSize, maxSize - границы размера пакета. Устанавливаются в application.properties
+ *  maxLatency - допустимая длительность записи пакета в миллисекундах. Устанавливается в application.properties
+ *  size - текущий размер пакета. 0 до первого обращения
+ *  rowsPerSecond - скользящая средняя скорости записи транзакций в секунду
+ */
+@Service
+public class BatchSizeService {
+
+    private static final double SMOOTHING = 0.2;
+    private static final double MIN_RATE = 0.9;
+
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size}")
+    private int initialSize;
+    @Value("${spring.jpa.properties.app.sql.batch.min}")
+    private int minSize;
+    @Value("${spring.jpa.properties.app.sql.batch.max}")
+    private int maxSize;
+    @Value("${spring.jpa.properties.app.sql.batch.latency}")
+    private long maxLatency;
+
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile double rowsPerSecond;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    BatchSizeService() {
+    }
+
+    /**
+     * Возвращает текущий размер пакета
+     * @return количество транзакций в пакете
+     */
+    int getBatchSize() {
+        int current = size.get();
+        if (0 == current) {
+            size.compareAndSet(0, Math.max(lower(), Math.min(upper(), initialSize)));
+            current = size.get();
+        }
+        return current;
+    }
+
+    /**
+     * Возвращает скользящую среднюю скорости записи транзакций
+     * @return транзакций в секунду
+     */
+    public double getRowsPerSecond() {
+        return rowsPerSecond;
+    }
+
+    /**
+     * Учитывает успешную запись пакета и пересматривает размер пакета
+     * @param rows количество записанных транзакций
+     * @param nanos длительность записи в наносекундах
+     */
+    void committed(int rows, long nanos) {
+        if (rows <= 0) {
+            return;
+        }
+        int current = getBatchSize();
+        double rate = rows * 1e9 / Math.max(1, nanos);
+        double average = rowsPerSecond;
+        rowsPerSecond = 0 == average ? rate : average + SMOOTHING * (rate - average);
+        if (TimeUnit.NANOSECONDS.toMillis(nanos) > maxLatency) {
+            decrease(current);
+        } else if (rows >= current && rate >= average * MIN_RATE) {
+            int step = Math.max(1, initialSize / 4);
+            if (size.compareAndSet(current, Math.min(upper(), current + step)) && current < upper()) {
+                logger.trace("Размер пакета транзакций увеличен до " + size.get());
+            }
+        }
+    }
+
+    /**
+     * Учитывает неудачную из-за нагрузки на БД попытку записи пакета и уменьшает размер пакета
+     */
+    void failed() {
+        decrease(getBatchSize());
+    }
+
+    private void decrease(int current) {
+        int decreased = Math.max(lower(), current / 2);
+        if (decreased < current && size.compareAndSet(current, decreased)) {
+            logger.debug("Размер пакета транзакций уменьшен до " + decreased);
+        }
+    }
+
+    private int lower() {
+        return Math.max(1, minSize);
+    }
+
+    private int upper() {
+        return Math.max(lower(), maxSize);
+    }
+}
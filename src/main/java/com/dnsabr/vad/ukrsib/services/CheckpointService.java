@@ -0,0 +1,282 @@
+package com.dnsabr.vad.ukrsib.services;
+
+import com.dnsabr.vad.ukrsib.models.Trans;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Сервис контрольных точек для возобновления загрузки после принудительной остановки приложения
+ * Контрольная точка - наибольший порядковый номер транзакции, до которого включительно все транзакции файла данных
+ * добавлены в БД (или отклонены RejectService), и позиция в файле сразу после блока этой транзакции.
+ * Транзакции добавляются в БД несколькими потоками в произвольном порядке, поэтому добавленные транзакции за
+ * контрольной точкой хранятся в виде непересекающихся диапазонов порядковых номеров, которые объединяются друг с другом
+ * и с контрольной точкой по мере добавления недостающих транзакций.
+ * Контрольная точка сохраняется в таблице transactions_checkpoint с ключом по абсолютному пути файла данных и проверкой
+ * размера файла и удаляется после успешной загрузки всего файла. При следующем запуске ParseService продолжает разбор
+ * с позиции контрольной точки, а если позиция неизвестна (разбор с помощью StAX) - пропускает транзакции с порядковыми
+ * номерами до контрольной точки включительно.
+ * Каждое задание загрузки (LoadJob) получает свой экземпляр сервиса с файлом данных задания.
+ * Поля:
+ *  fileName - абсолютный или относительно проекта путь к XML-файлу данных
+ *  enabled - указывает использовать контрольные точки. Устанавливается в application.properties
+ *  active - признак использования контрольных точек при текущей загрузке (устанавливается методом load)
+ *  resumeSerial, resumeOffset - контрольная точка, с которой начата текущая загрузка
+ *  serial, offset - текущая контрольная точка
+ *  savedSerial - порядковый номер последней сохраненной в БД контрольной точки
+ *  ranges - добавленные в БД транзакции за контрольной точкой: начало диапазона -> диапазон
+ */
+@Service
+@Scope("prototype")
+public class CheckpointService {
+
+    static final String CHECKPOINT_TABLE = "transactions_checkpoint";
+
+    @Value("${spring.jpa.properties.app.source.file}")
+    private String fileName;
+    @Value("${spring.jpa.properties.app.checkpoint}")
+    private boolean enabled;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private volatile boolean active;
+    private volatile int resumeSerial;
+    private volatile long resumeOffset = -1;
+    private int serial;
+    private long offset = -1;
+    private int savedSerial;
+    private final TreeMap<Integer, Range> ranges = new TreeMap<>();
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    CheckpointService() {
+    }
+
+    /**
+     * Устанавливает путь к файлу данных задания загрузки (MainService.newJob)
+     * @param fileName путь к XML-файлу данных
+     */
+    void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Диапазон порядковых номеров [first, last] добавленных транзакций и позиция в файле после транзакции last
+     */
+    private static class Range {
+        private int first;
+        private int last;
+        private long offset;
+
+        Range(int first, int last, long offset) {
+            this.first = first;
+            this.last = last;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Включает контрольные точки для текущей загрузки и читает из БД сохраненную контрольную точку файла данных
+     * Контрольная точка не используется, если размер файла изменился
+     */
+    public synchronized void load() {
+        reset(0, -1);
+        active = enabled;
+        if (!active) {
+            return;
+        }
+        try {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + CHECKPOINT_TABLE + " (file_name VARCHAR(255) NOT NULL " +
+                    "PRIMARY KEY, file_size BIGINT NOT NULL, serial INT NOT NULL, file_offset BIGINT NOT NULL);");
+            List<Map<String, Object>> rows = jdbcTemplate.queryForList("SELECT file_size, serial, file_offset FROM " +
+                    CHECKPOINT_TABLE + " WHERE file_name = ?;", path());
+            if (rows.isEmpty()) {
+                return;
+            }
+            Map<String, Object> row = rows.get(0);
+            if (((Number) row.get("file_size")).longValue() != new File(fileName).length()) {
+                logger.warn("Файл " + fileName + " изменился после сохранения контрольной точки. Загрузка будет начата сначала");
+                return;
+            }
+            reset(((Number) row.get("serial")).intValue(), ((Number) row.get("file_offset")).longValue());
+            savedSerial = serial;
+            logger.info("Найдена контрольная точка. Загрузка будет продолжена после транзакции с порядковым номером " + serial);
+        } catch (Exception e) {
+            active = false;
+            logger.warn("Не удалось прочитать контрольную точку загрузки. Загрузка будет начата сначала, " +
+                    "контрольные точки не будут сохраняться");
+        }
+    }
+
+    /**
+     * Отмечает транзакции добавленными в БД
+     * @param transactions список транзакций добавленных в БД
+     */
+    void committed(List<Trans> transactions) {
+        if (!active || null == transactions || transactions.isEmpty()) {
+            return;
+        }
+        List<Trans> sorted = new ArrayList<>(transactions);
+        sorted.sort(Comparator.comparingInt(Trans::getSerial));
+        synchronized (this) {
+            Trans first = sorted.get(0);
+            Trans last = first;
+            for (Trans transaction : sorted) {
+                if (transaction.getSerial() > last.getSerial() + 1) {
+                    add(first.getSerial(), last.getSerial(), last.getOffset());
+                    first = transaction;
+                }
+                last = transaction;
+            }
+            add(first.getSerial(), last.getSerial(), last.getOffset());
+        }
+    }
+
+    /**
+     * Отмечает транзакцию обработанной без добавления в БД (отклоненной)
+     * @param serial порядковый номер транзакции в файле данных
+     * @param offset позиция в файле сразу после блока транзакции или -1
+     */
+    synchronized void done(int serial, long offset) {
+        if (active) {
+            add(serial, serial, offset);
+        }
+    }
+
+    /**
+     * Сохраняет текущую контрольную точку в БД, если она изменилась с момента последнего сохранения
+     */
+    public void save() {
+        int currentSerial;
+        long currentOffset;
+        synchronized (this) {
+            if (!active || serial == savedSerial) {
+                return;
+            }
+            currentSerial = serial;
+            currentOffset = offset;
+        }
+        try {
+            jdbcTemplate.update("INSERT INTO " + CHECKPOINT_TABLE + " (file_name, file_size, serial, file_offset) " +
+                    "VALUES (?, ?, ?, ?) ON DUPLICATE KEY UPDATE file_size = VALUES(file_size), " +
+                    "serial = VALUES(serial), file_offset = VALUES(file_offset);",
+                    path(), new File(fileName).length(), currentSerial, currentOffset);
+            synchronized (this) {
+                savedSerial = Math.max(savedSerial, currentSerial);
+            }
+        } catch (Exception e) {
+            logger.warn("Не удалось сохранить контрольную точку загрузки после транзакции " + currentSerial);
+        }
+    }
+
+    /**
+     * Удаляет контрольную точку файла данных из БД после успешной загрузки всего файла
+     */
+    public void clear() {
+        if (!active) {
+            return;
+        }
+        try {
+            jdbcTemplate.update("DELETE FROM " + CHECKPOINT_TABLE + " WHERE file_name = ?;", path());
+        } catch (Exception e) {
+            logger.warn("Не удалось удалить контрольную точку загрузки. Необходимо удалить ее вручную с помощью SQL-запроса:" +
+                    "\nDELETE FROM " + CHECKPOINT_TABLE + " WHERE file_name = '" + path() + "';");
+        }
+    }
+
+    /**
+     * Возвращает порядковый номер транзакции, после которой продолжается текущая загрузка
+     * @return порядковый номер или 0, если загрузка начата сначала
+     */
+    public int getResumeSerial() {
+        return resumeSerial;
+    }
+
+    /**
+     * Возвращает позицию в файле, с которой продолжается текущая загрузка
+     * @return позиция в файле или -1, если позиция неизвестна или загрузка начата сначала
+     */
+    public long getResumeOffset() {
+        return resumeOffset;
+    }
+
+    /**
+     * Возвращает порядковый номер текущей контрольной точки
+     * @return наибольший порядковый номер, до которого включительно все транзакции обработаны
+     */
+    public synchronized int getSerial() {
+        return serial;
+    }
+
+    /**
+     * Возвращает позицию в файле текущей контрольной точки
+     * @return позиция в файле сразу после блока транзакции контрольной точки или -1, если позиция неизвестна
+     */
+    public synchronized long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Устанавливает контрольную точку начала загрузки и очищает диапазоны
+     */
+    private void reset(int serial, long offset) {
+        this.serial = serial;
+        this.offset = offset;
+        this.resumeSerial = serial;
+        this.resumeOffset = serial > 0 ? offset : -1;
+        this.savedSerial = serial;
+        ranges.clear();
+    }
+
+    /**
+     * Добавляет диапазон обработанных транзакций [first, last], объединяет его с соседними диапазонами и,
+     * если диапазон примыкает к контрольной точке, сдвигает контрольную точку на его конец
+     */
+    private void add(int first, int last, long lastOffset) {
+        if (last <= serial) {
+            return;
+        }
+        Range range = new Range(Math.max(first, serial + 1), last, lastOffset);
+
+        Map.Entry<Integer, Range> left = ranges.floorEntry(range.first);
+        if (null != left && left.getValue().last >= range.first - 1) {
+            ranges.remove(left.getKey());
+            merge(range, left.getValue());
+        }
+        Map.Entry<Integer, Range> right;
+        while (null != (right = ranges.ceilingEntry(range.first)) && right.getKey() <= range.last + 1) {
+            ranges.remove(right.getKey());
+            merge(range, right.getValue());
+        }
+
+        if (range.first == serial + 1) {
+            serial = range.last;
+            offset = range.offset;
+        } else {
+            ranges.put(range.first, range);
+        }
+    }
+
+    private static void merge(Range range, Range other) {
+        range.first = Math.min(range.first, other.first);
+        if (other.last > range.last) {
+            range.last = other.last;
+            range.offset = other.offset;
+        }
+    }
+
+    private String path() {
+        return new File(fileName).getAbsoluteFile().toPath().normalize().toString();
+    }
+}
@@ -0,0 +1,154 @@
+package com.dnsabr.vad.ukrsib.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Общий для всех потоков записи автоматический выключатель (circuit breaker) записи данных в БД
+ * Состояния:
+ *  CLOSED - запись разрешена. После threshold последовательных ошибок недоступности БД (RetryPolicyService.Failure
+ *           TRANSIENT и CONNECTION) во всех потоках записи выключатель размыкается;
+ *  OPEN - все потоки записи ожидают в методе acquire openMillis мс. Хранилище заполняется, и парсер останавливается
+ *         на ограничении размера хранилища;
+ *  HALF_OPEN - одному потоку записи разрешается пробная запись пакета, остальные продолжают ожидать. При удачной
+ *              пробе выключатель замыкается и все потоки продолжают запись, при неудачной снова размыкается.
+ * Ошибки, после которых выключатель разомкнут, не расходуют попытки записи пакета (SaveService), поэтому кратковременная
+ * недоступность БД приостанавливает загрузку, а не завершает ее принудительно.
+ * Прочие ошибки (нарушение ограничений и т.д.) относятся к данным транзакций, а не к доступности БД: они не изменяют
+ * состояние выключателя и счетчик последовательных ошибок. Выключатель замыкается только удачной записью. Если такая
+ * ошибка случилась при пробной записи, разрешение на пробу освобождается, и пробу выполняет следующий обратившийся поток.
+ * Поля:
+ *  threshold - количество последовательных ошибок недоступности БД до размыкания. Устанавливается в application.properties
+ *  openMillis - время в разомкнутом состоянии до пробной записи в мс. Устанавливается в application.properties
+ *  state - текущее состояние
+ *  consecutive - количество последовательных ошибок недоступности БД
+ *  probing - разрешение на пробную запись в состоянии HALF_OPEN выдано потоку записи
+ *  openedAt - время размыкания (System.currentTimeMillis)
+ *  opened - количество размыканий за время работы приложения
+ */
+@Service
+public class CircuitBreakerService {
+
+    /**
+     * Состояние выключателя
+     */
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final long POLL_MILLIS = 100;
+
+    @Value("${spring.jpa.properties.app.try.breaker.threshold}")
+    private int threshold;
+    @Value("${spring.jpa.properties.app.try.breaker.open}")
+    private long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutive;
+    private boolean probing;
+    private long openedAt;
+    private long opened;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    CircuitBreakerService() {
+    }
+
+    /**
+     * Ожидает разрешения на запись. Пока выключатель разомкнут, поток ожидает. По истечении openMillis первый
+     * обратившийся поток получает разрешение на пробную запись
+     * @param store хранилище-очередь транзакций. При его закрытии ожидание прекращается
+     */
+    synchronized void acquire(StoreService store) {
+        while (State.CLOSED != state && !store.isTerminated() && !Thread.currentThread().isInterrupted()) {
+            long wait = openedAt + openMillis - System.currentTimeMillis();
+            if (State.OPEN == state && wait <= 0) {
+                state = State.HALF_OPEN;
+                probing = true;
+                logger.info("Пробная запись в БД после приостановки записи");
+                return;
+            }
+            if (State.HALF_OPEN == state && !probing) {
+                probing = true;
+                return;
+            }
+            try {
+                wait(Math.max(1, Math.min(POLL_MILLIS, wait > 0 ? wait : POLL_MILLIS)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Учитывает удачную запись. Замыкает выключатель
+     */
+    synchronized void succeeded() {
+        consecutive = 0;
+        if (State.CLOSED != state) {
+            state = State.CLOSED;
+            probing = false;
+            logger.info("Запись в БД возобновлена");
+            notifyAll();
+        }
+    }
+
+    /**
+     * Учитывает неудачную запись. Ошибки, не относящиеся к недоступности БД, не изменяют состояние выключателя
+     * @param failure вид ошибки
+     * @return {@code true} если после ошибки выключатель разомкнут: ошибка не расходует попытки, запись той же
+     *  части пакета следует повторить после замыкания
+     */
+    synchronized boolean failed(RetryPolicyService.Failure failure) {
+        if (RetryPolicyService.Failure.TRANSIENT != failure && RetryPolicyService.Failure.CONNECTION != failure) {
+            if (State.HALF_OPEN == state && probing) {
+                probing = false;
+                notifyAll();
+            }
+            return false;
+        }
+        consecutive++;
+        if (State.HALF_OPEN == state || (State.CLOSED == state && consecutive >= Math.max(1, threshold))) {
+            state = State.OPEN;
+            probing = false;
+            openedAt = System.currentTimeMillis();
+            opened++;
+            logger.warn("Запись в БД приостановлена на " + openMillis + " мс после " + consecutive
+                    + " последовательных ошибок");
+        }
+        return State.CLOSED != state;
+    }
+
+    /**
+     * Проверяет, разрешена ли запись без ожидания
+     * @return {@code true} если выключатель замкнут
+     */
+    public synchronized boolean isClosed() {
+        return State.CLOSED == state;
+    }
+
+    /**
+     * Возвращает текущее состояние выключателя
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Возвращает количество размыканий выключателя
+     */
+    public synchronized long getOpened() {
+        return opened;
+    }
+
+    /**
+     * Замыкает выключатель и сбрасывает счетчик ошибок (перед новой загрузкой)
+     */
+    synchronized void reset() {
+        consecutive = 0;
+        state = State.CLOSED;
+        probing = false;
+        notifyAll();
+    }
+}
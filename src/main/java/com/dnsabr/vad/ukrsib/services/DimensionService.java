@@ -0,0 +1,379 @@
+package com.dnsabr.vad.ukrsib.services;
+
+import com.dnsabr.vad.ukrsib.models.*;
+import com.dnsabr.vad.ukrsib.utils.ConcurrentLongSet;
+import com.dnsabr.vad.ukrsib.utils.DictionaryCache;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.*;
+
+/**
+ * Сервис справочников (клиенты и места) для пакетной записи JDBC и двухфазной загрузки
+ * Клиенты и места добавляются запросами INSERT IGNORE (как в @SQLInsert сущностей), поэтому имеющиеся в БД строки
+ * не изменяются. Идентификаторы мест определяются по названию, а новым местам выдаются идентификаторы генератором
+ * сущности Place (последовательность place_seq), как и при записи через Hibernate.
+ * Имеющиеся в БД места запоминаются в ограниченном словаре-кэше (DictionaryCache, вытеснение LRU), а ИНН клиентов -
+ * в множестве чисел long (ConcurrentLongSet, Client.getInnNumber), общих для всех потоков записи. Клиент, ИНН которого есть
+ * в множестве, не добавляется в БД повторно. В начале загрузки словари очищаются (строки могли быть удалены из БД
+ * после прошлой загрузки) и заполняются из БД потоковым запросом (метод warmUp). Места,
+ * найденные в БД запросом, запоминаются сразу, а добавленные в текущей JPA-транзакции клиенты и места - только после
+ * ее фиксации, т.к. она может быть откачена. Так при установившейся загрузке потоки записи получают идентификаторы
+ * из словарей и не обращаются к таблицам clients и places.
+ * При двухфазной загрузке (preload) парсер перед передачей каждого пакета транзакций в хранилище добавляет в БД
+ * новых клиентов и места пакета, упорядоченные по ключу, и запоминает их в словарях (ParseService.flush). Файл данных
+ * читается один раз. Потоки записи транзакций получают только транзакции, клиенты и места которых уже есть в БД,
+ * не добавляют клиентов и места и ссылаются на клиентов без запроса к таблице clients. Если емкости словаря мест
+ * достаточно, потоки записи не обращаются и к таблице places, что исключает конкуренцию потоков за одни и те же
+ * строки этих таблиц.
+ * Поля:
+ *  enabled - указывает выполнять двухфазную загрузку. Устанавливается в application.properties
+ *  preloadBatchSize - размер пакета вставки клиентов и мест при двухфазной загрузке. Устанавливается в application.properties
+ *  placesCapacity, clientsCapacity - наибольшее количество записей словарей мест и клиентов (0 - словарь не
+ *                                    используется). Устанавливается в application.properties
+ *  entityManager - менеджер сущностей Hibernate. Используется только для генератора идентификаторов мест
+ *  jdbcTemplate - шаблон JDBC-запросов
+ *  placeIds - словарь имеющихся в БД мест: название места -> идентификатор. Создается при первом обращении.
+ *             Названия мест, как и в БД (сравнение строк по умолчанию), не различаются по регистру: ключом словаря
+ *             служит название в верхнем регистре (метод placeKey)
+ *  clientInns - множество ИНН имеющихся в БД клиентов. Создается при первом обращении
+ */
+@Service
+public class DimensionService {
+
+    @Value("${spring.jpa.properties.app.sql.preload}")
+    private boolean enabled;
+    @Value("${spring.jpa.properties.app.sql.preload.batch.size}")
+    private int preloadBatchSize;
+    @Value("${spring.jpa.properties.app.sql.dictionary.places}")
+    private int placesCapacity;
+    @Value("${spring.jpa.properties.app.sql.dictionary.clients}")
+    private int clientsCapacity;
+    @PersistenceContext
+    private EntityManager entityManager;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private volatile DictionaryCache<String, Integer> placeIds;
+    private volatile ConcurrentLongSet clientInns;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    DimensionService() {
+    }
+
+    /**
+     * Возвращает режим двухфазной загрузки
+     * @return {@code true} если клиенты и места транзакций добавляются в БД до передачи транзакций в хранилище
+     */
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Очищает словари и заполняет их имеющимися в БД местами и клиентами (не более емкости словарей). Каждая таблица
+     * читается одним потоковым запросом без загрузки всего результата в память
+     */
+    public void warmUp() {
+        DictionaryCache<String, Integer> places = places();
+        ConcurrentLongSet clients = clients();
+        places.clear();
+        clients.clear();
+        try {
+            if (places.isEnabled()) {
+                stream("select place, id from places limit " + places.getCapacity(),
+                        rs -> places.put(placeKey(rs.getString(1)), rs.getInt(2)));
+            }
+            if (clients.isEnabled()) {
+                stream("select inn from clients limit " + clients.getCapacity(),
+                        rs -> {
+                            long inn = Client.parseInn(rs.getString(1));
+                            if (inn > 0) {
+                                clients.add(inn);
+                            }
+                        });
+            }
+            logger.info("Загружены из БД словари: мест " + places.size() + ", клиентов " + clients.size());
+        } catch (DataAccessException e) {
+            logger.warn("Не удалось загрузить из БД словари клиентов и мест: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Первая фаза двухфазной загрузки: добавляет в БД клиентов и места в отдельной JPA-транзакции пакетами размера
+     * preloadBatchSize в порядке возрастания ИНН и названий и заполняет словари после фиксации JPA-транзакции
+     * @param clients клиенты пакета транзакций (каждый по одному разу)
+     * @param places места пакета транзакций (каждое по одному разу)
+     * @return {@code true} если все клиенты и места добавлены в БД
+     */
+    @Transactional(isolation = Isolation.READ_COMMITTED, propagation = Propagation.REQUIRES_NEW, rollbackFor = {Throwable.class})
+    public boolean preload(Collection<Client> clients, Collection<Place> places) {
+        try {
+            List<Client> sortedClients = new ArrayList<>(clients);
+            sortedClients.sort(Comparator.comparing(Client::getInn));
+            List<Place> sortedPlaces = new ArrayList<>(places);
+            sortedPlaces.sort(Comparator.comparing(Place::getPlaceName));
+            int size = Math.max(1, preloadBatchSize);
+            for (int i = 0; i < sortedClients.size(); i += size) {
+                saveClients(sortedClients.subList(i, Math.min(i + size, sortedClients.size())));
+            }
+            for (int i = 0; i < sortedPlaces.size(); i += size) {
+                savePlaces(sortedPlaces.subList(i, Math.min(i + size, sortedPlaces.size())));
+            }
+            logger.debug("Добавлены в БД справочники: клиентов " + sortedClients.size() + ", мест " + sortedPlaces.size());
+            return true;
+        } catch (Throwable e) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            logger.error("Не удалось добавить в БД справочники клиентов и мест: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Возвращает идентификатор места из словаря
+     * @param placeName название места
+     * @return идентификатор или null, если места нет в словаре
+     */
+    Integer getPlaceId(String placeName) {
+        return places().get(placeKey(placeName));
+    }
+
+    /**
+     * Проверяет наличие клиента в словаре
+     * @param inn ИНН клиента числом (Client.getInnNumber)
+     * @return {@code true} если клиент есть в БД по данным словаря
+     */
+    boolean isClientSaved(long inn) {
+        return inn > 0 && clients().contains(inn);
+    }
+
+    /**
+     * Запоминает в множестве ИНН клиентов, добавленных в текущей JPA-транзакции, после ее фиксации
+     * @param inns ИНН клиентов числом (Client.getInnNumber)
+     */
+    void rememberClients(Collection<Long> inns) {
+        if (!inns.isEmpty()) {
+            List<Long> copy = new ArrayList<>(inns);
+            afterCommit(() -> {
+                for (long inn : copy) {
+                    if (inn > 0) {
+                        clients().add(inn);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Запоминает в словаре места, идентификаторы которых определены в текущей JPA-транзакции, после ее фиксации
+     * @param ids название места -> идентификатор
+     */
+    void rememberPlaces(Map<String, Integer> ids) {
+        if (!ids.isEmpty()) {
+            Map<String, Integer> copy = new HashMap<>(ids);
+            afterCommit(() -> copy.forEach((placeName, id) -> places().put(placeKey(placeName), id)));
+        }
+    }
+
+    /**
+     * Возвращает словарь мест (для вывода количества попаданий и промахов)
+     */
+    public DictionaryCache<String, Integer> getPlaceCache() {
+        return places();
+    }
+
+    /**
+     * Возвращает множество ИНН клиентов (для вывода количества попаданий и промахов)
+     */
+    public ConcurrentLongSet getClientCache() {
+        return clients();
+    }
+
+    /**
+     * Добавляет клиентов, отсутствующих в множестве ИНН, одной пакетной вставкой INSERT IGNORE в текущей JPA-транзакции.
+     * Добавленные клиенты запоминаются в множестве после фиксации JPA-транзакции
+     * @param clients клиенты (каждый по одному разу)
+     */
+    void saveClients(Collection<Client> clients) {
+        List<Client> list = new ArrayList<>(clients.size());
+        for (Client client : clients) {
+            if (!isClientSaved(client.getInnNumber())) {
+                list.add(client);
+            }
+        }
+        if (list.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate("insert ignore into clients (first_name, last_name, middle_name, inn) values (?, ?, ?, ?)",
+                list, list.size(), (ps, client) -> {
+                    ps.setString(1, client.getFirstName());
+                    ps.setString(2, client.getLastName());
+                    ps.setString(3, client.getMiddleName());
+                    ps.setString(4, client.getInn());
+                });
+        List<Long> inns = new ArrayList<>(list.size());
+        for (Client client : list) {
+            inns.add(client.getInnNumber());
+        }
+        rememberClients(inns);
+    }
+
+    /**
+     * Добавляет места, отсутствующие в словаре и в БД, в текущей JPA-транзакции и возвращает идентификаторы всех мест
+     * 1. Определяет идентификаторы мест, отсутствующих в словаре, по названию одним запросом. Найденные места уже
+     *    зафиксированы в БД и сразу запоминаются в словаре
+     * 2. Добавляет отсутствующие в БД места пакетной вставкой INSERT IGNORE и повторно определяет идентификаторы
+     *    (конкурирующая транзакция могла добавить это же место). Эти места запоминаются после фиксации JPA-транзакции
+     * @param places места (каждое по одному разу)
+     * @return название места -> идентификатор
+     */
+    Map<String, Integer> savePlaces(Collection<Place> places) {
+        Map<String, Integer> ids = new HashMap<>();
+        Map<String, Place> unknown = new LinkedHashMap<>();
+        for (Place place : places) {
+            Integer id = getPlaceId(place.getPlaceName());
+            if (null != id) {
+                ids.put(place.getPlaceName(), id);
+            } else {
+                unknown.put(place.getPlaceName(), place);
+            }
+        }
+        if (unknown.isEmpty()) {
+            return ids;
+        }
+        Map<String, Integer> found = findPlaceIds(unknown.keySet());
+        List<Object[]> missing = new ArrayList<>();
+        Set<String> missingKeys = new HashSet<>();
+        for (Place place : unknown.values()) {
+            String key = placeKey(place.getPlaceName());
+            Integer id = found.get(key);
+            if (null != id) {
+                places().put(key, id);
+            } else if (missingKeys.add(key)) {
+                missing.add(new Object[]{place.getPlaceName(), nextPlaceId(place)});
+            }
+        }
+        if (!missing.isEmpty()) {
+            jdbcTemplate.batchUpdate("insert ignore into places (place, id) values (?, ?)", missing);
+            found = findPlaceIds(unknown.keySet());
+        }
+        for (String placeName : unknown.keySet()) {
+            Integer id = found.get(placeKey(placeName));
+            if (null == id) {
+                throw new IllegalStateException("Не удалось определить идентификатор места " + placeName);
+            }
+            ids.put(placeName, id);
+        }
+        if (!missing.isEmpty()) {
+            Map<String, Integer> added = new HashMap<>();
+            for (Object[] row : missing) {
+                added.put((String) row[0], ids.get(row[0]));
+            }
+            rememberPlaces(added);
+        }
+        return ids;
+    }
+
+    /**
+     * Определяет идентификаторы мест по названиям одним запросом
+     * Названия сравниваются без учета регистра, как и в БД при сравнении по умолчанию
+     * @return ключ названия места (placeKey) -> идентификатор
+     */
+    private Map<String, Integer> findPlaceIds(Collection<String> placeNames) {
+        Map<String, Integer> ids = new HashMap<>();
+        String in = String.join(", ", Collections.nCopies(placeNames.size(), "?"));
+        jdbcTemplate.query("select id, place from places where place in (" + in + ")",
+                (RowCallbackHandler) rs -> ids.put(placeKey(rs.getString(2)), rs.getInt(1)), placeNames.toArray());
+        return ids;
+    }
+
+    /**
+     * Возвращает ключ названия места для словаря мест: названия, различающиеся только регистром, дают один ключ,
+     * как и при сравнении названий в БД
+     */
+    private static String placeKey(String placeName) {
+        return null == placeName ? null : placeName.toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Выполняет действие после фиксации текущей JPA-транзакции, а вне транзакции (каждый запрос фиксируется сразу) -
+     * немедленно
+     */
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Читает результат запроса потоком (MySQL Connector/J выдает строки по одной при fetchSize Integer.MIN_VALUE)
+     */
+    private void stream(String sql, RowCallbackHandler handler) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(Integer.MIN_VALUE);
+            return statement;
+        }, handler);
+    }
+
+    private DictionaryCache<String, Integer> places() {
+        DictionaryCache<String, Integer> cache = placeIds;
+        if (null == cache) {
+            synchronized (this) {
+                if (null == placeIds) {
+                    placeIds = new DictionaryCache<>(placesCapacity);
+                }
+                cache = placeIds;
+            }
+        }
+        return cache;
+    }
+
+    private ConcurrentLongSet clients() {
+        ConcurrentLongSet cache = clientInns;
+        if (null == cache) {
+            synchronized (this) {
+                if (null == clientInns) {
+                    clientInns = new ConcurrentLongSet(clientsCapacity);
+                }
+                cache = clientInns;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Выдает новый идентификатор места генератором сущности Place (последовательность place_seq)
+     */
+    private int nextPlaceId(Place place) {
+        SharedSessionContractImplementor session = entityManager.unwrap(SharedSessionContractImplementor.class);
+        IdentifierGenerator generator = session.getFactory().getMetamodel().entityPersister(Place.class)
+                .getIdentifierGenerator();
+        return ((Number) generator.generate(session, place)).intValue();
+    }
+}
@@ -0,0 +1,121 @@
+package com.dnsabr.vad.ukrsib.services;
+
+import com.dnsabr.vad.ukrsib.models.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import java.util.*;
+
+/**
+ * Сервис записи данных в БД пакетной вставкой JDBC без контекста постоянства Hibernate
+ * Сохраняет семантику TransService: клиенты и места добавляются запросами INSERT IGNORE (как в @SQLInsert сущностей),
+ * идентификаторы мест определяются по названию, а новым местам выдаются идентификаторы тем же генератором
+ * последовательности place_seq, что и в TransService, поэтому оба способа записи можно использовать с одной БД
+ * (подробнее смотреть DimensionService). При двухфазной загрузке клиенты и места уже добавлены в БД и
+ * идентификаторы мест берутся из словаря DimensionService без запросов к БД.
+ * Повторная запись уже добавленной транзакции не является ошибкой: как и при слиянии (merge) в TransService,
+ * измененные в БД поля транзакции восстанавливаются значениями из файла данных.
+ * Сущности не попадают в контекст постоянства и кэш второго уровня.
+ * Поля:
+ *  retryPolicy - сервис политики повторных попыток. Получает исключение записи для определения вида ошибки
+ *  dimensions - сервис справочников клиентов и мест
+ *  queryService - сервис промежуточных таблиц для проверки файла за один проход
+ *  jdbcTemplate - шаблон JDBC-запросов. Выполняется в JPA-транзакции метода saveAll
+ *  staging - указывает записывать транзакции в промежуточную таблицу (проверка файла за один проход).
+ *            Включается вместе с предварительной проверкой файла в application.properties
+ */
+@Service
+public class JdbcTransService implements TransWriter {
+
+    @Autowired
+    private DimensionService dimensions;
+    @Autowired
+    private RetryPolicyService retryPolicy;
+    @Autowired
+    private QueryService queryService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Value("${spring.jpa.properties.app.parser.errors.check}")
+    private boolean doCheck;
+    @Value("${spring.jpa.properties.app.parser.errors.check.staging}")
+    private boolean staging;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    JdbcTransService() {
+    }
+
+    /**
+     * Сохраняет транзакции в БД.
+     * 1. Получает от SaverService пакет транзакций
+     * 2. Начинает новую JPA-транзакцию с таймаутом
+     * 3. Добавляет клиентов пакета (каждого по одному разу) пакетной вставкой INSERT IGNORE
+     * 4. Определяет идентификаторы мест по названию одним запросом, отсутствующие места добавляет пакетной вставкой
+     *    INSERT IGNORE и повторно определяет идентификаторы (конкурирующая транзакция могла добавить это же место).
+     *    Клиенты и места из словарей DimensionService пропускаются
+     * 5. Добавляет транзакции пакетной вставкой. Уже имеющиеся в БД транзакции обновляются значениями пакета
+     * 6. Завершает JPA-транзакцию
+     * 7. При любом исключении откатывает JPA-транзакцию.
+     * При проверке файла за один проход транзакции, их клиенты и места записываются только в промежуточные таблицы
+     * (QueryService.stage), таблицы clients и places не изменяются до переноса
+     * @param transactions список транзакций для пакетного добавления
+     * @return 0 в случае неудачи, иначе количество добавленных транзакций
+     */
+    @Override
+    @Transactional(isolation = Isolation.READ_COMMITTED, propagation = Propagation.REQUIRES_NEW,
+            timeoutString = "${spring.jpa.properties.app.sql.timeout}",rollbackFor = {Throwable.class})
+    public int saveAll(List<Trans> transactions) {
+        if (null==transactions || transactions.isEmpty()) {
+            return 0;
+        }
+        try {
+            if (doCheck && staging) {
+                return queryService.stage(transactions);
+            }
+            Map<String, Integer> placeIds = saveDimensions(transactions);
+            jdbcTemplate.batchUpdate("insert into transactions (id, amount, currency, card, client_id, place_id) " +
+                            "values (?, ?, ?, ?, ?, ?) on duplicate key update amount = values(amount), " +
+                            "currency = values(currency), card = values(card), client_id = values(client_id), " +
+                            "place_id = values(place_id)", transactions,
+                    transactions.size(), (ps, transaction) -> {
+                        ps.setLong(1, transaction.getId());
+                        ps.setBigDecimal(2, transaction.getAmount());
+                        ps.setString(3, transaction.getCurrency());
+                        ps.setString(4, transaction.getCard());
+                        ps.setString(5, transaction.getClient().getInn());
+                        ps.setInt(6, placeIds.get(transaction.getPlace().getPlaceName()));
+                    });
+            return transactions.size();
+        } catch (Throwable e) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            retryPolicy.failed(e);
+            logger.warn(e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Добавляет клиентов и отсутствующие места пакета транзакций (каждого по одному разу) с помощью DimensionService
+     * При двухфазной загрузке клиенты уже добавлены в БД парсером и не добавляются
+     * @return название места -> идентификатор
+     */
+    private Map<String, Integer> saveDimensions(List<Trans> transactions) {
+        Map<String, Client> clients = new LinkedHashMap<>();
+        Map<String, Place> places = new LinkedHashMap<>();
+        for (Trans transaction : transactions) {
+            clients.putIfAbsent(transaction.getClient().getInn(), transaction.getClient());
+            places.putIfAbsent(transaction.getPlace().getPlaceName(), transaction.getPlace());
+        }
+        if (!dimensions.isEnabled()) {
+            dimensions.saveClients(clients.values());
+        }
+        return dimensions.savePlaces(places.values());
+    }
+}
@@ -0,0 +1,96 @@
+package com.dnsabr.vad.ukrsib.services;
+
+import com.dnsabr.vad.ukrsib.models.Client;
+import com.dnsabr.vad.ukrsib.models.Place;
+import com.dnsabr.vad.ukrsib.utils.DictionaryCache;
+
+/**
+ * Задание загрузки одного файла данных
+ * Содержит все состояние загрузки, относящееся к одному файлу: хранилище-очередь транзакций со своей емкостью, счетчиком
+ * ошибок и флагами завершения, карантин отклоненных транзакций, контрольные точки, пул потоков записи и состояние
+ * разбора файла. Поэтому несколько файлов можно загружать одновременно в одной JVM (MainService.start): каждое задание
+ * ограничивает свою очередь и завершается независимо от других, а фабрика EntityManagerFactory, пул соединений с БД,
+ * кэш второго уровня и словари DimensionService остаются общими.
+ * Задания создаются методом MainService.newJob
+ * Поля:
+ *  fileName - абсолютный или относительно проекта путь к XML-файлу данных
+ *  store - хранилище-очередь транзакций задания
+ *  rejects - карантин транзакций задания со своим файлом отклоненных транзакций
+ *  checkpoints - контрольные точки возобновления загрузки файла задания
+ *  writers - пул потоков записи задания
+ *  doCheck - текущий режим разбора файла: предварительная проверка или разбор с передачей в хранилище
+ *  fileDoNotHaveMistakes - признак отсутствия ошибок в файле при текущем разборе
+ *  skipTo - порядковый номер транзакции, до которого включительно транзакции пропускаются при возобновлении загрузки
+ *  clientPool, placePool, currencyPool - словари общих экземпляров клиентов, мест и обозначений валют текущего разбора
+ *  Поля состояния разбора (fileDoNotHaveMistakes, skipTo, clientPool, placePool, currencyPool) устанавливает и
+ *  использует только ParseService (подробнее смотреть описание ParseService)
+ */
+public class LoadJob {
+
+    private final String fileName;
+    private final StoreService store;
+    private final RejectService rejects;
+    private final CheckpointService checkpoints;
+    private final WriterPoolService writers;
+    private volatile boolean doCheck;
+
+    volatile boolean fileDoNotHaveMistakes;
+    int skipTo;
+    volatile DictionaryCache<String, Client> clientPool = new DictionaryCache<>(0);
+    volatile DictionaryCache<String, Place> placePool = new DictionaryCache<>(0);
+    volatile DictionaryCache<String, String> currencyPool = new DictionaryCache<>(0);
+
+    /**
+     * @param fileName путь к XML-файлу данных
+     * @param doCheck {@code true} если файл разбирается с предварительной проверкой
+     * @param store хранилище-очередь транзакций задания
+     * @param rejects карантин транзакций задания
+     * @param checkpoints контрольные точки задания
+     * @param writers пул потоков записи задания
+     */
+    LoadJob(String fileName, boolean doCheck, StoreService store, RejectService rejects, CheckpointService checkpoints,
+            WriterPoolService writers) {
+        this.fileName = fileName;
+        this.doCheck = doCheck;
+        this.store = store;
+        this.rejects = rejects;
+        this.checkpoints = checkpoints;
+        this.writers = writers;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public StoreService getStore() {
+        return store;
+    }
+
+    public RejectService getRejects() {
+        return rejects;
+    }
+
+    public CheckpointService getCheckpoints() {
+        return checkpoints;
+    }
+
+    public WriterPoolService getWriters() {
+        return writers;
+    }
+
+    /**
+     * Возвращает текущий режим разбора файла
+     * @return {@code true} если файл разбирается в режиме проверки
+     */
+    boolean isDoCheck() {
+        return doCheck;
+    }
+
+    /**
+     * Устанавливает режим разбора файла. Проверка отключается ParseService после проверки файла без ошибок
+     * @param doCheck {@code true} режим проверки {@code false} режим разбора и передачи в хранилище
+     */
+    void setDoCheck(boolean doCheck) {
+        this.doCheck = doCheck;
+    }
+}
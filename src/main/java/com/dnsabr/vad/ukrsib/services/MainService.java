@@ -2,6 +2,7 @@ package com.dnsabr.vad.ukrsib.services;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
@@ -10,87 +11,206 @@ import org.springframework.util.StopWatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Класс запуска и проверки работы сервисов обработки данных
+ * Каждый файл данных загружается заданием загрузки (LoadJob) со своими хранилищем, карантином, контрольными точками и
+ * пулом потоков записи (метод newJob), поэтому несколько файлов можно загружать одновременно, вызывая метод start
+ * из разных потоков. Очередь каждого задания ограничена отдельно, а закрытие хранилища одного задания не останавливает
+ * другие. Фабрика EntityManagerFactory, пул соединений с БД, словари DimensionService, политика повторных попыток и
+ * выключатель записи общие для всех заданий.
  * Поля:
- *  amountOfThreads - желательное количество потоков записи данных в БД - устанавливается в application.properties
+ *  sourceFile - путь к файлу данных задания по умолчанию. Устанавливается в application.properties
+ *  rejectFile - путь к файлу отклоненных транзакций задания по умолчанию. Устанавливается в application.properties
  *  parseService - объект сервиса разбора входящего XML-файла
- *  saveService - объект сервиса управления записью данных в БД
  *  queryService - объект сервиса установки триггеров предотвращающих удаление/изменение данных ключевых полей
- *  store - хранилище-очередь транзакций полученных от parseService и еще не затребованых saveService
+ *  dimensions - сервис справочников клиентов и мест для двухфазной загрузки
+ *  retryPolicy - сервис политики повторных попыток записи. Содержит количество ошибок записи каждого вида
+ *  breaker - выключатель записи. Содержит количество приостановок записи при недоступности БД
+ *  stores, rejectServices, checkpointServices, writerPools - источники экземпляров хранилища, карантина, контрольных
+ *                                                           точек и пула потоков записи для новых заданий
+ *  stagingLock - блокировка промежуточных таблиц. Промежуточные таблицы общие, поэтому задания с проверкой за один
+ *                проход выполняются по очереди
+ *  activeJobs - количество выполняемых заданий. Первое задание устанавливает SQL-триггеры, замыкает выключатель и
+ *               заполняет словари, последнее удаляет SQL-триггеры
+ *  failedJobs - признак принудительной остановки хотя бы одного из выполняемых заданий. Тогда SQL-триггеры
+ *               не удаляются
  */
 @Service
 public class MainService {
 
-    @Value("${spring.jpa.properties.app.sql.threads}")
-    private int amountOfThreads;
+    private static final long TICK_MILLIS = 100;
+    private static final int TICKS_PER_ADJUST = 5;
+    private static final int TICKS_PER_CHECKPOINT = 10;
 
+    @Value("${spring.jpa.properties.app.source.file}")
+    private String sourceFile;
+    @Value("${spring.jpa.properties.app.parser.reject.file}")
+    private String rejectFile;
     @Autowired
     private ParseService parseService;
     @Autowired
-    private SaveService saveService;
-    @Autowired
     private QueryService queryService;
     @Autowired
-    private StoreService store;
+    private DimensionService dimensions;
+    @Autowired
+    private RetryPolicyService retryPolicy;
+    @Autowired
+    private CircuitBreakerService breaker;
+    @Autowired
+    private ObjectProvider<StoreService> stores;
+    @Autowired
+    private ObjectProvider<RejectService> rejectServices;
+    @Autowired
+    private ObjectProvider<CheckpointService> checkpointServices;
+    @Autowired
+    private ObjectProvider<WriterPoolService> writerPools;
+
+    private final ReentrantLock stagingLock = new ReentrantLock();
+    private int activeJobs;
+    private boolean failedJobs;
 
     MainService() {
     }
 
+    /**
+     * Создает задание загрузки файла данных, указанного в application.properties
+     * @return задание загрузки
+     */
+    public LoadJob newJob() {
+        return newJob(sourceFile, rejectFile);
+    }
+
+    /**
+     * Создает задание загрузки файла данных со своими хранилищем, карантином, контрольными точками и пулом потоков
+     * записи
+     * @param fileName путь к XML-файлу данных
+     * @param rejectFileName путь к файлу отклоненных транзакций задания
+     * @return задание загрузки
+     */
+    public LoadJob newJob(String fileName, String rejectFileName) {
+        RejectService rejects = rejectServices.getObject();
+        rejects.setFileName(rejectFileName);
+        CheckpointService checkpoints = checkpointServices.getObject();
+        checkpoints.setFileName(fileName);
+        return new LoadJob(fileName, parseService.isCheckEnabled(), stores.getObject(), rejects, checkpoints,
+                writerPools.getObject());
+    }
+
+    /**
+     * Загружает файл данных, указанный в application.properties (метод start(LoadJob))
+     */
+    public void start() {
+        start(newJob());
+    }
+
     /**
      * Осуществляет последовательные действия по запуску необходимых сервисов и проверку их работы
      * Ведет журнал действий. Использует таймер работы.
      * 1. Устанавливает SQL-триггеры предотвращающие удаление строк или изменение ключевых полей используемых таблиц
+     *    (если не выполняются другие задания)
      * 2. Запускает parseService - парсер файла данных в отдельном потоке. Если парсер запускается в режиме
-     *    предварительной проверки, ожидает завершение проверки.
-     * 3. Запускает вычисленное (не менее 1-го и не более количества выделенных логических процессоров минус один)
-     *    количество потоков сохранения данных saveService с разницей в 1 секунду, чтобы не запускать множество потоков
-     *    для небольших файлов.
-     * 4. Ожидает завершение работы всех сервисов. Сервисы могут быть остановлены принудительно при привышении
-     *    критического порога ошибок (значение устанавливается в application.properties)
-     * 5. Удаляет SQL-триггеры (пункт 1), только если все транзакции добавлены в БД
-     * 6. Предлагает запустить приложение еще раз, если не все транзакции добавлены в БД
+     *    предварительной проверки, ожидает завершение проверки. При проверке за один проход ожидает завершения
+     *    других заданий с проверкой за один проход, создает промежуточные таблицы транзакций, клиентов и мест и
+     *    не ожидает завершения проверки. Иначе читает контрольную точку прошлой загрузки этого файла, после которой
+     *    парсер продолжит разбор.
+     * 3. До запуска парсера (пункт 2) заполняет словари клиентов и мест имеющимися в БД записями (DimensionService.warmUp),
+     *    если не выполняются другие задания. При двухфазной загрузке парсер добавляет в БД клиентов и места каждого
+     *    пакета транзакций до передачи пакета в хранилище (ParseService), поэтому файл данных читается один раз.
+     * 4. Сразу запускает один поток сохранения данных saveService в пуле потоков записи задания (WriterPoolService).
+     * 5. Ожидает завершение работы всех сервисов задания. Сервисы могут быть остановлены принудительно при привышении
+     *    критического порога ошибок (значение устанавливается в application.properties). Во время ожидания
+     *    каждые полсекунды пересматривает количество потоков записи по глубине хранилища и длительности записи
+     *    пакетов и ежесекундно сохраняет контрольную точку загрузки.
+     * 6. При проверке за один проход переносит клиентов, места и транзакции из промежуточных таблиц, только если
+     *    файл прошел проверку и все транзакции добавлены в промежуточную таблицу. Удаляет промежуточные таблицы.
+     *    До переноса таблицы clients, places и transactions не изменяются.
+     * 7. Удаляет SQL-триггеры (пункт 1), только если все транзакции добавлены в БД и других заданий не выполняется
+     * 8. Удаляет контрольную точку, если все транзакции добавлены в БД. Иначе сохраняет контрольную точку и
+     *    предлагает запустить приложение еще раз
+     * @param job задание загрузки (метод newJob)
      */
-    public void start() {
+    public void start(LoadJob job) {
         Logger logger = LoggerFactory.getLogger(this.getClass());
+        StoreService store = job.getStore();
+        CheckpointService checkpoints = job.getCheckpoints();
+        RejectService rejects = job.getRejects();
+        WriterPoolService writers = job.getWriters();
 
         StopWatch watch = new StopWatch();
         watch.start();
-        logger.info("Начало работы приложения");
-        queryService.addTriggers();
-
-        int threadsAvailable = Math.max(2, Math.min(amountOfThreads + 1, Runtime.getRuntime().availableProcessors()));
-
-        // Запуск задач разбора входящего файла данных и добавления в БД
-        // (подробнее смотреть com.dnsabr.vad.ukrsib.services.ParseService и SaveService)
-        ExecutorService executor = Executors.newFixedThreadPool(threadsAvailable);
-        executor.execute(parseService);
-        while (parseService.isDoCheck()){
-            try {
-                TimeUnit.MILLISECONDS.sleep(100);
-            } catch (InterruptedException e) {/*пустое*/}
+        logger.info("Начало работы приложения. Файл данных " + job.getFileName());
+        boolean staging = parseService.isStaging();
+        if (staging) {
+            stagingLock.lock();
         }
-        executor.execute(saveService);
-        for (int i = 2; i < threadsAvailable; i++) {
-            try {
-                TimeUnit.MILLISECONDS.sleep(1000);
-            } catch (InterruptedException e) {/*пустое*/}
-            if (!store.isParserDone()) {
-                executor.execute(saveService);
+        boolean success = false;
+        try {
+            begin();
+            if (staging && !queryService.createStaging()) {
+                store.doTerminate();
+            }
+            if (!staging) {
+                checkpoints.load();
             }
-        }
-        executor.shutdown();
 
-        // Ожидание завершения работы всех сервисов
-        while (!executor.isTerminated()) {
-            try {
-                if (store.isTerminated()) {
-                    executor.shutdownNow();
-                }
-                TimeUnit.SECONDS.sleep(1);
+            // Запуск задач разбора входящего файла данных и добавления в БД
+            // (подробнее смотреть com.dnsabr.vad.ukrsib.services.ParseService, SaveService и WriterPoolService)
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            executor.execute(() -> parseService.run(job));
+            while (parseService.isDoCheck(job)){
+                try {
+                    TimeUnit.MILLISECONDS.sleep(100);
+                } catch (InterruptedException e) {/*пустое*/}
+            }
+            writers.start(job);
+            executor.shutdown();
+
+            // Ожидание завершения работы всех сервисов
+            int tick = 0;
+            while (!executor.isTerminated() || writers.getWorkers() > 0) {
+                try {
+                    if (store.isTerminated()) {
+                        executor.shutdownNow();
+                        writers.shutdownNow();
+                    }
+                    TimeUnit.MILLISECONDS.sleep(TICK_MILLIS);
+                    tick++;
+                    if (tick % TICKS_PER_ADJUST == 0) {
+                        writers.adjust();
+                    }
+                    if (tick % TICKS_PER_CHECKPOINT == 0) {
+                        checkpoints.save();
+                    }
+                } catch (InterruptedException e) {/*пустое*/}
+            }
+            writers.shutdown();
+            rejects.close();
+            logger.info("Наибольшее количество потоков записи данных в БД: " + writers.getPeakWorkers());
+            logger.info("Ошибки записи данных в БД по видам: " + retryPolicy.getCounts());
+            logger.info("Словарь мест: " + dimensions.getPlaceCache() + ". Словарь клиентов: " + dimensions.getClientCache());
+            if (breaker.getOpened() > 0) {
+                logger.warn("Запись данных в БД приостанавливалась из-за недоступности БД раз: " + breaker.getOpened());
+            }
 
-            } catch (InterruptedException e) {/*пустое*/}
+            if (staging) {
+                if (!store.isTerminated()) {
+                    int promoted = queryService.promoteStaging();
+                    if (promoted < 0) {
+                        store.doTerminate();
+                    } else {
+                        logger.info("Перенесено транзакций из промежуточной таблицы: " + promoted);
+                    }
+                }
+                queryService.dropStaging();
+            }
+            success = !store.isTerminated();
+        } finally {
+            finish(success);
+            if (staging) {
+                stagingLock.unlock();
+            }
         }
 
         watch.stop();
@@ -98,11 +218,45 @@ public class MainService {
 
         if (store.isTerminated()) {
             logger.warn("Принудительно остановлено приложение");
+            checkpoints.save();
             logger.error("Не все транзакции были добавлены в базу! Запустите приложение еще раз. Будет предпринята попытка добавить отсутствующие транзакции.");
+            if (checkpoints.getSerial() > 0) {
+                logger.info("Загрузка будет продолжена после транзакции с порядковым номером " + checkpoints.getSerial());
+            }
         } else {
-            queryService.dropTriggers();
-            logger.info("Все транзакции успешно добавлены в базу данных");
+            checkpoints.clear();
+            if (rejects.getCount() > 0) {
+                logger.warn("Добавлены в базу данных все транзакции кроме отклоненных: " + rejects.getCount()
+                        + ". Отклоненные транзакции записаны в файл " + rejects.getFileName());
+            } else {
+                logger.info("Все транзакции успешно добавлены в базу данных");
+            }
             logger.info("Завершение работы приложения");
         }
     }
+
+    /**
+     * Учитывает начало задания. Первое из выполняемых заданий устанавливает SQL-триггеры, замыкает общий выключатель
+     * записи и заполняет словари клиентов и мест. Остальные задания ожидают окончания этих действий
+     */
+    private synchronized void begin() {
+        if (activeJobs++ == 0) {
+            failedJobs = false;
+            queryService.addTriggers();
+            breaker.reset();
+            dimensions.warmUp();
+        }
+    }
+
+    /**
+     * Учитывает окончание задания. Последнее из выполняемых заданий удаляет SQL-триггеры, если ни одно из заданий
+     * не было остановлено принудительно
+     * @param success {@code true} если все транзакции задания добавлены в БД
+     */
+    private synchronized void finish(boolean success) {
+        failedJobs |= !success;
+        if (--activeJobs == 0 && !failedJobs) {
+            queryService.dropTriggers();
+        }
+    }
 }
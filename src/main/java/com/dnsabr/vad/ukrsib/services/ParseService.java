@@ -1,9 +1,10 @@
 package com.dnsabr.vad.ukrsib.services;
 
+import com.dnsabr.vad.ukrsib.models.Amount;
 import com.dnsabr.vad.ukrsib.models.Client;
 import com.dnsabr.vad.ukrsib.models.Place;
 import com.dnsabr.vad.ukrsib.models.Trans;
-import com.dnsabr.vad.ukrsib.utils.StaxStreamProcessor;
+import com.dnsabr.vad.ukrsib.utils.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,43 +12,96 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
-import javax.xml.stream.events.XMLEvent;
 import java.io.*;
-import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Класс-сервис с методом парсером XML-файла входящих данных
- * Данные извлекаются с помощью Streaming API for XML (StAX)
+ * Данные извлекаются с помощью Streaming API for XML (StAX) или специализированным разбором байтов UTF-8
+ * Файл, хранилище, карантин, контрольные точки и состояние разбора принадлежат заданию загрузки (LoadJob), которое
+ * передается методу run, поэтому один экземпляр сервиса разбирает одновременно файлы нескольких заданий.
  * Поля:
- *  fileName - абсолютный или относительно проекта путь к XML-файлу для разбора
  *  doCheck - указывает проводить ли предварительную проверку XML-файла на корректность данных (пустые значения).
  *            устанавливается в application.properties
- *  store - хранилище-очередь транзакций полученных от parseService и еще не затребованых saveService
+ *  staging - указывает проводить проверку XML-файла за один проход одновременно с загрузкой транзакций
+ *            в промежуточную таблицу. Устанавливается в application.properties
+ *  threads - количество потоков разбора XML-файла. При значении больше 1 файл разбивается на части по границам
+ *            тегов <transaction>, которые разбираются параллельно. Устанавливается в application.properties
+ *  mapped - указывает читать файл через отображение в память (MappedByteBuffer) вместо FileInputStream.
+ *           Устанавливается в application.properties
+ *  engine - способ разбора XML-файла: stax - StaxTransactionReader, bytes - ByteTransactionReader.
+ *           Устанавливается в application.properties
+ *  amountMode - способ представления суммы транзакции: decimal - BigDecimal из записи суммы (Amount.decimal),
+ *           fixed - целое число минимальных единиц, разобранное по цифрам (Amount.parse).
+ *           Устанавливается в application.properties
+ *  batchSize - размер пакета транзакций передаваемого в хранилище за одну операцию
+ *  internCapacity - наибольшее количество записей каждого словаря общих экземпляров (0 - экземпляры не
+ *                   разделяются). Устанавливается в application.properties
+ *  dimensions - сервис справочников клиентов и мест для двухфазной загрузки
+ * Словари общих экземпляров клиентов (ИНН -> клиент), мест и обозначений валют задания (LoadJob.clientPool, placePool,
+ * currencyPool) создаются при каждом запуске разбора. Повторяющиеся в файле клиенты, места и валюты передаются
+ * в хранилище одним экземпляром, а не отдельным объектом для каждой транзакции
  */
 @Service
-public class ParseService implements Runnable{
+public class ParseService {
 
-    @Value("${spring.jpa.properties.app.source.file}")
-    private String fileName;
     @Value("${spring.jpa.properties.app.parser.errors.check}")
     private boolean doCheck;
+    @Value("${spring.jpa.properties.app.parser.errors.check.staging}")
+    private boolean staging;
+    @Value("${spring.jpa.properties.app.parser.threads}")
+    private int threads;
+    @Value("${spring.jpa.properties.app.parser.mmap}")
+    private boolean mapped;
+    @Value("${spring.jpa.properties.app.parser.engine}")
+    private String engine;
+    @Value("${spring.jpa.properties.app.parser.amount}")
+    private String amountMode;
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size}")
+    private int batchSize;
+    @Value("${spring.jpa.properties.app.parser.intern}")
+    private int internCapacity;
 
     @Autowired
-    private StoreService store;
+    private DimensionService dimensions;
 
     ParseService() {
     }
 
     /**
-     * Возвращает текущий режим работы сервиса
-     * @return {@code true} режим проверки данных {@code false} режим разбора данных и добавления в хранилище
+     * Возвращает режим разбора, с которого начинается задание загрузки
+     * @return {@code true} если файлы проверяются (предварительно или за один проход)
      */
-    boolean isDoCheck() {
+    boolean isCheckEnabled() {
         return doCheck;
     }
 
+    /**
+     * Возвращает текущий режим разбора файла задания
+     * @param job задание загрузки
+     * @return {@code true} режим предварительной проверки данных, во время которой транзакции не передаются
+     *         в хранилище {@code false} режим разбора данных и добавления в хранилище, в том числе проверка
+     *         за один проход с загрузкой в промежуточную таблицу
+     */
+    boolean isDoCheck(LoadJob job) {
+        return job.isDoCheck() && !staging;
+    }
+
+    /**
+     * Возвращает режим проверки за один проход с загрузкой транзакций в промежуточную таблицу
+     * @return {@code true} если установлены режим проверки и режим промежуточной таблицы
+     */
+    boolean isStaging() {
+        return doCheck && staging;
+    }
+
     /**
      * Парсит XML-файл входящих данных.
      * Принцип работы построен на прохождении по XML-документу и выборе нужных данных частями.
@@ -55,22 +109,38 @@ public class ParseService implements Runnable{
      * Размер файла ограничен только возможностями операционной системы и JVM.
      * В режиме проверки: проверяет данные и выводит результат в журнал. При нахождении ошибок завершает работу
      *  после проверки всего файла. Если ошибок нет, отключает режим проверки и вызывает себя рекурсивно.
-     * В режиме разбора: сразу передает каждую транзакцию в хранилище сервиса StoreService.
-     * Метод в цикле перебирает все теги XML-документа (цикл while).
-     *  При нахождении тега <transaction> в новом цикле (цикл do)
-     *  перебирает все теги до закрывающего тега </transaction>,
-     *  сохраняя значения в соответствующие переменные в конструкции switch case.
-     *  Переходит к следующей итеррации цикла while
+     *  С промежуточной таблицей (staging) файл разбирается один раз: пока ошибки не найдены, транзакции передаются
+     *  в хранилище и записываются в промежуточную таблицу. При нахождении ошибок передача прекращается, но проверка
+     *  продолжается до конца файла. Если ошибок нет, транзакции переносятся из промежуточной таблицы MainService.
+     * В режиме разбора: собирает транзакции в пакеты размера batchSize и передает каждый пакет в хранилище сервиса
+     *  StoreService за одну операцию. При двухфазной загрузке перед передачей пакета в хранилище добавляет в БД
+     *  клиентов и места пакета, которых еще нет в словарях DimensionService (метод flush). Транзакции с
+     *  недопустимыми значениями записываются в файл отклоненных транзакций (RejectService), пока их количество
+     *  не превысит установленный порог.
+     *  Если установлено более одного потока разбора, файл разбирается параллельно (метод parseInParallel).
+     *  Если найдена контрольная точка прошлой загрузки (CheckpointService), разбор продолжается с ее позиции в файле,
+     *  а если позиция неизвестна - транзакции до контрольной точки включительно читаются, но не передаются в хранилище.
+     *  Режим проверки всегда выполняется одним потоком.
      * Структура XML-файла указана в классе com.dnsabr.vad.ukrsib.utils.Utils)
      * Сервис прекращает работу после полной обработки входящего файла, при закрытии хранилища StoreService
-     * или при наличии ошибок. Оповещает StoreService о завершении своей работы. Ведет журнал действий.
+     * или при наличии ошибок. Оповещает StoreService о завершении своей работы, в том числе при непредвиденной
+     * ошибке (RuntimeException): хранилище закрывается, чтобы потоки записи не ожидали транзакций. Ведет журнал действий.
+     * @param job задание загрузки: файл, хранилище, карантин, контрольные точки и состояние разбора
      */
-    public void run() {
+    public void run(LoadJob job) {
 
         Logger logger = LoggerFactory.getLogger(this.getClass());
-        boolean fileDoNotHaveMistakes = true;
+        String fileName = job.getFileName();
+        StoreService store = job.getStore();
+        RejectService rejects = job.getRejects();
+        CheckpointService checkpoints = job.getCheckpoints();
+        boolean checking = job.isDoCheck();
+        job.fileDoNotHaveMistakes = true;
+        job.clientPool = new DictionaryCache<>(internCapacity);
+        job.placePool = new DictionaryCache<>(internCapacity);
+        job.currencyPool = new DictionaryCache<>(internCapacity);
 
-        if (doCheck) {
+        if (checking) {
             // Режим проверки
             logger.info("Запущен процесс предварительного разбора входящего XML-файла");
         } else {
@@ -79,115 +149,367 @@ public class ParseService implements Runnable{
         }
 
         int serial = 0;
-        try (StaxStreamProcessor processor = new StaxStreamProcessor(new FileInputStream(fileName))) {
-
-            XMLStreamReader reader = processor.getReader();
-
-            while (reader.hasNext() && !store.isTerminated()) {
-
-                int event = reader.next();
-                if (event == XMLEvent.START_ELEMENT && "transaction".equals(reader.getLocalName())) {
-                    String placeName = "", currency = "", card = "", firstName = "", lastName = "", middleName = "", inn = "", amount1 = "";
-                    BigDecimal amount = null;
-                    Client client;
-                    Place place;
-                    Trans transaction;
-
-                    do {
-                        event = reader.next();
-
-                        if (event == XMLEvent.START_ELEMENT) {
-                            switch (reader.getLocalName()) {
-                                case "place":
-                                    placeName = reader.getElementText();
-                                    break;
-                                case "amount":
-                                    amount1 = reader.getElementText();
-                                    break;
-                                case "currency":
-                                    currency = reader.getElementText();
-                                    break;
-                                case "card":
-                                    card = reader.getElementText();
-                                    break;
-                                case "firstName":
-                                    firstName = reader.getElementText();
-                                    break;
-                                case "lastName":
-                                    lastName = reader.getElementText();
-                                    break;
-                                case "middleName":
-                                    middleName = reader.getElementText();
-                                    break;
-                                case "inn":
-                                    inn = reader.getElementText();
-                                    break;
-                                default:
-                            }
-                        }
-                    } while (event != XMLEvent.END_ELEMENT || !"transaction".equals(reader.getLocalName()));
-
-                    serial++;
-                    if (doCheck) {
-                        // Режим проверки
-                        client = Client.newClient(firstName, lastName, middleName, inn).orElse(null);
-                        place = Place.newPlace(placeName).orElse(null);
-                        try {
-                            amount = new BigDecimal(amount1);
-                        } catch (NumberFormatException nf) {/*пустое*/}
-                        transaction = Trans.newTrans(amount, currency, card, client, place, serial).orElse(null);
-
-                        if (null == client || null == place || null == transaction) {
-                            fileDoNotHaveMistakes = false;
-                            logger.error("Недопустимое значение в транзакции в файле " + fileName + " порядковый номер "
-                                    + (serial) + " : " + placeName + "," + amount1 + "," + currency + "," + card + "," + firstName + ","
-                                    + lastName + "," + middleName + "," + inn);
-                        }
-                    } else {
-                        // Режим разбора и передачи в хранилище
-                        client = Client.newClient(firstName, lastName, middleName, inn).orElseThrow();
-                        place = Place.newPlace(placeName).orElseThrow();
-                        transaction = Trans.newTrans(new BigDecimal(amount1), currency, card, client, place, serial).orElseThrow();
-                        store.add(transaction);
-                    }
+        boolean unexpected = true;
+        try {
+            int resumeSerial = checking ? 0 : checkpoints.getResumeSerial();
+            long resumeOffset = checking ? -1 : checkpoints.getResumeOffset();
+            job.skipTo = resumeSerial;
+            if (!checking) {
+                rejects.open(resumeSerial > 0);
+            }
+            if (resumeSerial > 0) {
+                logger.info("Разбор продолжается после транзакции с порядковым номером " + resumeSerial);
+            }
+            if (!checking && (threads > 1 || resumeOffset >= 0)) {
+                serial = parseInParallel(job, Math.max(0, resumeOffset), resumeOffset >= 0 ? resumeSerial : 0);
+            } else {
+                try (TransactionReader reader = newReader(open(fileName))) {
+                    serial = parse(job, reader, 0, 0);
                 }
             }
-        } catch (NoSuchElementException | NumberFormatException e) {
-            logger.error("Недопустимое значение в транзакции в файле "+fileName+" порядковый номер "
-                    +(serial)+". Для выявления всех ошибок и вывода подробной информации о транзакции " +
-                    "запустите приложение с параметром spring.jpa.properties.app.parser.errors.check=true");
-            fileDoNotHaveMistakes = false;
-            store.doTerminate();
+            unexpected = false;
         } catch (XMLStreamException e) {
             logger.error("Невозможно обработать файл "+fileName+". Проверьте соответствие структуры XML-файла" +
                     " примеру в jUnit-тестах");
-            fileDoNotHaveMistakes = false;
+            job.fileDoNotHaveMistakes = false;
             store.doTerminate();
+            unexpected = false;
         } catch (IOException e) {
             logger.error("Невозможно обработать файл "+fileName+". Проверьте наличие файла в корне проекта " +
                     "или по указанному пути, права доступа и диск на котором он расположен!");
-            fileDoNotHaveMistakes = false;
+            job.fileDoNotHaveMistakes = false;
             store.doTerminate();
+            unexpected = false;
+        } finally {
+            if (unexpected) {
+                logger.error("Непредвиденная ошибка при обработке файла " + fileName + ". Хранилище закрыто");
+                job.fileDoNotHaveMistakes = false;
+                store.doTerminate();
+                if (!checking) {
+                    rejects.close();
+                }
+                store.parserDone();
+            }
         }
 
-        if (doCheck) {
+        if (checking) {
             // Режим проверки
-            doCheck = false;
+            job.setDoCheck(false);
             logger.info("Завершил работу процесс предварительного разбора входящего XML-файла. Прочитано транзакций: " + serial);
-            if (fileDoNotHaveMistakes) {
-                run();
-            } else {
+            if (!job.fileDoNotHaveMistakes) {
                 logger.error("Файл "+fileName+" не прошел проверку! Транзакции для загрузки в БД не будут переданы!");
                 store.doTerminate();
+            } else if (staging) {
+                store.parserDone();
+                logger.info("Файл "+fileName+" прошел проверку. Все транзакции переданы в хранилище");
+            } else {
+                run(job);
             }
         } else {
             // Режим разбора и передачи в хранилище
+            rejects.close();
             store.parserDone();
             if (store.isTerminated()) {
                 logger.warn("Принудительно остановлен сервис разбора входящего XML-файла. Прочитано транзакций: " + serial);
             } else {
                 logger.info("Завершил работу сервис разбора входящего XML-файла. Прочитано транзакций: " + serial);
             }
+            if (job.clientPool.isEnabled()) {
+                logger.debug("Общие экземпляры клиентов: " + job.clientPool + ", мест: " + job.placePool + ", валют: "
+                        + job.currencyPool);
+            }
+            if (rejects.getCount() > 0) {
+                logger.warn("Отклонено транзакций с недопустимыми значениями: " + rejects.getCount()
+                        + ". Отклоненные транзакции записаны в файл " + rejects.getFileName());
+            }
+        }
+    }
+
+    /**
+     * Открывает поток чтения файла целиком
+     * @param fileName путь к файлу данных
+     * @return MappedInputStream при чтении через отображение в память, иначе FileInputStream
+     * @throws IOException при ошибке открытия файла
+     */
+    private InputStream open(String fileName) throws IOException {
+        return mapped ? new MappedInputStream(Paths.get(fileName)) : new FileInputStream(fileName);
+    }
+
+    /**
+     * Разбирает файл несколькими потоками.
+     * 1. Разбивает файл начиная с позиции from на байтовые диапазоны по границам тегов <transaction>
+     *    (не более threads диапазонов)
+     * 2. Параллельно подсчитывает количество транзакций в каждом диапазоне. Сумма количеств транзакций
+     *    предшествующих диапазонов дает порядковый номер, с которого начинается нумерация в диапазоне. Таким образом
+     *    транзакции получают те же порядковые номера, что и при разборе файла одним потоком.
+     * 3. Параллельно разбирает каждый диапазон и передает транзакции в хранилище StoreService
+     * Ошибка в любом из потоков закрывает хранилище, остальные потоки прекращают работу.
+     * @param job задание загрузки
+     * @param from позиция в файле, с которой начинается разбор
+     * @param serial порядковый номер транзакции предшествующей позиции from
+     * @return порядковый номер последней прочитанной транзакции
+     * @throws IOException при ошибке чтения файла
+     * @throws XMLStreamException при несоответствии структуры XML-файла ожидаемой
+     */
+    private int parseInParallel(LoadJob job, long from, int serial) throws IOException, XMLStreamException {
+        StoreService store = job.getStore();
+        try (FileChannel channel = FileChannel.open(Paths.get(job.getFileName()), StandardOpenOption.READ)) {
+            List<XmlChunkSplitter.Chunk> chunks = XmlChunkSplitter.split(channel, Math.max(1, threads), from);
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, chunks.size()));
+            try {
+                List<Future<Integer>> counts = new ArrayList<>(chunks.size());
+                for (XmlChunkSplitter.Chunk chunk : chunks) {
+                    counts.add(executor.submit(() -> XmlChunkSplitter.count(channel, chunk)));
+                }
+                List<Future<Integer>> results = new ArrayList<>(chunks.size());
+                int firstSerial = serial;
+                for (int i = 0; i < chunks.size(); i++) {
+                    XmlChunkSplitter.Chunk chunk = chunks.get(i);
+                    int chunkSerial = firstSerial;
+                    results.add(executor.submit(() -> parseChunk(job, channel, chunk, chunkSerial)));
+                    firstSerial += counts.get(i).get();
+                }
+                int amount = 0;
+                for (Future<Integer> result : results) {
+                    amount += result.get();
+                }
+                return serial + amount;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                store.doTerminate();
+                return 0;
+            } catch (ExecutionException e) {
+                store.doTerminate();
+                if (e.getCause() instanceof XMLStreamException) {
+                    throw (XMLStreamException) e.getCause();
+                } else if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Разбирает один байтовый диапазон файла
+     * @param job задание загрузки
+     * @param channel канал открытого для чтения файла
+     * @param chunk диапазон
+     * @param serial порядковый номер последней транзакции предшествующей диапазону
+     * @return количество прочитанных транзакций
+     * @throws XMLStreamException при несоответствии структуры XML-файла ожидаемой
+     */
+    private int parseChunk(LoadJob job, FileChannel channel, XmlChunkSplitter.Chunk chunk, int serial)
+            throws XMLStreamException, IOException {
+        try (TransactionReader reader = newReader(XmlChunkSplitter.open(channel, chunk, mapped))) {
+            return parse(job, reader, serial, XmlChunkSplitter.fileOffset(chunk, 0)) - serial;
+        }
+    }
+
+    /**
+     * Читает блоки <transaction> документа, нумерует их и передает значения методу process
+     * Транзакции с порядковыми номерами до skipTo включительно пропускаются
+     * Собранный методом process неполный пакет транзакций передается в хранилище после чтения документа
+     * @param job задание загрузки
+     * @param reader читатель блоков <transaction> документа
+     * @param serial порядковый номер транзакции предшествующей первой транзакции документа
+     * @param base позиция начала документа в файле для вычисления позиций транзакций в файле
+     * @return порядковый номер последней прочитанной транзакции
+     * @throws XMLStreamException при несоответствии структуры XML-файла ожидаемой
+     * @throws IOException при ошибке чтения файла
+     */
+    private int parse(LoadJob job, TransactionReader reader, int serial, long base) throws XMLStreamException, IOException {
+        TransactionFields fields = new TransactionFields();
+        List<Trans> batch = new ArrayList<>(Math.max(1, batchSize));
+        while (!job.getStore().isTerminated() && reader.next(fields)) {
+            serial++;
+            if (serial > job.skipTo) {
+                long offset = reader.getEndOffset();
+                process(job, serial, fields, offset < 0 ? -1 : base + offset, batch);
+                if (batch.size() >= batchSize) {
+                    flush(job, batch);
+                }
+            }
+        }
+        flush(job, batch);
+        return serial;
+    }
+
+    /**
+     * Возвращает общий экземпляр клиента с такими же ИНН, фамилией, именем и отчеством или создает новый
+     * (Client.newClient) и запоминает его. Клиент с тем же ИНН, но другими именами, не заменяется общим экземпляром
+     * @return клиент или null, если параметры не удовлетворяют критериям Client.newClient
+     */
+    private Client internClient(LoadJob job, String firstName, String lastName, String middleName, String inn) {
+        Client client = null == inn ? null : job.clientPool.get(inn);
+        if (null != client && client.getFirstName().equals(firstName) && client.getLastName().equals(lastName)
+                && client.getMiddleName().equals(middleName)) {
+            return client;
+        }
+        client = Client.newClient(firstName, lastName, middleName, inn).orElse(null);
+        if (null != client) {
+            job.clientPool.put(inn, client);
+        }
+        return client;
+    }
+
+    /**
+     * Возвращает общий экземпляр места с таким же названием или создает новый (Place.newPlace) и запоминает его
+     * @return место или null, если название не удовлетворяет критериям Place.newPlace
+     */
+    private Place internPlace(LoadJob job, String placeName) {
+        Place place = null == placeName ? null : job.placePool.get(placeName);
+        if (null == place) {
+            place = Place.newPlace(placeName).orElse(null);
+            if (null != place) {
+                job.placePool.put(placeName, place);
+            }
+        }
+        return place;
+    }
+
+    /**
+     * Возвращает общий экземпляр строки обозначения валюты
+     */
+    private String internCurrency(LoadJob job, String currency) {
+        if (null == currency) {
+            return null;
+        }
+        String shared = job.currencyPool.get(currency);
+        if (null == shared) {
+            job.currencyPool.put(currency, currency);
+            shared = currency;
+        }
+        return shared;
+    }
+
+    /**
+     * Разбирает запись суммы транзакции в соответствии с установленным способом представления суммы
+     * @param text значение тега <amount>
+     * @return Amount.parse для amountMode=fixed, иначе Amount.decimal
+     * @throws NumberFormatException если запись суммы недопустима
+     */
+    private Amount parseAmount(String text) {
+        return "fixed".equalsIgnoreCase(amountMode) ? Amount.parse(text) : Amount.decimal(text);
+    }
+
+    /**
+     * Создает читателя блоков <transaction> в соответствии с установленным способом разбора
+     * @param is поток чтения XML-документа
+     * @return ByteTransactionReader для engine=bytes, иначе StaxTransactionReader
+     * @throws XMLStreamException при ошибке создания StAX-читателя
+     */
+    private TransactionReader newReader(InputStream is) throws XMLStreamException {
+        return "bytes".equalsIgnoreCase(engine) ? new ByteTransactionReader(is) : new StaxTransactionReader(is);
+    }
+
+    /**
+     * Создает транзакцию из значений тегов одного блока <transaction>
+     * @param job задание загрузки
+     * @param serial порядковый номер транзакции в файле
+     * @param fields значения тегов блока
+     * @param offset позиция в файле сразу после блока транзакции или -1, если позиция неизвестна
+     * @param batch пакет транзакций для передачи в хранилище. Передается в хранилище методом parse при достижении размера batchSize
+     * В режиме проверки: при недопустимых значениях выводит транзакцию в журнал. С промежуточной таблицей
+     *  добавляет транзакцию в пакет, если ошибки в файле еще не найдены.
+     * В режиме разбора: добавляет транзакцию в пакет. При недопустимых значениях
+     *  передает транзакцию в карантин RejectService. При превышении порога отклоненных транзакций закрывает хранилище.
+     */
+    private void process(LoadJob job, int serial, TransactionFields fields, long offset, List<Trans> batch) {
+        Logger logger = LoggerFactory.getLogger(this.getClass());
+        String fileName = job.getFileName();
+        String placeName = fields.getPlaceName(), amount1 = fields.getAmount(), currency = fields.getCurrency(),
+                card = fields.getCard(), firstName = fields.getFirstName(), lastName = fields.getLastName(),
+                middleName = fields.getMiddleName(), inn = fields.getInn();
+        Amount amount = null;
+        Client client;
+        Place place;
+        Trans transaction;
+
+        if (job.isDoCheck()) {
+            // Режим проверки
+            client = internClient(job, firstName, lastName, middleName, inn);
+            place = internPlace(job, placeName);
+            currency = internCurrency(job, currency);
+            try {
+                amount = parseAmount(amount1);
+            } catch (NumberFormatException nf) {/*пустое*/}
+            transaction = Trans.newParsedTrans(amount, currency, card, client, place, serial).orElse(null);
+
+            if (null == client || null == place || null == transaction) {
+                job.fileDoNotHaveMistakes = false;
+                logger.error("Недопустимое значение в транзакции в файле " + fileName + " порядковый номер "
+                        + (serial) + " : " + fields);
+            } else if (staging && job.fileDoNotHaveMistakes) {
+                batch.add(transaction);
+            }
+        } else {
+            // Режим разбора и передачи в хранилище
+            try {
+                client = Optional.ofNullable(internClient(job, firstName, lastName, middleName, inn)).orElseThrow();
+                place = Optional.ofNullable(internPlace(job, placeName)).orElseThrow();
+                transaction = Trans.newParsedTrans(parseAmount(amount1), internCurrency(job, currency), card, client, place, serial)
+                        .orElseThrow();
+                transaction.setOffset(offset);
+                batch.add(transaction);
+            } catch (NoSuchElementException | NumberFormatException e) {
+                job.fileDoNotHaveMistakes = false;
+                if (job.getRejects().reject(serial, fields)) {
+                    job.getCheckpoints().done(serial, offset);
+                    logger.warn("Недопустимое значение в транзакции в файле " + fileName + " порядковый номер "
+                            + (serial) + ". Транзакция отклонена");
+                } else {
+                    logger.error("Недопустимое значение в транзакции в файле "+fileName+" порядковый номер "
+                            +(serial)+". Превышен порог отклоненных транзакций. Для выявления всех ошибок и вывода " +
+                            "подробной информации о транзакциях запустите приложение с параметром " +
+                            "spring.jpa.properties.app.parser.errors.check=true");
+                    job.getStore().doTerminate();
+                }
+            }
+        }
+    }
+
+    /**
+     * Передает накопленные транзакции пакета в хранилище и очищает пакет
+     * При двухфазной загрузке пакет передается в хранилище только после добавления в БД его клиентов и мест,
+     * поэтому потоки записи получают транзакции, клиенты и места которых уже есть в БД. Если клиентов и места
+     * не удалось добавить, хранилище закрывается. При проверке файла за один проход клиенты и места не добавляются
+     * в БД: они записываются в промежуточные таблицы вместе с транзакциями и переносятся только после проверки
+     * @param job задание загрузки
+     * @param batch пакет транзакций
+     */
+    private void flush(LoadJob job, List<Trans> batch) {
+        if (!batch.isEmpty()) {
+            if (dimensions.isEnabled() && !job.isDoCheck() && !preload(batch)) {
+                job.getStore().doTerminate();
+            } else {
+                job.getStore().addAll(batch);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Первая фаза двухфазной загрузки (DimensionService): добавляет в БД клиентов и места пакета, которых нет
+     * в словарях DimensionService. Каждый клиент и место передаются по одному разу
+     * @param batch пакет транзакций
+     * @return {@code true} если клиенты и места пакета есть в БД
+     */
+    private boolean preload(List<Trans> batch) {
+        Map<Long, Client> clients = new HashMap<>();
+        Map<String, Place> places = new HashMap<>();
+        for (Trans transaction : batch) {
+            Client client = transaction.getClient();
+            if (!dimensions.isClientSaved(client.getInnNumber())) {
+                clients.putIfAbsent(client.getInnNumber(), client);
+            }
+            Place place = transaction.getPlace();
+            if (null == dimensions.getPlaceId(place.getPlaceName())) {
+                places.putIfAbsent(place.getPlaceName(), place);
+            }
         }
+        return clients.isEmpty() && places.isEmpty() || dimensions.preload(clients.values(), places.values());
     }
 }
@@ -2,9 +2,15 @@ package com.dnsabr.vad.ukrsib.services;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import com.dnsabr.vad.ukrsib.models.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import java.util.*;
 
 /**
  * Сервис установки SQL-триггеров для предотвращения удаления или изменения ключевых полей во время обновления
@@ -15,14 +21,25 @@ import org.springframework.stereotype.Service;
  * пользователи не изменили ключевое поле place во время работы или между запусками после сбоя приложения.
  * ToDo Если использование таких триггеров неприемлимо исходя из бизнес-логики, можно использовать
  * ToDo дополнительную таблицу аудита содержащую foreign keys для ключевых полей
+ * Также управляет промежуточными таблицами transactions_staging, clients_staging и places_staging для проверки файла
+ * за один проход (spring.jpa.properties.app.parser.errors.check.staging=true). Пока файл проверяется, транзакции,
+ * клиенты и места записываются только в промежуточные таблицы, а таблицы transactions, clients и places
+ * не изменяются до переноса (метод promoteStaging). Поэтому файл с ошибками не изменяет данные БД.
  */
 @Service
 public class QueryService {
     @Autowired
     private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private DimensionService dimensions;
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    static final String STAGING_TABLE = "transactions_staging";
+    static final String CLIENTS_STAGING_TABLE = "clients_staging";
+    static final String PLACES_STAGING_TABLE = "places_staging";
+    private static final int PROMOTE_PLACES_BATCH_SIZE = 1000;
+
     QueryService() {
     }
 
@@ -114,4 +131,119 @@ public class QueryService {
             );
         }
     }
+
+    /**
+     * Создает пустые промежуточные таблицы транзакций, клиентов и мест. Вместо места транзакции хранится его название,
+     * т.к. идентификатор места в таблице places определяется только при переносе. Клиенты хранятся по ИНН,
+     * места - по названию (каждый по одному разу)
+     * @return {@code true} если таблицы созданы {@code false} иначе
+     */
+    public boolean createStaging() {
+        try {
+            dropStagingTables();
+            jdbcTemplate.execute("CREATE TABLE " + STAGING_TABLE + " (id BIGINT NOT NULL PRIMARY KEY, " +
+                    "amount DECIMAL(19,2) NOT NULL, currency VARCHAR(3) NOT NULL, card VARCHAR(14) NOT NULL, " +
+                    "client_id VARCHAR(10) NOT NULL, place VARCHAR(255) NOT NULL);");
+            jdbcTemplate.execute("CREATE TABLE " + CLIENTS_STAGING_TABLE + " (inn VARCHAR(10) NOT NULL PRIMARY KEY, " +
+                    "first_name VARCHAR(255) NOT NULL, last_name VARCHAR(255) NOT NULL, middle_name VARCHAR(255) NOT NULL);");
+            jdbcTemplate.execute("CREATE TABLE " + PLACES_STAGING_TABLE + " (place VARCHAR(255) NOT NULL PRIMARY KEY);");
+            return true;
+        } catch (Exception e) {
+            logger.error("Не удалось создать промежуточные таблицы " + STAGING_TABLE + ", " + CLIENTS_STAGING_TABLE +
+                    ", " + PLACES_STAGING_TABLE + "!");
+            return false;
+        }
+    }
+
+    /**
+     * Записывает транзакции, их клиентов и места в промежуточные таблицы пакетной вставкой INSERT IGNORE в текущей
+     * JPA-транзакции. Таблицы transactions, clients и places не изменяются
+     * @param transactions список транзакций для пакетного добавления
+     * @return количество добавленных транзакций
+     */
+    int stage(List<Trans> transactions) {
+        Map<String, Client> clients = new LinkedHashMap<>();
+        Set<String> places = new LinkedHashSet<>();
+        for (Trans transaction : transactions) {
+            clients.putIfAbsent(transaction.getClient().getInn(), transaction.getClient());
+            places.add(transaction.getPlace().getPlaceName());
+        }
+        jdbcTemplate.batchUpdate("insert ignore into " + CLIENTS_STAGING_TABLE +
+                        " (inn, first_name, last_name, middle_name) values (?, ?, ?, ?)", clients.values(),
+                clients.size(), (ps, client) -> {
+                    ps.setString(1, client.getInn());
+                    ps.setString(2, client.getFirstName());
+                    ps.setString(3, client.getLastName());
+                    ps.setString(4, client.getMiddleName());
+                });
+        jdbcTemplate.batchUpdate("insert ignore into " + PLACES_STAGING_TABLE + " (place) values (?)", places,
+                places.size(), (ps, place) -> ps.setString(1, place));
+        jdbcTemplate.batchUpdate("insert ignore into " + STAGING_TABLE +
+                        " (id, amount, currency, card, client_id, place) values (?, ?, ?, ?, ?, ?)", transactions,
+                transactions.size(), (ps, transaction) -> {
+                    ps.setLong(1, transaction.getId());
+                    ps.setBigDecimal(2, transaction.getAmount());
+                    ps.setString(3, transaction.getCurrency());
+                    ps.setString(4, transaction.getCard());
+                    ps.setString(5, transaction.getClient().getInn());
+                    ps.setString(6, transaction.getPlace().getPlaceName());
+                });
+        return transactions.size();
+    }
+
+    /**
+     * Переносит данные промежуточных таблиц в одной JPA-транзакции
+     * 1. Добавляет клиентов в таблицу clients запросом INSERT IGNORE ... SELECT. Имеющиеся в БД клиенты не изменяются
+     * 2. Добавляет отсутствующие в таблице places места пакетами через DimensionService.savePlaces, т.к.
+     *    идентификаторы новых мест выдаются генератором сущности Place (последовательность place_seq) и не могут
+     *    быть получены одним запросом INSERT ... SELECT
+     * 3. Добавляет транзакции в таблицу transactions запросом INSERT ... SELECT. Транзакции, которые уже есть
+     *    в таблице transactions, не переносятся
+     * При любом исключении откатывает JPA-транзакцию, поэтому таблицы БД не изменяются
+     * @return количество перенесенных транзакций или -1 при ошибке
+     */
+    @Transactional(isolation = Isolation.READ_COMMITTED, propagation = Propagation.REQUIRES_NEW, rollbackFor = {Throwable.class})
+    public int promoteStaging() {
+        try {
+            jdbcTemplate.update("INSERT IGNORE INTO clients (first_name, last_name, middle_name, inn) " +
+                    "SELECT s.first_name, s.last_name, s.middle_name, s.inn FROM " + CLIENTS_STAGING_TABLE + " s;");
+            List<String> missing = jdbcTemplate.queryForList("SELECT s.place FROM " + PLACES_STAGING_TABLE + " s " +
+                    "LEFT JOIN places p ON p.place = s.place WHERE p.id IS NULL;", String.class);
+            for (int i = 0; i < missing.size(); i += PROMOTE_PLACES_BATCH_SIZE) {
+                List<Place> places = new ArrayList<>();
+                for (String placeName : missing.subList(i, Math.min(i + PROMOTE_PLACES_BATCH_SIZE, missing.size()))) {
+                    Place.newPlace(placeName).ifPresent(places::add);
+                }
+                dimensions.savePlaces(places);
+            }
+            return jdbcTemplate.update("INSERT INTO transactions (id, amount, currency, card, client_id, place_id) " +
+                    "SELECT s.id, s.amount, s.currency, s.card, s.client_id, p.id FROM " + STAGING_TABLE + " s " +
+                    "JOIN places p ON p.place = s.place LEFT JOIN transactions t ON t.id = s.id WHERE t.id IS NULL;");
+        } catch (Exception e) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            logger.error("Не удалось перенести данные из промежуточных таблиц " + STAGING_TABLE + ", " +
+                    CLIENTS_STAGING_TABLE + ", " + PLACES_STAGING_TABLE + "!");
+            return -1;
+        }
+    }
+
+    /**
+     * Удаляет промежуточные таблицы транзакций, клиентов и мест
+     */
+    public void dropStaging() {
+        try {
+            dropStagingTables();
+        } catch (Exception e) {
+            logger.error("Не удалось удалить промежуточные таблицы! Необходимо удалить их вручную с помощью SQL-запросов:" +
+                    "\nDROP TABLE IF EXISTS " + STAGING_TABLE + ";" +
+                    "\nDROP TABLE IF EXISTS " + CLIENTS_STAGING_TABLE + ";" +
+                    "\nDROP TABLE IF EXISTS " + PLACES_STAGING_TABLE + ";");
+        }
+    }
+
+    private void dropStagingTables() {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + STAGING_TABLE + ";");
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + CLIENTS_STAGING_TABLE + ";");
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + PLACES_STAGING_TABLE + ";");
+    }
 }
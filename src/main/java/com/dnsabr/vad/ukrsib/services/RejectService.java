@@ -0,0 +1,185 @@
+package com.dnsabr.vad.ukrsib.services;
+
+import com.dnsabr.vad.ukrsib.models.Client;
+import com.dnsabr.vad.ukrsib.models.Trans;
+import com.dnsabr.vad.ukrsib.utils.TransactionFields;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Сервис карантина транзакций с недопустимыми значениями и транзакций, которые не удалось добавить в БД
+ * Отклоненные транзакции записываются в файл в формате CSV (разделитель ;) с порядковым номером транзакции в файле
+ * данных и значениями тегов в том виде, в котором они записаны в файле данных (для транзакций, которые не удалось
+ * добавить в БД, - значениями полей транзакции). Файл создается при первой отклоненной транзакции, поэтому при
+ * отсутствии ошибок файл не создается. Если файл закрыт после разбора файла данных, а потоки записи в БД отклоняют
+ * транзакции, файл дописывается. При продолжении прерванной загрузки (CheckpointService) существующий файл также
+ * дописывается, поэтому транзакции, отклоненные до прерывания, сохраняются. Методы потокобезопасны.
+ * Каждое задание загрузки (LoadJob) получает свой экземпляр сервиса со своим файлом отклоненных транзакций.
+ * Поля:
+ *  fileName - абсолютный или относительно проекта путь к файлу отклоненных транзакций. При пустом значении
+ *             отклоненные транзакции только подсчитываются. Устанавливается в application.properties
+ *  threshold - максимальное количество отклоненных транзакций, при превышении которого загрузка прекращается.
+ *              При значении 0 загрузка прекращается при первой же отклоненной транзакции.
+ *              Устанавливается в application.properties
+ *  count - количество отклоненных транзакций при текущем разборе
+ *  writer - поток записи файла отклоненных транзакций
+ *  created - признак создания файла отклоненных транзакций при текущем разборе или его наличия при продолжении
+ *            прерванной загрузки. Созданный файл дописывается без заголовка
+ */
+@Service
+@Scope("prototype")
+public class RejectService {
+
+    private static final String HEADER = "serial;place;amount;currency;card;firstName;lastName;middleName;inn";
+
+    @Value("${spring.jpa.properties.app.parser.reject.file}")
+    private String fileName;
+    @Value("${spring.jpa.properties.app.parser.reject.threshold}")
+    private int threshold;
+
+    private final AtomicInteger count = new AtomicInteger();
+    private BufferedWriter writer;
+    private boolean created;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    RejectService() {
+    }
+
+    /**
+     * Подготавливает сервис к новому разбору файла данных: закрывает предыдущий файл и сбрасывает счетчик
+     * Файл отклоненных транзакций предыдущего разбора будет перезаписан при первой отклоненной транзакции
+     */
+    synchronized void open() {
+        open(false);
+    }
+
+    /**
+     * Подготавливает сервис к разбору файла данных: закрывает предыдущий файл и сбрасывает счетчик
+     * @param resume {@code true} если разбор продолжает прерванную загрузку. Тогда существующий файл отклоненных
+     *               транзакций дописывается, иначе он будет перезаписан при первой отклоненной транзакции
+     */
+    synchronized void open(boolean resume) {
+        close();
+        count.set(0);
+        created = resume && null != fileName && !fileName.trim().isEmpty() && Files.exists(Paths.get(fileName));
+    }
+
+    /**
+     * Записывает транзакцию в файл отклоненных транзакций
+     * @param serial порядковый номер транзакции в файле данных
+     * @param fields значения тегов блока <transaction>
+     * @return {@code true} если количество отклоненных транзакций не превышает порог {@code false} иначе
+     */
+    synchronized boolean reject(int serial, TransactionFields fields) {
+        return write(serial, csv(fields.getPlaceName()) + ";" + csv(fields.getAmount()) + ";"
+                + csv(fields.getCurrency()) + ";" + csv(fields.getCard()) + ";" + csv(fields.getFirstName())
+                + ";" + csv(fields.getLastName()) + ";" + csv(fields.getMiddleName()) + ";"
+                + csv(fields.getInn()), fields);
+    }
+
+    /**
+     * Записывает в файл отклоненных транзакций транзакцию, которую не удалось добавить в БД
+     * @param transaction транзакция
+     * @return {@code true} если количество отклоненных транзакций не превышает порог {@code false} иначе
+     */
+    synchronized boolean reject(Trans transaction) {
+        Client client = transaction.getClient();
+        return write(transaction.getSerial(), csv(transaction.getPlace().getPlaceName()) + ";"
+                + transaction.getAmount().toPlainString() + ";" + csv(transaction.getCurrency()) + ";"
+                + csv(transaction.getCard()) + ";" + csv(client.getFirstName()) + ";" + csv(client.getLastName())
+                + ";" + csv(client.getMiddleName()) + ";" + csv(client.getInn()), transaction);
+    }
+
+    /**
+     * Увеличивает счетчик и записывает строку отклоненной транзакции в файл
+     * @param serial порядковый номер транзакции в файле данных
+     * @param values значения отклоненной транзакции в формате CSV без порядкового номера
+     * @param source отклоненная транзакция для журнала
+     * @return {@code true} если количество отклоненных транзакций не превышает порог {@code false} иначе
+     */
+    private boolean write(int serial, String values, Object source) {
+        int rejected = count.incrementAndGet();
+        if (null != fileName && !fileName.trim().isEmpty()) {
+            try {
+                if (null == writer) {
+                    if (created) {
+                        writer = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8,
+                                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    } else {
+                        writer = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8);
+                        writer.write(HEADER);
+                        writer.newLine();
+                        created = true;
+                    }
+                }
+                writer.write(serial + ";" + values);
+                writer.newLine();
+            } catch (IOException e) {
+                logger.error("Невозможно записать отклоненную транзакцию порядковый номер " + serial + " в файл "
+                        + fileName + " : " + source);
+            }
+        }
+        return rejected <= threshold;
+    }
+
+    /**
+     * Записывает на диск и закрывает файл отклоненных транзакций
+     */
+    synchronized void close() {
+        if (null != writer) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.error("Невозможно записать файл отклоненных транзакций " + fileName);
+            }
+            writer = null;
+        }
+    }
+
+    /**
+     * Возвращает количество отклоненных транзакций при текущем разборе
+     * @return количество отклоненных транзакций
+     */
+    public int getCount() {
+        return count.get();
+    }
+
+    /**
+     * Устанавливает путь к файлу отклоненных транзакций задания загрузки (MainService.newJob)
+     * @param fileName путь к файлу отклоненных транзакций
+     */
+    void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Возвращает путь к файлу отклоненных транзакций
+     * @return путь к файлу отклоненных транзакций
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Экранирует значение для записи в CSV: значения содержащие разделитель, кавычки или перевод строки
+     * заключаются в кавычки, кавычки удваиваются
+     */
+    private static String csv(String value) {
+        if (value.indexOf(';') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,217 @@
+package com.dnsabr.vad.ukrsib.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.TransactionTimedOutException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Сервис политики повторных попыток записи данных в БД
+ * Определяет вид ошибки записи по исключению: по SQLState и коду ошибки MySQL в цепочке причин исключения, а если
+ * SQLException в цепочке нет, - по типу исключения Spring/JDBC. Для каждого вида ошибки применяется своя стратегия:
+ *  TRANSIENT - взаимоблокировка, превышение ожидания блокировки или таймаут транзакции. Та же часть пакета
+ *              повторяется после случайной паузы от 0 до backoff * 2^(попытка-1), но не более maxBackoff мс;
+ *  CONNECTION - потеря соединения с БД. Все потоки записи приостанавливаются на pause мс, при последовательных
+ *               потерях соединения пауза удваивается (не более чем в MAX_PAUSE_FACTOR раз), затем та же часть пакета
+ *               повторяется;
+ *  CONSTRAINT - нарушение ограничения целостности или недопустимые данные. Повтор бесполезен: пакет делится
+ *               (SaveService.bisect), а отдельная транзакция сразу отклоняется;
+ *  OTHER - прочие ошибки. Пакет делится, отдельная транзакция повторяется без паузы.
+ * Сервисы записи (TransService, JdbcTransService) перехватывают исключения и возвращают 0, поэтому сообщают
+ * исключение методом failed, а SaveService получает вид ошибки методом takeFailure в том же потоке.
+ * Поля:
+ *  backoff, maxBackoff - начальная и максимальная пауза перед повтором при ошибке TRANSIENT в мс
+ *  pause - пауза всех потоков записи при потере соединения в мс
+ *  Все устанавливаются в application.properties
+ *  counters - количество ошибок каждого вида
+ *  lastFailure - вид последней ошибки сервиса записи в текущем потоке
+ *  pausedUntil - время (System.currentTimeMillis) до которого приостановлены потоки записи
+ *  connectionFailures - количество последовательных потерь соединения
+ */
+@Service
+public class RetryPolicyService {
+
+    /**
+     * Вид ошибки записи данных в БД
+     */
+    public enum Failure { TRANSIENT, CONNECTION, CONSTRAINT, OTHER }
+
+    private static final int MAX_PAUSE_FACTOR = 8;
+
+    @Value("${spring.jpa.properties.app.try.backoff}")
+    private long backoff;
+    @Value("${spring.jpa.properties.app.try.backoff.max}")
+    private long maxBackoff;
+    @Value("${spring.jpa.properties.app.try.pause}")
+    private long pause;
+
+    private final Map<Failure, AtomicLong> counters = new EnumMap<>(Failure.class);
+    private final ThreadLocal<Failure> lastFailure = new ThreadLocal<>();
+    private volatile long pausedUntil;
+    private final AtomicInteger connectionFailures = new AtomicInteger();
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    RetryPolicyService() {
+        for (Failure failure : Failure.values()) {
+            counters.put(failure, new AtomicLong());
+        }
+    }
+
+    /**
+     * Определяет вид ошибки по исключению
+     * @param e исключение
+     * @return вид ошибки
+     */
+    Failure classify(Throwable e) {
+        for (Throwable cause = e; null != cause; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof SQLException) {
+                Failure failure = classify((SQLException) cause);
+                if (Failure.OTHER != failure) {
+                    return failure;
+                }
+            }
+        }
+        for (Throwable cause = e; null != cause; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof TransactionTimedOutException || cause instanceof TransientDataAccessException) {
+                return Failure.TRANSIENT;
+            }
+            if (cause instanceof CannotCreateTransactionException || cause instanceof DataAccessResourceFailureException) {
+                return Failure.CONNECTION;
+            }
+            if (cause instanceof DataIntegrityViolationException) {
+                return Failure.CONSTRAINT;
+            }
+        }
+        return Failure.OTHER;
+    }
+
+    /**
+     * Запоминает вид ошибки сервиса записи для текущего потока
+     * @param e исключение, перехваченное сервисом записи
+     */
+    void failed(Throwable e) {
+        lastFailure.set(classify(e));
+    }
+
+    /**
+     * Возвращает и забывает вид последней ошибки сервиса записи в текущем потоке
+     * @return вид ошибки или OTHER, если сервис записи не сообщил исключение
+     */
+    Failure takeFailure() {
+        Failure failure = lastFailure.get();
+        lastFailure.remove();
+        return null == failure ? Failure.OTHER : failure;
+    }
+
+    /**
+     * Учитывает ошибку и применяет стратегию ее вида: ожидает перед повтором или приостанавливает все потоки записи
+     * @param failure вид ошибки
+     * @param attempt номер последовательной неудачной попытки
+     * @return {@code true} если следует повторить ту же часть пакета {@code false} если следует делить пакет
+     */
+    boolean onFailure(Failure failure, int attempt) {
+        counters.get(failure).incrementAndGet();
+        switch (failure) {
+            case TRANSIENT:
+                long limit = Math.min(maxBackoff, backoff << Math.min(30, Math.max(0, attempt - 1)));
+                sleep(limit > 0 ? ThreadLocalRandom.current().nextLong(limit + 1) : 0);
+                return true;
+            case CONNECTION:
+                long factor = Math.min(MAX_PAUSE_FACTOR, 1L << Math.min(30, connectionFailures.getAndIncrement()));
+                long until = System.currentTimeMillis() + pause * factor;
+                if (until > pausedUntil) {
+                    pausedUntil = until;
+                    logger.warn("Потеряно соединение с БД. Запись в БД приостановлена на " + pause * factor + " мс");
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Учитывает удачную попытку записи
+     */
+    void succeeded() {
+        connectionFailures.set(0);
+    }
+
+    /**
+     * Ожидает окончания приостановки потоков записи после потери соединения
+     */
+    void awaitAvailable() {
+        long wait = pausedUntil - System.currentTimeMillis();
+        if (wait > 0) {
+            sleep(wait);
+        }
+    }
+
+    /**
+     * Возвращает количество ошибок вида
+     * @param failure вид ошибки
+     * @return количество ошибок
+     */
+    public long getCount(Failure failure) {
+        return counters.get(failure).get();
+    }
+
+    /**
+     * Возвращает количество ошибок каждого вида
+     * @return вид ошибки -> количество ошибок
+     */
+    public Map<Failure, Long> getCounts() {
+        Map<Failure, Long> counts = new EnumMap<>(Failure.class);
+        for (Map.Entry<Failure, AtomicLong> entry : counters.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * Определяет вид ошибки по SQLState и коду ошибки MySQL
+     */
+    private static Failure classify(SQLException e) {
+        String state = null == e.getSQLState() ? "" : e.getSQLState();
+        int code = e.getErrorCode();
+        if (e instanceof SQLTransactionRollbackException || e instanceof SQLTimeoutException || state.startsWith("40")
+                || 1213 == code || 1205 == code || 1317 == code || 3024 == code) {
+            return Failure.TRANSIENT;
+        }
+        if (e instanceof SQLNonTransientConnectionException || e instanceof SQLTransientConnectionException
+                || state.startsWith("08") || 2002 == code || 2006 == code || 2013 == code) {
+            return Failure.CONNECTION;
+        }
+        if (e instanceof SQLIntegrityConstraintViolationException || state.startsWith("23") || state.startsWith("22")
+                || 1062 == code || 1048 == code || 1406 == code || 1452 == code || 1264 == code || 1366 == code) {
+            return Failure.CONSTRAINT;
+        }
+        return Failure.OTHER;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -7,75 +7,117 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 /**
  * Сервис управления записью данных в БД
  * Поля:
  *  batchSize - размер пакета вставки (количество транзакций)
- *  attempts - количество последовательных попыток вставки пакета транзакций при неудаче
- *  transService - объект сервиса добавления данных в БД
- *  store - хранилище-очередь транзакций полученных от parseService и еще не затребованых этим сервисом
+ *  attempts - количество последовательных неудачных попыток вставки транзакций пакета, после которого попытки
+ *             прекращаются
+ *  writer - способ записи данных в БД: jpa и stateless - TransService, jdbc - JdbcTransService.
+ *           Устанавливается в application.properties
+ *  pipeline - наибольшее количество пакетов потока записи, полученных из хранилища и еще не записанных в БД.
+ *             При значении больше 1 пакеты записываются отдельным потоком (одно соединение с БД на поток записи),
+ *             а поток записи тем временем получает из хранилища следующий пакет. Устанавливается в application.properties
+ *  batches - сервис подбора размера пакета транзакций
+ *  transService - объект сервиса добавления данных в БД через Hibernate
+ *  jdbcTransService - объект сервиса добавления данных в БД пакетной вставкой JDBC
+ *  retryPolicy - сервис политики повторных попыток записи в зависимости от вида ошибки
+ *  breaker - общий для потоков записи выключатель, приостанавливающий запись при недоступности БД
+ * Хранилище, карантин и контрольные точки принадлежат заданию загрузки (LoadJob), которое передается методу save,
+ * поэтому один экземпляр сервиса записывает транзакции нескольких одновременно загружаемых файлов.
  */
 @Service
-public class SaveService implements Runnable {
+public class SaveService {
 
     @Value("${spring.jpa.properties.hibernate.jdbc.batch_size}")
     private int batchSize;
     @Value("${spring.jpa.properties.app.try.attempts}")
     private int attempts;
+    @Value("${spring.jpa.properties.app.sql.writer}")
+    private String writer;
+    @Value("${spring.jpa.properties.app.sql.pipeline}")
+    private int pipeline;
+    @Autowired
+    private BatchSizeService batches;
     @Autowired
     private TransService transService;
     @Autowired
-    private StoreService store;
+    private JdbcTransService jdbcTransService;
+    @Autowired
+    private RetryPolicyService retryPolicy;
+    @Autowired
+    private CircuitBreakerService breaker;
 
     SaveService() {
     }
 
     /**
-     * 1. Запрашивает транзакции у хранилища в размере batchSize пока хранилище не закрыто или пока
+     * 1. Запрашивает транзакции у хранилища в размере, подобранном BatchSizeService, пока хранилище не закрыто или пока
      *  хранилище содержит данные или ParseService еще не завершил работу
-     * 2. Предлагает transService добавить в БД транзакции полученные из хранилища. При получении от transService
-     *  сообщения о неудачной попытке, пытается пока не будет исчерпано максимальное значение последовательных
-     *  неудачных попыток.
-     * 3. Если последняя попытка оказалась неудачной, возвращает пакет транзакций в хранилище
-     * 4. После удачной попытки запрашивает у хранилища новый пакет транзакций, а прошлый удаляет
+     * 2. Предлагает сервису записи (transService или jdbcTransService, см. writer) добавить в БД транзакции полученные
+     *  из хранилища. При неудаче делит пакет пополам и пытается добавить каждую половину, а неудавшиеся половины
+     *  делит дальше (метод bisect), пока не останутся отдельные транзакции. Так транзакции без ошибок добавляются в БД
+     *  сразу, а повторные попытки выполняются только для частей пакета с ошибочными транзакциями.
+     *  Количество последовательных неудачных попыток без единой удачной ограничено attempts.
+     *  Повтор той же части пакета, паузы и приостановка записи зависят от вида ошибки (RetryPolicyService).
+     * 3. Отдельную транзакцию, которая нарушает ограничения БД или не добавляется в БД после всех попыток, тогда как
+     *  другие транзакции пакета добавлены, отклоняет в RejectService. Транзакции, попытки для которых исчерпаны без единой удачной попытки
+     *  в пакете (например, БД недоступна), возвращает в хранилище
+     * 4. После удачной попытки отмечает транзакции в сервисе контрольных точек, запрашивает у хранилища новый пакет
+     *  транзакций, а прошлый удаляет
+     * При pipeline больше 1 пункты 2-4 выполняются отдельным потоком фиксации пакетов по порядку получения пакетов, а
+     *  поток записи получает следующий пакет, пока ожидает фиксации не более pipeline пакетов. Перед завершением поток
+     *  записи ожидает фиксации всех пакетов и снова проверяет хранилище, т.к. неудавшиеся транзакции могли вернуться в него
+     * 5. При работе в пуле потоков записи (WriterPoolService) сообщает пулу длительность записи пакетов и неудачные
+     *  попытки и перед запросом нового пакета завершается, если пул уменьшает количество потоков
      * Ведет журнал действий.
+     * @param job задание загрузки: хранилище-очередь транзакций, карантин и контрольные точки
+     * @param pool пул потоков записи или null
+     * @return {@code true} если поток завершен по решению пула потоков записи
      */
-    @Override
-    public void run() {
+    public boolean save(LoadJob job, WriterPoolService pool) {
         Logger logger = LoggerFactory.getLogger(this.getClass());
+        StoreService store = job.getStore();
 
         logger.info("Запущен новый поток сервиса сохранения данных в БД");
-        List<Trans> transactions = new ArrayList<>(batchSize);
-
-        while (!(store.isParserDone() && store.getSize()==0) && !store.isTerminated()) {
-            store.get(transactions);
+        TransWriter transWriter = "jdbc".equalsIgnoreCase(writer) ? jdbcTransService : transService;
+        int depth = Math.max(1, pipeline);
+        ExecutorService committer = depth > 1 ? Executors.newSingleThreadExecutor() : null;
+        Executor commits = null == committer ? Runnable::run : committer;
+        Semaphore outstanding = new Semaphore(depth);
 
-                boolean isCurrentTransactionDone=false;
-                for (int attempt=1; attempt<=attempts; attempt++) {
-
-                    try {
-                        if (store.isTerminated()) {
-                            break;
-                        }
-                        if (transactions.size()==transService.saveAll(transactions)) {
-                            logger.trace("В БД записано транзакций: "+ transactions.size());
-                            isCurrentTransactionDone = true;
-                            break;
-                        } else {
-                            logger.warn("Не удалась загрузка в базу данных при попытке "+attempt+" из "+attempts);
-                        }
-                    } catch (Exception e) {
-                        logger.warn("Не удалась загрузка в базу данных при попытке " + attempt + " из " + attempts);
+        try {
+            do {
+                while (!(store.isParserDone() && store.getSize()==0) && !store.isTerminated()) {
+                    if (null != pool && pool.retire()) {
+                        awaitCommits(outstanding, depth);
+                        logger.info("Остановлен поток сервиса сохранения данных в БД для уменьшения количества потоков записи");
+                        return true;
                     }
+                    outstanding.acquireUninterruptibly();
+                    List<Trans> transactions = new ArrayList<>(batchSize);
+                    store.get(transactions, batches.getBatchSize());
+                    commits.execute(() -> {
+                        try {
+                            commit(transactions, transWriter, job, pool, logger);
+                        } finally {
+                            outstanding.release();
+                        }
+                    });
                 }
-
-                if (!isCurrentTransactionDone) {
-                    store.addDueToError(transactions);
-                    logger.warn("Транзакции возвращены в хранилище. Новые попытки будут предприняты позже.");
-                }
-            transactions.clear();
+                awaitCommits(outstanding, depth);
+            } while (!(store.isParserDone() && store.getSize()==0) && !store.isTerminated());
+        } finally {
+            if (null != committer) {
+                committer.shutdown();
+            }
         }
 
         if (store.isTerminated()) {
@@ -83,5 +125,215 @@ public class SaveService implements Runnable {
         } else {
             logger.info("Завершил работу поток сервиса сохранения данных в БД");
         }
+        return false;
+    }
+
+    /**
+     * Добавляет пакет транзакций в БД (пункты 2-4 описания метода save)
+     * Освобождает в хранилище место добавленных в БД и отклоненных транзакций пакета
+     * @param transactions пакет транзакций
+     * @param transWriter сервис записи
+     * @param job задание загрузки
+     * @param pool пул потоков записи или null
+     * @param logger журнал потока записи
+     */
+    private void commit(List<Trans> transactions, TransWriter transWriter, LoadJob job, WriterPoolService pool,
+                        Logger logger) {
+        StoreService store = job.getStore();
+        Attempts result = new Attempts(transWriter, job, pool, logger);
+        if (!result.write(transactions)) {
+            bisect(transactions, result, result.failure);
+        }
+        if (!result.invalid.isEmpty()) {
+            reject(result.invalid, job, logger);
+        }
+        if (!result.suspects.isEmpty()) {
+            if (result.progress) {
+                reject(result.suspects, job, logger);
+            } else {
+                result.remaining.addAll(result.suspects);
+            }
+        }
+        store.release(transactions.size() - result.remaining.size());
+        if (!result.remaining.isEmpty()) {
+            store.addDueToError(result.remaining);
+            logger.warn("Транзакции возвращены в хранилище. Новые попытки будут предприняты позже.");
+        }
+    }
+
+    /**
+     * Ожидает завершения всех отправленных на запись пакетов потока записи
+     */
+    private static void awaitCommits(Semaphore outstanding, int depth) {
+        outstanding.acquireUninterruptibly(depth);
+        outstanding.release(depth);
+    }
+
+    /**
+     * Добавляет в БД по частям часть пакета, попытка добавить которую целиком не удалась
+     * Делит часть пополам и пытается добавить обе половины, после чего делит дальше неудавшиеся половины.
+     * Отдельную транзакцию с нарушением ограничений БД (RetryPolicyService.Failure.CONSTRAINT) сразу относит к
+     * недопустимым (result.invalid), иначе повторяет, пока не исчерпаны попытки, и относит к подозрительным
+     * (result.suspects). Части, для которых попытки исчерпаны, относит к оставшимся (result.remaining)
+     * @param part часть пакета
+     * @param result результаты попыток пакета
+     * @param reason вид ошибки последней попытки добавить эту часть
+     */
+    private void bisect(List<Trans> part, Attempts result, RetryPolicyService.Failure reason) {
+        if (part.size() == 1) {
+            RetryPolicyService.Failure failure = reason;
+            while (RetryPolicyService.Failure.CONSTRAINT != failure && result.canAttempt()) {
+                if (result.write(part)) {
+                    return;
+                }
+                failure = result.failure;
+            }
+            if (RetryPolicyService.Failure.CONSTRAINT == failure) {
+                result.invalid.addAll(part);
+                return;
+            }
+            if (result.store.isTerminated()) {
+                result.remaining.addAll(part);
+            } else {
+                result.suspects.addAll(part);
+            }
+            return;
+        }
+        int middle = part.size() / 2;
+        List<List<Trans>> failed = new ArrayList<>(2);
+        List<RetryPolicyService.Failure> reasons = new ArrayList<>(2);
+        for (List<Trans> half : Arrays.asList(part.subList(0, middle), part.subList(middle, part.size()))) {
+            if (!result.canAttempt()) {
+                result.remaining.addAll(half);
+            } else if (!result.write(half)) {
+                failed.add(half);
+                reasons.add(result.failure);
+            }
+        }
+        for (int i = 0; i < failed.size(); i++) {
+            bisect(failed.get(i), result, reasons.get(i));
+        }
+    }
+
+    /**
+     * Отклоняет транзакции, которые не удалось добавить в БД, в RejectService задания и отмечает их в сервисе
+     * контрольных точек задания. При превышении порога отклоненных транзакций закрывает хранилище задания
+     */
+    private void reject(List<Trans> suspects, LoadJob job, Logger logger) {
+        for (Trans transaction : suspects) {
+            if (job.getRejects().reject(transaction)) {
+                logger.warn("Не удалось добавить в БД транзакцию порядковый номер " + transaction.getSerial()
+                        + ". Транзакция отклонена");
+            } else {
+                logger.error("Не удалось добавить в БД транзакцию порядковый номер " + transaction.getSerial()
+                        + ". Превышен порог отклоненных транзакций");
+                job.getStore().doTerminate();
+            }
+        }
+        job.getCheckpoints().committed(suspects);
+    }
+
+    /**
+     * Попытки добавить в БД один пакет транзакций
+     * Поля:
+     *  failures - количество последовательных неудачных попыток. Нарушения ограничений БД не учитываются, т.к.
+     *             показывают доступность БД, а ошибки, после которых разомкнут выключатель записи, - т.к. запись
+     *             приостанавливается до восстановления БД
+     *  failure - вид ошибки последней неудачной попытки
+     *  progress - признак хотя бы одной удачной попытки
+     *  invalid - транзакции, которые по отдельности нарушают ограничения БД
+     *  suspects - транзакции, которые по отдельности не удалось добавить после всех попыток
+     *  remaining - транзакции, попытки для которых не выполнялись или прерваны
+     */
+    private final class Attempts {
+
+        private final TransWriter transWriter;
+        private final LoadJob job;
+        private final StoreService store;
+        private final WriterPoolService pool;
+        private final Logger logger;
+        private int failures;
+        private RetryPolicyService.Failure failure;
+        private boolean progress;
+        private final List<Trans> invalid = new ArrayList<>();
+        private final List<Trans> suspects = new ArrayList<>();
+        private final List<Trans> remaining = new ArrayList<>();
+
+        private Attempts(TransWriter transWriter, LoadJob job, WriterPoolService pool, Logger logger) {
+            this.transWriter = transWriter;
+            this.job = job;
+            this.store = job.getStore();
+            this.pool = pool;
+            this.logger = logger;
+        }
+
+        /**
+         * Проверяет, можно ли выполнить еще одну попытку
+         */
+        private boolean canAttempt() {
+            return failures < attempts && !store.isTerminated();
+        }
+
+        /**
+         * Выполняет попытку добавить транзакции в БД
+         * Перед попыткой ожидает замыкания выключателя (CircuitBreakerService) и окончания приостановки записи после
+         * потери соединения. При неудаче применяет стратегию RetryPolicyService для вида ошибки: при взаимоблокировке
+         * или потере соединения повторяет попытку, пока не исчерпаны попытки. Если после ошибки выключатель разомкнут,
+         * ошибка не расходует попытки, и попытка повторяется после его замыкания.
+         * Только ошибки нагрузки на БД (TRANSIENT - в том числе таймаут транзакции, CONNECTION) уменьшают размер пакета
+         * (BatchSizeService) и количество потоков записи (WriterPoolService). Нарушение ограничений и прочие ошибки
+         * данных (CONSTRAINT, OTHER) относятся к транзакциям пакета и только приводят к делению пакета и отклонению
+         * ошибочной транзакции
+         * При закрытом хранилище попытка не выполняется, транзакции относятся к оставшимся
+         * @param part транзакции
+         * @return {@code true} если все транзакции добавлены в БД или хранилище закрыто
+         */
+        private boolean write(List<Trans> part) {
+            while (true) {
+                breaker.acquire(store);
+                if (store.isTerminated()) {
+                    remaining.addAll(part);
+                    return true;
+                }
+                retryPolicy.awaitAvailable();
+                try {
+                    long started = System.nanoTime();
+                    if (part.size()==transWriter.saveAll(part)) {
+                        long elapsed = System.nanoTime() - started;
+                        logger.trace("В БД записано транзакций: "+ part.size());
+                        retryPolicy.succeeded();
+                        breaker.succeeded();
+                        batches.committed(part.size(), elapsed);
+                        if (null != pool && !part.isEmpty()) {
+                            pool.committed(part.size(), elapsed);
+                        }
+                        job.getCheckpoints().committed(part);
+                        failures = 0;
+                        progress = true;
+                        return true;
+                    }
+                    failure = retryPolicy.takeFailure();
+                } catch (Exception e) {
+                    retryPolicy.takeFailure();
+                    failure = retryPolicy.classify(e);
+                }
+                boolean parked = breaker.failed(failure);
+                if (!parked && RetryPolicyService.Failure.CONSTRAINT != failure) {
+                    failures++;
+                }
+                logger.warn("Не удалась загрузка в базу данных при попытке " + failures + " из " + attempts
+                        + " (транзакций: " + part.size() + ", ошибка " + failure + ")");
+                if (RetryPolicyService.Failure.TRANSIENT == failure || RetryPolicyService.Failure.CONNECTION == failure) {
+                    batches.failed();
+                    if (null != pool) {
+                        pool.failed();
+                    }
+                }
+                boolean retry = retryPolicy.onFailure(failure, Math.max(1, failures));
+                if (!parked && (!retry || !canAttempt())) {
+                    return false;
+                }
+            }
+        }
     }
 }
@@ -1,25 +1,37 @@
 package com.dnsabr.vad.ukrsib.services;
 
 import com.dnsabr.vad.ukrsib.models.Trans;
+import com.dnsabr.vad.ukrsib.utils.RingBuffer;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Сервис-хранилище транзакций
+ * Состояние хранилища (очередь, счетчик ошибок и флаги) принадлежит экземпляру, а не классу, поэтому экземпляры
+ * хранилища не влияют друг на друга. Каждое задание загрузки (LoadJob) получает свой экземпляр хранилища.
  * Поля:
  *  batchSize - размер пакета вставки (количество транзакций)
  *  batchAmount - максимальное количество пакетов для хранения
  *  errorsBeforeTerminate - количество ошибок при достижении которого принудительно завершать приложение
- *  transactions - потокобезопасная очередь для хранения транзакций
+ *  ordered - выдавать пакеты непрерывными участками очереди, упорядоченными по первичному ключу.
+ *            Устанавливается в application.properties
+ *  transactions - потокобезопасная очередь на основе кольцевого буфера емкостью batchSize * batchAmount транзакций
+ *                 (создается методом init). Ожидающие добавления или извлечения потоки пробуждаются сразу при
+ *                 изменении очереди или состояния хранилища. Место выданных потокам записи транзакций остается
+ *                 занятым, пока транзакции не будут добавлены в БД, отклонены (release) или возвращены в хранилище
+ *                 (addDueToError), поэтому возвращаемые транзакции всегда помещаются в очередь
  *  countErrorsBeforeShutdown - счетчик ошибок
  *  parserDone - флаг завершения обработки файда сервисом разбора
  *  terminated - флаг закрытия хранилища
  */
 @Service
+@Scope("prototype")
 public class StoreService {
 
     @Value("${spring.jpa.properties.hibernate.jdbc.batch_size}")
@@ -28,15 +40,25 @@ public class StoreService {
     private int batchAmount;
     @Value("${spring.jpa.properties.app.errors.count.before.terminate}")
     private int errorsBeforeTerminate;
+    @Value("${spring.jpa.properties.app.sql.ordered}")
+    private boolean ordered;
 
-    private static Queue<Trans> transactions = new ConcurrentLinkedQueue<>();
-    private static AtomicInteger countErrorsBeforeShutdown = new AtomicInteger();
-    private static boolean parserDone = false;
-    private static boolean terminated = false;
+    private RingBuffer<Trans> transactions;
+    private AtomicInteger countErrorsBeforeShutdown = new AtomicInteger();
+    private volatile boolean parserDone = false;
+    private volatile boolean terminated = false;
 
     StoreService() {
     }
 
+    /**
+     * Создает очередь хранения емкостью batchSize * batchAmount транзакций
+     */
+    @PostConstruct
+    void init() {
+        transactions = new RingBuffer<>(batchSize * batchAmount);
+    }
+
     /**
      * Добавляет транзакцию в конец очереди хранения
      * При достижении лимита очереди ожидает пока из очереди не извлекут объекты
@@ -50,26 +72,39 @@ public class StoreService {
                 doTerminate();
             }
         } else {
-            while (!terminated && getSize() > batchSize * batchAmount) {
+            while (!terminated) {
                 try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {/*пустое*/}
-            }
-            while (!terminated && !transactions.offer(transaction)) {
-                try {
-                    // Увеличение счетчика ошибок и проверка не пора ли закрыть хранилище
-                    if (errorsBeforeTerminate < countErrorsBeforeShutdown.incrementAndGet()) {
-                        doTerminate();
+                    if (transactions.put(transaction, () -> terminated)) {
+                        return;
                     }
-                    Thread.sleep(100);
                 } catch (InterruptedException e) {/*пустое*/}
             }
         }
     }
 
     /**
-     * Добавляет список транзакций в конец очереди независимо от лимита хранилища
+     * Добавляет готовый пакет транзакций в конец очереди за одну операцию
+     * Если пакет не помещается в очередь, ожидает пока из очереди не извлекут объекты, после чего добавляет пакет целиком
      * При закрытии хранилища предотвращает добавление новых объектов
+     * @param batch пакет транзакций
+     */
+    public void addAll(List<Trans> batch) {
+        if (null==batch || batch.isEmpty()) {
+            return;
+        }
+        while (!terminated) {
+            try {
+                if (transactions.putAll(batch, () -> terminated)) {
+                    return;
+                }
+            } catch (InterruptedException e) {/*пустое*/}
+        }
+    }
+
+    /**
+     * Возвращает в конец очереди транзакции, полученные из хранилища методом get и не добавленные в БД
+     * Место этих транзакций занято с момента выдачи, поэтому они добавляются без ожидания
+     * При закрытии хранилища предотвращает добавление новых объектов и освобождает место транзакций
      * @param list список транзакций
      */
     void addDueToError(List<Trans> list) {
@@ -77,19 +112,24 @@ public class StoreService {
         if (errorsBeforeTerminate < countErrorsBeforeShutdown.incrementAndGet()) {
             doTerminate();
         }
-        if (null!=list && list.size()!=0) {
-            while (!terminated && !transactions.addAll(list)) {
-                try {
-                    // Увеличение счетчика ошибок и проверка не пора ли закрыть хранилище
-                    if (errorsBeforeTerminate < countErrorsBeforeShutdown.incrementAndGet()) {
-                        doTerminate();
-                    }
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {/*пустое*/}
-            }
+        if (null==list || list.size()==0) {
+            return;
+        }
+        if (terminated) {
+            transactions.release(list.size());
+        } else {
+            transactions.restore(list);
         }
     }
 
+    /**
+     * Освобождает место транзакций, полученных из хранилища методом get и добавленных в БД или отклоненных
+     * @param count количество транзакций
+     */
+    void release(int count) {
+        transactions.release(count);
+    }
+
     /**
      * Извлекает и возвращает 1 транзакцию из начала очереди
      * Ожидает если очередь пуста
@@ -97,13 +137,11 @@ public class StoreService {
      * @return транзакция
      */
     private Trans get() {
-        Trans trans;
-        while (null==(trans=transactions.poll()) && !parserDone && !terminated) {
+        while (true) {
             try {
-                Thread.sleep(1);
+                return transactions.take(() -> parserDone || terminated);
             } catch (InterruptedException e) {/*пустое*/}
         }
-        return trans;
     }
 
     /**
@@ -111,20 +149,48 @@ public class StoreService {
      * @param list список для добавления в него транзакций из хранилища
      */
     void get(List<Trans> list) {
-        if (null!=list && !terminated) {
-            for (int i = 0; i < batchSize; i++) {
-                Trans transaction = get();
-                if (null != transaction) {
-                    list.add(transaction);
-                } else {
+        get(list, batchSize);
+    }
+
+    /**
+     * Добавляет в полученный пустой список транзакции из хранилища в размере amount если хранилище не закрыто
+     * Забирает имеющиеся транзакции сразу, не более amount за одну операцию, и ожидает появления недостающих,
+     * пока сервис разбора файла не завершит работу. Место выданных транзакций освобождается методами release и
+     * addDueToError.
+     * При упорядоченной выдаче (ordered) ожидает накопления всего пакета и забирает его за одну операцию, поэтому пакет -
+     * непрерывный участок очереди (последовательные порядковые номера транзакций файла), и упорядочивает пакет по
+     * первичному ключу. Так потоки записи добавляют в кластерный индекс InnoDB соседние ключи по возрастанию
+     * @param list список для добавления в него транзакций из хранилища
+     * @param amount размер пакета (BatchSizeService)
+     */
+    void get(List<Trans> list, int amount) {
+        if (null==list) {
+            return;
+        }
+        int size = list.size();
+        if (ordered) {
+            int whole = Math.max(1, Math.min(amount, batchSize * batchAmount));
+            while (!terminated && list.size() == size) {
+                try {
+                    if (0 == transactions.drainTo(list, amount, whole, () -> parserDone || terminated)) {
+                        return;
+                    }
+                } catch (InterruptedException e) {/*пустое*/}
+            }
+            list.subList(size, list.size()).sort(Comparator.comparingLong(Trans::getId));
+            return;
+        }
+        while (!terminated && list.size() - size < amount) {
+            try {
+                if (0 == transactions.drainTo(list, amount - (list.size() - size), 1, () -> parserDone || terminated)) {
                     return;
                 }
-            }
+            } catch (InterruptedException e) {/*пустое*/}
         }
     }
 
     /**
-     * Возвращает текущее количество транзакций в хранилище
+     * Возвращает текущее количество транзакций в хранилище за O(1)
      * @return текущее количество транзакций в хранилище
      */
     public int getSize() {
@@ -136,6 +202,7 @@ public class StoreService {
      */
     void parserDone() {
         parserDone = true;
+        transactions.wakeUp();
     }
 
     /**
@@ -151,10 +218,11 @@ public class StoreService {
      * Устанавливает флаг сигнализирующий о завершении работы сервиса разбора файла двнных
      * Устанавливает флаг закрытия хранилища
      */
-    static void doTerminate() {
+    void doTerminate() {
         parserDone = true;
         terminated=true;
         transactions.clear();
+        transactions.wakeUp();
     }
 
     /**
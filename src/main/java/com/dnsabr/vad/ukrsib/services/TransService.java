@@ -3,9 +3,12 @@ package com.dnsabr.vad.ukrsib.services;
 import com.dnsabr.vad.ukrsib.repository.TransRepository;
 import com.dnsabr.vad.ukrsib.models.*;
 import org.hibernate.Session;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Propagation;
@@ -13,21 +16,41 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.interceptor.TransactionAspectSupport;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import java.sql.Connection;
 import java.util.*;
 
 /**
- * Сервис записи данных в БД
+ * Сервис записи данных в БД через Hibernate
  * Поля:
  *  transRepository - интерфейс взаимодействия hibernate с таблицей transactions базы данных
  *  entityManager - менеджер сущностей Hibernate
+ *  queryService - сервис промежуточных таблиц для проверки файла за один проход
+ *  retryPolicy - сервис политики повторных попыток. Получает исключение записи для определения вида ошибки
+ *  dimensions - сервис справочников клиентов и мест для двухфазной загрузки
+ *  staging - указывает записывать транзакции в промежуточную таблицу (проверка файла за один проход).
+ *            Включается вместе с предварительной проверкой файла в application.properties
+ *  writer - способ записи данных в БД. При значении stateless транзакции записываются через StatelessSession
+ *           (метод saveStateless). Устанавливается в application.properties
  */
 @Service
-public class TransService {
+public class TransService implements TransWriter {
 
     @Autowired
     private TransRepository transRepository;
     @PersistenceContext
     private EntityManager entityManager;
+    @Autowired
+    private QueryService queryService;
+    @Autowired
+    private DimensionService dimensions;
+    @Autowired
+    private RetryPolicyService retryPolicy;
+    @Value("${spring.jpa.properties.app.parser.errors.check}")
+    private boolean doCheck;
+    @Value("${spring.jpa.properties.app.parser.errors.check.staging}")
+    private boolean staging;
+    @Value("${spring.jpa.properties.app.sql.writer}")
+    private String writer;
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
@@ -35,37 +58,135 @@ public class TransService {
      * Сохраняет транзакции в БД.
      * 1. Получает от SaverService пакет транзакций
      * 2. Начинает новую JPA-транзакцию с таймаутом
-     * 3. Для Place проверяет наличие данных в кеше или БД по натуральному ключу
+     * 3. Для Place проверяет наличие идентификатора в словаре DimensionService. Если место есть в словаре, транзакция
+     *    ссылается на него по идентификатору без загрузки из БД (Session.load), иначе место определяется в кеше или БД
+     *    по натуральному ключу, а его идентификатор запоминается в словаре после фиксации JPA-транзакции.
+     *    Клиент, ИНН которого есть в множестве DimensionService, также подставляется ссылкой (Session.load), поэтому
+     *    для него не выполняются SELECT и INSERT IGNORE. ИНН остальных клиентов запоминаются после фиксации.
+     *    При двухфазной загрузке клиенты всех транзакций уже добавлены в БД парсером, поэтому ссылкой подставляется
+     *    каждый клиент
      * 4. Сохраняет данные с использованием пакетной вставки
      * 5. Завершает JPA-транзакцию
      * 6. При любом исключении откатывает JPA-транзакцию.
+     * При проверке файла за один проход транзакции, их клиенты и места записываются только в промежуточные таблицы
+     * (QueryService.stage), при способе
+     * записи stateless - через StatelessSession (метод saveStateless)
      * Isolation.READ_COMMITTED в сочетании с триггерами в конечном результате гарантируют наличие данных в БД
      * Измененные SQL-запросы (INSERT IGNORE) для Клиентов и Мест позволяют не откатывать JPA-транзакцию,
      *  когда конкурирующая транзакция добавила этого же Клиента или Место между SELECT и INSERT текущей JPA-транзакции.
      * @param transactions список транзакций для пакетного добавления
      * @return 0 в случае неудачи, иначе количество добавленных транзакций
      */
-    @Transactional(isolation = Isolation.READ_COMMITTED, propagation = Propagation.REQUIRES_NEW,timeout = 4,rollbackFor = {Throwable.class})
+    @Override
+    @Transactional(isolation = Isolation.READ_COMMITTED, propagation = Propagation.REQUIRES_NEW,
+            timeoutString = "${spring.jpa.properties.app.sql.timeout}",rollbackFor = {Throwable.class})
     public int saveAll(List<Trans> transactions) {
         if (null==transactions || transactions.isEmpty()) {
             return 0;
         }
         try {
+            if (doCheck && staging) {
+                return queryService.stage(transactions);
+            }
+            if ("stateless".equalsIgnoreCase(writer)) {
+                return saveStateless(transactions);
+            }
             Session session = entityManager.unwrap(Session.class);
+            Map<String, Integer> placeIds = new HashMap<>();
+            Set<Long> inns = new HashSet<>();
             for (Trans transaction : transactions) {
-                Place place = session.bySimpleNaturalId(Place.class)
-                        .load(transaction.getPlace().getPlaceName());
+                Client client = transaction.getClient();
+                Place origin = transaction.getPlace();
+                boolean knownClient = dimensions.isEnabled() || dimensions.isClientSaved(client.getInnNumber());
+                if (knownClient) {
+                    transaction.setClient(session.load(Client.class, client.getInn()));
+                } else {
+                    inns.add(client.getInnNumber());
+                }
+                Integer placeId = dimensions.getPlaceId(origin.getPlaceName());
+                Place place = null != placeId ? session.load(Place.class, placeId) : session.bySimpleNaturalId(Place.class)
+                        .load(origin.getPlaceName());
                 if (null != place) {
                     transaction.setPlace(place);
                 }
-                transRepository.save(transaction);
+                try {
+                    // транзакция с заданным id сохраняется через merge: сохраняется копия, а сама транзакция не
+                    // становится управляемой
+                    Trans saved = transRepository.save(transaction);
+                    if (null == placeId) {
+                        placeIds.put(origin.getPlaceName(), saved.getPlace().getId());
+                    }
+                } finally {
+                    // ссылки Session.load действительны только в текущей сессии, а транзакция может быть повторена
+                    // или отклонена (RejectService) после ее закрытия
+                    if (knownClient) {
+                        transaction.setClient(client);
+                    }
+                    if (null != placeId) {
+                        transaction.setPlace(origin);
+                    }
+                }
             }
             transRepository.flush();
+            dimensions.rememberPlaces(placeIds);
+            dimensions.rememberClients(inns);
             return transactions.size();
         } catch (Throwable e) {
             TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            retryPolicy.failed(e);
             logger.warn(e.getMessage());
             return 0;
         }
     }
+
+    /**
+     * Записывает транзакции через StatelessSession на соединении текущей JPA-транзакции
+     * 1. Добавляет клиентов и отсутствующие места (каждого по одному разу) с помощью DimensionService и получает
+     *    идентификаторы мест. При двухфазной загрузке клиенты уже добавлены в БД парсером. Транзакции ссылаются на места по идентификатору (Place.reference) без загрузки из БД
+     * 2. Определяет одним запросом транзакции пакета, уже имеющиеся в БД
+     * 3. Добавляет новые транзакции, затем обновляет имеющиеся пакетной вставкой Hibernate. Сущности не попадают
+     *    в контекст постоянства: нет каскадного слияния клиентов и мест, снимков состояния и проверки изменений
+     *    при flush
+     * @param transactions список транзакций для пакетного добавления
+     * @return количество добавленных транзакций
+     */
+    private int saveStateless(List<Trans> transactions) {
+        Map<String, Client> clients = new LinkedHashMap<>();
+        Map<String, Place> places = new LinkedHashMap<>();
+        List<Long> ids = new ArrayList<>(transactions.size());
+        for (Trans transaction : transactions) {
+            clients.putIfAbsent(transaction.getClient().getInn(), transaction.getClient());
+            places.putIfAbsent(transaction.getPlace().getPlaceName(), transaction.getPlace());
+            ids.add(transaction.getId());
+        }
+        if (!dimensions.isEnabled()) {
+            dimensions.saveClients(clients.values());
+        }
+        Map<String, Integer> placeIds = dimensions.savePlaces(places.values());
+        Map<String, Place> references = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : placeIds.entrySet()) {
+            references.put(entry.getKey(), Place.reference(entry.getValue(), entry.getKey()));
+        }
+
+        Session session = entityManager.unwrap(Session.class);
+        Connection connection = session.doReturningWork(jdbcConnection -> jdbcConnection);
+        try (StatelessSession stateless = session.getSessionFactory().openStatelessSession(connection)) {
+            Set<Long> existing = new HashSet<>(stateless.createQuery("select t.id from Trans t where t.id in (:ids)", Long.class)
+                    .setParameterList("ids", ids).getResultList());
+            List<Trans> updates = new ArrayList<>(existing.size());
+            for (Trans transaction : transactions) {
+                transaction.setPlace(references.get(transaction.getPlace().getPlaceName()));
+                if (existing.contains(transaction.getId())) {
+                    updates.add(transaction);
+                } else {
+                    stateless.insert(transaction);
+                }
+            }
+            for (Trans transaction : updates) {
+                stateless.update(transaction);
+            }
+            ((SharedSessionContractImplementor) stateless).getJdbcCoordinator().executeBatch();
+        }
+        return transactions.size();
+    }
 }
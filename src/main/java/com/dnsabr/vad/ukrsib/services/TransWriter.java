@@ -0,0 +1,19 @@
+package com.dnsabr.vad.ukrsib.services;
+
+import com.dnsabr.vad.ukrsib.models.Trans;
+import java.util.List;
+
+/**
+ * Способ записи пакета транзакций в БД
+ * Реализации: TransService - через Hibernate, JdbcTransService - пакетной вставкой JDBC.
+ * Выбирается в application.properties (spring.jpa.properties.app.sql.writer)
+ */
+public interface TransWriter {
+
+    /**
+     * Сохраняет пакет транзакций в БД в отдельной JPA-транзакции
+     * @param transactions список транзакций для пакетного добавления
+     * @return 0 в случае неудачи, иначе количество добавленных транзакций
+     */
+    int saveAll(List<Trans> transactions);
+}
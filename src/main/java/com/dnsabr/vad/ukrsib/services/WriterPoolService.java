@@ -0,0 +1,236 @@
+package com.dnsabr.vad.ukrsib.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Сервис управления количеством потоков записи данных в БД (потоков SaveService)
+ * Загрузка начинается с одного потока записи без задержки. Количество потоков пересматривается методом adjust,
+ * который MainService вызывает периодически во время загрузки:
+ *  - если за прошедший период были неудачные из-за нагрузки на БД попытки записи (взаимоблокировка, таймаут, потеря
+ *    соединения) или средняя длительность записи пакета превысила maxLatency (БД не справляется), количество потоков
+ *    уменьшается на 1. Ошибки данных (нарушение ограничений и прочие) количество потоков не изменяют;
+ *  - если в хранилище накоплено не меньше пакета на каждый поток записи, а длительность записи в норме, добавляется
+ *    1 поток (не более maxWorkers). Если за следующий период пропускная способность (записано транзакций в секунду)
+ *    не выросла хотя бы на MIN_GAIN, добавленный поток убирается;
+ *  - после уменьшения количества потоков новые потоки не добавляются COOLDOWN периодов.
+ * Лишние потоки завершаются сами после записи текущего пакета (метод retire), последний поток не завершается, пока
+ * есть данные для записи.
+ * Каждое задание загрузки (LoadJob) получает свой экземпляр пула, поэтому потоки записи одновременно загружаемых
+ * файлов регулируются независимо.
+ * Поля:
+ *  maxWorkers - максимальное количество потоков записи. Устанавливается в application.properties
+ *  maxLatency - допустимая средняя длительность записи пакета в миллисекундах. Устанавливается в application.properties
+ *  batchSize - размер пакета вставки (количество транзакций)
+ *  saveService - объект сервиса управления записью данных в БД
+ *  breaker - общий для заданий выключатель записи. Пока он разомкнут, потоки записи не добавляются
+ *  job - задание загрузки, транзакции которого записывают потоки пула
+ *  executor - пул потоков записи текущей загрузки
+ *  workers, peakWorkers - текущее и наибольшее за загрузку количество потоков записи
+ *  target - желаемое количество потоков записи
+ *  committed, commits, latencyNanos, failures - записано транзакций, записано пакетов, суммарная длительность записи
+ *                                               пакетов и количество неудачных попыток за текущий период
+ */
+@Service
+@Scope("prototype")
+public class WriterPoolService {
+
+    private static final double MIN_GAIN = 1.05;
+    private static final int COOLDOWN = 5;
+
+    @Value("${spring.jpa.properties.app.sql.threads}")
+    private int maxWorkers;
+    @Value("${spring.jpa.properties.app.sql.threads.latency}")
+    private long maxLatency;
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size}")
+    private int batchSize;
+    @Autowired
+    private SaveService saveService;
+    @Autowired
+    private CircuitBreakerService breaker;
+
+    private volatile LoadJob job;
+    private volatile ExecutorService executor;
+    private final AtomicInteger workers = new AtomicInteger();
+    private final AtomicInteger peakWorkers = new AtomicInteger();
+    private volatile int target;
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong latencyNanos = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private long lastAdjust;
+    private boolean probing;
+    private double probeBase;
+    private int cooldown;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    WriterPoolService() {
+    }
+
+    /**
+     * Запускает первый поток записи транзакций из хранилища задания
+     * @param job задание загрузки
+     */
+    synchronized void start(LoadJob job) {
+        this.job = job;
+        executor = Executors.newCachedThreadPool();
+        workers.set(0);
+        peakWorkers.set(0);
+        target = 1;
+        committed.set(0);
+        commits.set(0);
+        latencyNanos.set(0);
+        failures.set(0);
+        lastAdjust = System.nanoTime();
+        probing = false;
+        cooldown = 0;
+        launch();
+    }
+
+    /**
+     * Пересматривает количество потоков записи по результатам прошедшего периода (подробнее смотреть описание класса)
+     */
+    synchronized void adjust() {
+        if (null == job || job.getStore().isTerminated() || executor.isShutdown()) {
+            return;
+        }
+        StoreService store = job.getStore();
+        long now = System.nanoTime();
+        double seconds = Math.max(1, now - lastAdjust) / 1e9;
+        lastAdjust = now;
+        double throughput = committed.getAndSet(0) / seconds;
+        long count = commits.getAndSet(0);
+        long latency = count > 0 ? latencyNanos.getAndSet(0) / count / 1000000 : 0;
+        long failed = failures.getAndSet(0);
+        boolean backlog = !store.isParserDone() || store.getSize() > 0;
+
+        if (failed > 0 || latency > maxLatency) {
+            probing = false;
+            cooldown = COOLDOWN;
+            if (target > 1) {
+                target--;
+                logger.info("Уменьшено количество потоков записи данных в БД до " + target + " (ошибок " + failed
+                        + ", средняя длительность записи пакета " + latency + " мс)");
+            }
+        } else if (probing) {
+            probing = false;
+            if (throughput < probeBase * MIN_GAIN && target > 1) {
+                target--;
+                cooldown = COOLDOWN;
+                logger.debug("Добавленный поток записи не увеличил пропускную способность. Потоков записи: " + target);
+            }
+        } else if (cooldown > 0) {
+            cooldown--;
+        } else if (backlog && breaker.isClosed() && target < maxWorkers && store.getSize() >= (long) batchSize * workers.get()) {
+            target++;
+            probing = true;
+            probeBase = throughput;
+        }
+        while (backlog && workers.get() < target) {
+            if (!launch()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Проверяет, должен ли поток записи завершиться для уменьшения количества потоков. Вызывается потоком записи
+     * перед запросом нового пакета. Если поток должен завершиться, он сразу исключается из количества потоков
+     * @return {@code true} если поток должен завершиться
+     */
+    boolean retire() {
+        int current;
+        while ((current = workers.get()) > target) {
+            if (workers.compareAndSet(current, current - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Учитывает успешную запись пакета
+     * @param count количество записанных транзакций
+     * @param nanos длительность записи в наносекундах
+     */
+    void committed(int count, long nanos) {
+        committed.addAndGet(count);
+        commits.incrementAndGet();
+        latencyNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Учитывает неудачную из-за нагрузки на БД попытку записи пакета (взаимоблокировка, таймаут, потеря соединения)
+     */
+    void failed() {
+        failures.incrementAndGet();
+    }
+
+    /**
+     * Возвращает текущее количество потоков записи
+     */
+    public int getWorkers() {
+        return workers.get();
+    }
+
+    /**
+     * Возвращает наибольшее количество одновременно работавших потоков записи за текущую загрузку
+     */
+    public int getPeakWorkers() {
+        return peakWorkers.get();
+    }
+
+    /**
+     * Прерывает потоки записи (при принудительной остановке приложения)
+     */
+    void shutdownNow() {
+        if (null != executor) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Освобождает пул потоков записи после завершения всех потоков записи
+     */
+    void shutdown() {
+        if (null != executor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Запускает новый поток записи
+     * @return {@code true} если поток запущен
+     */
+    private boolean launch() {
+        int current = workers.incrementAndGet();
+        peakWorkers.accumulateAndGet(current, Math::max);
+        LoadJob loadJob = job;
+        try {
+            executor.execute(() -> {
+                boolean retired = false;
+                try {
+                    retired = saveService.save(loadJob, this);
+                } finally {
+                    if (!retired) {
+                        workers.decrementAndGet();
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            workers.decrementAndGet();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.dnsabr.vad.ukrsib.utils;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Специализированное чтение блоков <transaction> непосредственно из байтов UTF-8
+ * Разбирает только известную структуру блока:
+ *  <transaction>
+ *   <place>..</place> <amount>..</amount> <currency>..</currency> <card>..</card>
+ *   <client> <firstName>..</firstName> <lastName>..</lastName> <middleName>..</middleName> <inn>..</inn> </client>
+ *  </transaction>
+ * в любом порядке тегов и с пробельными символами между ними. Названия тегов сравниваются побайтно,
+ * объекты событий и промежуточные строки не создаются - строка создается только для значения тега.
+ * Все что находится вне блоков <transaction> пропускается без разбора.
+ * Если блок содержит что-либо другое (CDATA, сущности, комментарии, атрибуты, пустые теги, неизвестные теги или
+ * вложенность, символ \r в значении), этот блок целиком разбирается с помощью StAX (StaxTransactionReader),
+ * что дает тот же результат, что и разбор всего файла с помощью StAX.
+ * Блок не должен содержать последовательность </transaction> внутри CDATA или комментариев.
+ * Поля:
+ *  is - поток чтения XML-документа
+ *  buffer - буфер чтения. Увеличивается, если блок <transaction> не помещается в буфер
+ *  position - позиция в буфере, с которой продолжается поиск следующего блока
+ *  limit - количество прочитанных в буфер байт
+ *  base - позиция начала буфера в потоке
+ *  offset - позиция начала последнего прочитанного блока в потоке
+ *  fallbacks - количество блоков разобранных с помощью StAX
+ */
+public class ByteTransactionReader implements TransactionReader {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final byte[] TRANSACTION_OPEN = bytes("<transaction>");
+    private static final byte[] TRANSACTION_CLOSE = bytes("</transaction>");
+    private static final byte[] CLIENT_OPEN = bytes("<client>");
+    private static final byte[] CLIENT_CLOSE = bytes("</client>");
+
+    // Теги значений блока <transaction> и блока <client>
+    private static final int PLACE = 0, AMOUNT = 1, CURRENCY = 2, CARD = 3;
+    private static final int FIRST_NAME = 4, LAST_NAME = 5, MIDDLE_NAME = 6, INN = 7;
+    private static final byte[][] FIELD_OPEN = {bytes("<place>"), bytes("<amount>"), bytes("<currency>"),
+            bytes("<card>"), bytes("<firstName>"), bytes("<lastName>"), bytes("<middleName>"), bytes("<inn>")};
+    private static final byte[][] FIELD_CLOSE = {bytes("</place>"), bytes("</amount>"), bytes("</currency>"),
+            bytes("</card>"), bytes("</firstName>"), bytes("</lastName>"), bytes("</middleName>"), bytes("</inn>")};
+
+    private final InputStream is;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private long base;
+    private long offset = -1;
+    private boolean eof;
+    private int fallbacks;
+
+    public ByteTransactionReader(InputStream is) {
+        this(is, BUFFER_SIZE);
+    }
+
+    ByteTransactionReader(InputStream is, int bufferSize) {
+        this.is = is;
+        this.buffer = new byte[Math.max(bufferSize, TRANSACTION_CLOSE.length)];
+    }
+
+    @Override
+    public boolean next(TransactionFields fields) throws XMLStreamException, IOException {
+        // Поиск начала блока
+        int start;
+        int from = position;
+        while ((start = indexOf(TRANSACTION_OPEN, from)) < 0) {
+            if (eof) {
+                position = limit;
+                return false;
+            }
+            int keep = Math.max(from, limit - TRANSACTION_OPEN.length + 1);
+            fill(keep);
+            from = 0;
+        }
+
+        // Поиск конца блока. Блок целиком должен находиться в буфере
+        int end;
+        from = start + TRANSACTION_OPEN.length;
+        while ((end = indexOf(TRANSACTION_CLOSE, from)) < 0) {
+            if (eof) {
+                throw new XMLStreamException("Неожиданный конец файла внутри блока <transaction>");
+            }
+            from = Math.max(0, limit - start - TRANSACTION_CLOSE.length + 1);
+            fill(start);
+            start = 0;
+        }
+        end += TRANSACTION_CLOSE.length;
+        position = end;
+        offset = base + start;
+
+        fields.clear();
+        if (!parse(start, end, fields)) {
+            fallback(start, end, fields);
+        }
+        return true;
+    }
+
+    /**
+     * Возвращает позицию начала последнего прочитанного блока <transaction> в потоке
+     * @return позиция в байтах от начала потока или -1, если блоки еще не читались
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Возвращает позицию в потоке сразу после последнего прочитанного блока </transaction>
+     * @return позиция в байтах от начала потока
+     */
+    @Override
+    public long getEndOffset() {
+        return base + position;
+    }
+
+    /**
+     * Возвращает количество блоков, которые были разобраны с помощью StAX
+     * @return количество блоков
+     */
+    public int getFallbacks() {
+        return fallbacks;
+    }
+
+    @Override
+    public void close() {
+        try {
+            is.close();
+        } catch (IOException e) {/*пустое*/}
+    }
+
+    /**
+     * Разбирает блок <transaction> известной структуры
+     * @param start позиция начала блока в буфере
+     * @param end позиция сразу после конца блока в буфере
+     * @param fields объект для значений тегов блока
+     * @return {@code true} если блок разобран {@code false} если блок содержит неизвестные конструкции
+     */
+    private boolean parse(int start, int end, TransactionFields fields) {
+        int p = start + TRANSACTION_OPEN.length;
+        int close = end - TRANSACTION_CLOSE.length;
+        boolean inClient = false;
+        while (true) {
+            p = skipWhitespace(p, close);
+            if (p >= close) {
+                return !inClient;
+            }
+            if (buffer[p] != '<') {
+                return false;
+            }
+            if (matches(p, close, CLIENT_OPEN)) {
+                if (inClient) {
+                    return false;
+                }
+                inClient = true;
+                p += CLIENT_OPEN.length;
+                continue;
+            }
+            if (matches(p, close, CLIENT_CLOSE)) {
+                if (!inClient) {
+                    return false;
+                }
+                inClient = false;
+                p += CLIENT_CLOSE.length;
+                continue;
+            }
+
+            int field = field(p, close, inClient);
+            if (field < 0) {
+                return false;
+            }
+            int textStart = p + FIELD_OPEN[field].length;
+            int textEnd = textStart;
+            while (textEnd < close && buffer[textEnd] != '<') {
+                if (buffer[textEnd] == '&' || buffer[textEnd] == '\r') {
+                    return false;
+                }
+                textEnd++;
+            }
+            if (!matches(textEnd, close, FIELD_CLOSE[field])) {
+                return false;
+            }
+            set(fields, field, new String(buffer, textStart, textEnd - textStart, StandardCharsets.UTF_8));
+            p = textEnd + FIELD_CLOSE[field].length;
+        }
+    }
+
+    /**
+     * Разбирает блок <transaction> с помощью StAX
+     */
+    private void fallback(int start, int end, TransactionFields fields) throws XMLStreamException {
+        fallbacks++;
+        fields.clear();
+        try (StaxTransactionReader reader = new StaxTransactionReader(new ByteArrayInputStream(buffer, start, end - start))) {
+            reader.next(fields);
+        }
+    }
+
+    /**
+     * Определяет открывающий тег значения в позиции p
+     * @return номер тега или -1, если тег неизвестен или не допустим на текущем уровне вложенности
+     */
+    private int field(int p, int to, boolean inClient) {
+        int from = inClient ? FIRST_NAME : PLACE;
+        int till = inClient ? INN : CARD;
+        for (int field = from; field <= till; field++) {
+            if (matches(p, to, FIELD_OPEN[field])) {
+                return field;
+            }
+        }
+        return -1;
+    }
+
+    private static void set(TransactionFields fields, int field, String value) {
+        switch (field) {
+            case PLACE:
+                fields.setPlaceName(value);
+                break;
+            case AMOUNT:
+                fields.setAmount(value);
+                break;
+            case CURRENCY:
+                fields.setCurrency(value);
+                break;
+            case CARD:
+                fields.setCard(value);
+                break;
+            case FIRST_NAME:
+                fields.setFirstName(value);
+                break;
+            case LAST_NAME:
+                fields.setLastName(value);
+                break;
+            case MIDDLE_NAME:
+                fields.setMiddleName(value);
+                break;
+            case INN:
+                fields.setInn(value);
+                break;
+            default:
+        }
+    }
+
+    private int skipWhitespace(int p, int to) {
+        while (p < to && (buffer[p] == ' ' || buffer[p] == '\n' || buffer[p] == '\t' || buffer[p] == '\r')) {
+            p++;
+        }
+        return p;
+    }
+
+    private boolean matches(int p, int to, byte[] pattern) {
+        if (p + pattern.length > to) {
+            return false;
+        }
+        for (int i = 0; i < pattern.length; i++) {
+            if (buffer[p + i] != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(byte[] pattern, int from) {
+        for (int i = Math.max(0, from); i <= limit - pattern.length; i++) {
+            if (buffer[i] == pattern[0] && matches(i, limit, pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Сдвигает непрочитанные данные начиная с позиции keep в начало буфера и дочитывает поток
+     * Увеличивает буфер в 2 раза, если он заполнен
+     * @param keep позиция в буфере, начиная с которой данные необходимо сохранить
+     */
+    private void fill(int keep) throws IOException {
+        int remaining = limit - keep;
+        if (keep > 0) {
+            System.arraycopy(buffer, keep, buffer, 0, remaining);
+            base += keep;
+        }
+        limit = remaining;
+        position = 0;
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = is.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,78 @@
+package com.dnsabr.vad.ukrsib.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Поток чтения байтового диапазона файла [start, end)
+ * Использует позиционное чтение FileChannel, поэтому несколько таких потоков могут читать один канал одновременно.
+ * Закрытие потока не закрывает канал.
+ */
+public class ChunkInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final long end;
+    private final ByteBuffer buffer;
+    private long position;
+
+    public ChunkInputStream(FileChannel channel, long start, long end) {
+        this.channel = channel;
+        this.position = start;
+        this.end = end;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.buffer.limit(0);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    /**
+     * Заполняет буфер очередной порцией данных диапазона, если буфер прочитан
+     * @return {@code true} если в буфере есть данные {@code false} если диапазон прочитан полностью
+     */
+    private boolean fill() throws IOException {
+        if (buffer.hasRemaining()) {
+            return true;
+        }
+        if (position >= end) {
+            return false;
+        }
+        buffer.clear();
+        buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+        int read = channel.read(buffer, position);
+        buffer.flip();
+        if (read <= 0) {
+            position = end;
+            return false;
+        }
+        position += read;
+        return true;
+    }
+}
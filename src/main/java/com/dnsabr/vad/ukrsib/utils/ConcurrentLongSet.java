@@ -0,0 +1,218 @@
+package com.dnsabr.vad.ukrsib.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Потокобезопасное множество чисел long с ограниченным количеством элементов
+ * Элементы хранятся без упаковки в Long в массивах с открытой адресацией (линейное пробирование), распределенных
+ * по hash-коду между STRIPES частями со своей блокировкой. Элементы не удаляются. Когда множество заполнено, новые
+ * элементы не добавляются (метод add возвращает false), а имеющиеся остаются, т.к. для словаря "уже добавлено в БД"
+ * отсутствие элемента означает только лишний запрос, а не ошибку.
+ * Поля:
+ *  stripes - части множества
+ *  hits, misses - количество проверок, для которых элемент найден и не найден
+ */
+public class ConcurrentLongSet {
+
+    private static final int STRIPES = 16;
+    private static final int INITIAL_SLOTS = 16;
+    private static final long EMPTY = 0L;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity наибольшее количество элементов
+     */
+    public ConcurrentLongSet(int capacity) {
+        int perStripe = capacity <= 0 ? 0 : Math.max(1, (capacity + STRIPES - 1) / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+    }
+
+    /**
+     * Проверяет наличие элемента и учитывает попадание или промах
+     * @param value элемент
+     * @return {@code true} если элемент есть в множестве
+     */
+    public boolean contains(long value) {
+        int hash = hash(value);
+        Stripe stripe = stripes[hash & (STRIPES - 1)];
+        boolean found;
+        synchronized (stripe) {
+            found = stripe.contains(value, hash >>> 4);
+        }
+        (found ? hits : misses).incrementAndGet();
+        return found;
+    }
+
+    /**
+     * Добавляет элемент
+     * @param value элемент
+     * @return {@code true} если элемент добавлен {@code false} если он уже есть или множество заполнено
+     */
+    public boolean add(long value) {
+        int hash = hash(value);
+        Stripe stripe = stripes[hash & (STRIPES - 1)];
+        if (0 == stripe.limit) {
+            return false;
+        }
+        synchronized (stripe) {
+            return stripe.add(value, hash >>> 4);
+        }
+    }
+
+    /**
+     * Проверяет, возможно ли добавление элементов
+     * @return {@code false} если емкость множества 0
+     */
+    public boolean isEnabled() {
+        return stripes[0].limit > 0;
+    }
+
+    /**
+     * Возвращает наибольшее количество элементов
+     */
+    public int getCapacity() {
+        return stripes[0].limit * STRIPES;
+    }
+
+    /**
+     * Возвращает количество элементов
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Возвращает количество проверок, для которых элемент найден
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Возвращает количество проверок, для которых элемент не найден
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Удаляет все элементы и обнуляет счетчики
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * Возвращает строку с количеством элементов, попаданий и промахов
+     */
+    @Override
+    public String toString() {
+        return "записей " + size() + ", попаданий " + hits.get() + ", промахов " + misses.get();
+    }
+
+    /**
+     * Перемешивает биты элемента (финализатор MurmurHash3), чтобы близкие числа распределялись равномерно
+     */
+    private static int hash(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * Часть множества: массив с открытой адресацией. Значение EMPTY обозначает свободную ячейку, поэтому сам
+     * элемент EMPTY хранится отдельным признаком
+     */
+    private static final class Stripe {
+
+        private final int limit;
+        private long[] slots = new long[0];
+        private boolean hasEmpty;
+        private int size;
+
+        private Stripe(int limit) {
+            this.limit = limit;
+        }
+
+        private boolean contains(long value, int hash) {
+            if (EMPTY == value) {
+                return hasEmpty;
+            }
+            if (0 == slots.length) {
+                return false;
+            }
+            int mask = slots.length - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                if (value == slots[i]) {
+                    return true;
+                }
+                if (EMPTY == slots[i]) {
+                    return false;
+                }
+            }
+        }
+
+        private boolean add(long value, int hash) {
+            if (contains(value, hash) || size >= limit) {
+                return false;
+            }
+            if (EMPTY == value) {
+                hasEmpty = true;
+            } else {
+                if (2 * (size + 1) > slots.length) {
+                    resize();
+                }
+                insert(slots, value, hash);
+            }
+            size++;
+            return true;
+        }
+
+        private void resize() {
+            long[] resized = new long[Math.max(INITIAL_SLOTS, slots.length * 2)];
+            for (long value : slots) {
+                if (EMPTY != value) {
+                    insert(resized, value, hash(value) >>> 4);
+                }
+            }
+            slots = resized;
+        }
+
+        private static void insert(long[] slots, long value, int hash) {
+            int mask = slots.length - 1;
+            int i = hash & mask;
+            while (EMPTY != slots[i]) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = value;
+        }
+
+        private void clear() {
+            Arrays.fill(slots, EMPTY);
+            hasEmpty = false;
+            size = 0;
+        }
+    }
+}
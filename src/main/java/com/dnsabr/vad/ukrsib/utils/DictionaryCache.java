@@ -0,0 +1,155 @@
+package com.dnsabr.vad.ukrsib.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ограниченный потокобезопасный словарь-кэш с вытеснением давно не использованных записей (LRU)
+ * Записи распределяются по hash-коду ключа между SEGMENTS сегментами со своей блокировкой, поэтому потоки записи,
+ * обращающиеся к разным ключам, почти не конкурируют. Каждый сегмент хранит не более capacity/SEGMENTS записей
+ * и вытесняет запись, к которой дольше всего не обращались. При емкости 0 записи не хранятся.
+ * Поля:
+ *  segments - сегменты словаря (LinkedHashMap в порядке обращения)
+ *  hits, misses - количество обращений, для которых запись найдена и не найдена
+ * @param <K> тип ключа
+ * @param <V> тип значения
+ */
+public class DictionaryCache<K, V> {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity наибольшее количество записей
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public DictionaryCache(int capacity) {
+        int perSegment = capacity <= 0 ? 0 : Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>(perSegment);
+        }
+    }
+
+    /**
+     * Возвращает значение по ключу и учитывает попадание или промах
+     * @param key ключ
+     * @return значение или null, если записи нет
+     */
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        (null == value ? misses : hits).incrementAndGet();
+        return value;
+    }
+
+    /**
+     * Добавляет или заменяет запись. При заполнении сегмента вытесняет давно не использованную запись
+     * @param key ключ
+     * @param value значение, не null
+     */
+    public void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        if (0 == segment.capacity || null == value) {
+            return;
+        }
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    /**
+     * Проверяет, возможно ли добавление записей
+     * @return {@code false} если емкость словаря 0
+     */
+    public boolean isEnabled() {
+        return segments[0].capacity > 0;
+    }
+
+    /**
+     * Возвращает наибольшее количество записей
+     */
+    public int getCapacity() {
+        return segments[0].capacity * SEGMENTS;
+    }
+
+    /**
+     * Возвращает количество записей
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Возвращает количество обращений, для которых запись найдена
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Возвращает количество обращений, для которых запись не найдена
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Удаляет все записи и обнуляет счетчики
+     */
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * Возвращает строку с количеством записей, попаданий и промахов
+     */
+    @Override
+    public String toString() {
+        return "записей " + size() + ", попаданий " + hits.get() + ", промахов " + misses.get();
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Сегмент словаря: LinkedHashMap в порядке обращения с вытеснением самой давней записи
+     */
+    private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > capacity;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.dnsabr.vad.ukrsib.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Поток чтения байтового диапазона файла [start, end) через отображение файла в память (MappedByteBuffer)
+ * Данные читаются непосредственно из страничного кеша операционной системы без системных вызовов read
+ * и промежуточного копирования в буферы потока.
+ * Отдельный MappedByteBuffer не может быть больше 2 ГБ, поэтому диапазон отображается окнами размера windowSize,
+ * следующее окно отображается после прочтения предыдущего. Отображения прочитанных окон освобождаются сборщиком мусора.
+ * Закрытие потока закрывает канал, только если поток сам его открыл. Такой канал закрывается и сразу после
+ * отображения последнего окна: отображения остаются действительными после закрытия канала, поэтому дескриптор файла
+ * не удерживается до закрытия потока.
+ */
+public class MappedInputStream extends InputStream {
+
+    public static final long DEFAULT_WINDOW_SIZE = 256L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final boolean ownChannel;
+    private final long end;
+    private final long windowSize;
+    private long position;
+    private MappedByteBuffer window;
+
+    /**
+     * Открывает файл целиком
+     * @param file путь к файлу
+     * @throws IOException при ошибке открытия файла
+     */
+    public MappedInputStream(Path file) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.READ), true);
+    }
+
+    private MappedInputStream(FileChannel channel, boolean ownChannel) throws IOException {
+        this(channel, 0, size(channel), DEFAULT_WINDOW_SIZE, ownChannel);
+    }
+
+    /**
+     * Открывает диапазон файла через уже открытый канал
+     * @param channel канал открытого для чтения файла
+     * @param start начало диапазона
+     * @param end конец диапазона (не включительно)
+     */
+    public MappedInputStream(FileChannel channel, long start, long end) {
+        this(channel, start, end, DEFAULT_WINDOW_SIZE, false);
+    }
+
+    MappedInputStream(FileChannel channel, long start, long end, long windowSize, boolean ownChannel) {
+        if (windowSize <= 0 || windowSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Недопустимый размер окна отображения: " + windowSize);
+        }
+        this.channel = channel;
+        this.ownChannel = ownChannel;
+        this.position = start;
+        this.end = end;
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!remap()) {
+            return -1;
+        }
+        return window.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!remap()) {
+            return -1;
+        }
+        int count = Math.min(length, window.remaining());
+        window.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || !remap()) {
+            return 0;
+        }
+        int count = (int) Math.min(n, window.remaining());
+        window.position(window.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return null == window ? 0 : window.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        release();
+    }
+
+    /**
+     * Отображает следующее окно диапазона, если текущее прочитано
+     * @return {@code true} если в окне есть данные {@code false} если диапазон прочитан полностью
+     */
+    private boolean remap() throws IOException {
+        if (null != window && window.hasRemaining()) {
+            return true;
+        }
+        if (position >= end) {
+            release();
+            return false;
+        }
+        long size = Math.min(windowSize, end - position);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        position += size;
+        if (position >= end) {
+            release();
+        }
+        return true;
+    }
+
+    /**
+     * Закрывает канал, если поток сам его открыл
+     */
+    private void release() throws IOException {
+        if (ownChannel && channel.isOpen()) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Возвращает размер файла канала. При ошибке закрывает канал, открытый конструктором
+     */
+    private static long size(FileChannel channel) throws IOException {
+        try {
+            return channel.size();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package com.dnsabr.vad.ukrsib.utils;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Очередь фиксированной емкости на основе кольцевого буфера (массива) с блокирующим ожиданием
+ * Массив создается один раз с емкостью capacity и не увеличивается. Количество элементов хранится в отдельном
+ * volatile поле, поэтому size() выполняется за O(1) без блокировки.
+ * Элементы, извлеченные методом drainTo, продолжают занимать место в очереди (leased), пока не будут освобождены
+ * методом release или возвращены в очередь методом restore. Поэтому возврат извлеченных элементов всегда помещается
+ * в массив и не ожидает освобождения места, а методы put и putAll ожидают, пока в очереди с учетом извлеченных
+ * элементов не освободится место.
+ * Ожидающие потоки пробуждаются сигналами условий notEmpty и notFull сразу при изменении очереди, а не по
+ * истечении фиксированной паузы. Условие прекращения ожидания stop проверяется при каждом пробуждении; после изменения
+ * внешних флагов, от которых зависит stop, необходимо вызвать wakeUp. Ожидание дополнительно ограничено периодом
+ * WAIT_NANOS на случай изменения флагов без вызова wakeUp.
+ * Пакетные методы putAll, drainTo и restore выполняются за одно получение блокировки и один сигнал ожидающим потокам.
+ * Итератор возвращает копию содержимого очереди на момент вызова и не поддерживает удаление.
+ * @param <E> тип элементов
+ */
+public class RingBuffer<E> extends AbstractQueue<E> {
+
+    private static final long WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private final Object[] items;
+    private int head;
+    private volatile int count;
+    private int leased;
+
+    /**
+     * @param capacity наибольшее количество элементов в очереди, включая извлеченные и еще не освобожденные
+     */
+    public RingBuffer(int capacity) {
+        items = new Object[Math.max(1, capacity)];
+    }
+
+    /**
+     * Добавляет элемент в конец очереди, ожидая освобождения места
+     * @param e элемент
+     * @param stop условие прекращения ожидания
+     * @return {@code true} если элемент добавлен {@code false} если ожидание прекращено условием stop
+     * @throws InterruptedException если поток прерван во время ожидания
+     */
+    public boolean put(E e, BooleanSupplier stop) throws InterruptedException {
+        if (null == e) {
+            throw new NullPointerException();
+        }
+        lock.lockInterruptibly();
+        try {
+            while (count + leased >= items.length) {
+                if (stop.getAsBoolean()) {
+                    return false;
+                }
+                notFull.awaitNanos(WAIT_NANOS);
+            }
+            enqueue(e);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Добавляет все элементы коллекции в конец очереди, ожидая пока коллекция не поместится в очередь целиком
+     * @param collection коллекция элементов
+     * @param stop условие прекращения ожидания
+     * @return {@code true} если элементы добавлены {@code false} если ожидание прекращено условием stop
+     * @throws InterruptedException если поток прерван во время ожидания
+     * @throws IllegalArgumentException если коллекция больше емкости очереди
+     */
+    public boolean putAll(Collection<? extends E> collection, BooleanSupplier stop) throws InterruptedException {
+        int size = collection.size();
+        if (size > items.length) {
+            throw new IllegalArgumentException("Коллекция из " + size + " элементов больше емкости очереди " + items.length);
+        }
+        lock.lockInterruptibly();
+        try {
+            while (count + leased + size > items.length) {
+                if (stop.getAsBoolean()) {
+                    return false;
+                }
+                notFull.awaitNanos(WAIT_NANOS);
+            }
+            enqueueAll(collection);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Возвращает в конец очереди элементы, извлеченные методом drainTo, без ожидания. Место возвращаемых элементов
+     * занято с момента извлечения, поэтому они всегда помещаются в очередь
+     * @param collection извлеченные элементы
+     * @throws IllegalStateException если в очереди нет места для элементов, которые не были извлечены из нее
+     */
+    public void restore(Collection<? extends E> collection) {
+        lock.lock();
+        try {
+            int size = collection.size();
+            int returned = Math.min(size, leased);
+            if (count + leased - returned + size > items.length) {
+                throw new IllegalStateException("Очередь заполнена");
+            }
+            leased -= returned;
+            enqueueAll(collection);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Освобождает место элементов, извлеченных методом drainTo и обработанных без возврата в очередь
+     * @param size количество обработанных элементов
+     */
+    public void release(int size) {
+        if (size <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            leased = Math.max(0, leased - size);
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Извлекает элемент из начала очереди, ожидая его появления
+     * @param stop условие прекращения ожидания
+     * @return элемент или null, если ожидание прекращено условием stop при пустой очереди
+     * @throws InterruptedException если поток прерван во время ожидания
+     */
+    public E take(BooleanSupplier stop) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (stop.getAsBoolean()) {
+                    return null;
+                }
+                notEmpty.awaitNanos(WAIT_NANOS);
+            }
+            E e = dequeue();
+            notFull.signal();
+            return e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Перемещает элементы из начала очереди в коллекцию, ожидая пока в очереди не будет не менее min элементов
+     * Место перемещенных элементов остается занятым до вызова release или restore
+     * @param collection коллекция для элементов
+     * @param max максимальное количество перемещаемых элементов
+     * @param min количество элементов, которого необходимо дождаться
+     * @param stop условие прекращения ожидания. При прекращении ожидания перемещаются имеющиеся элементы
+     * @return количество перемещенных элементов
+     * @throws InterruptedException если поток прерван во время ожидания
+     */
+    public int drainTo(Collection<? super E> collection, int max, int min, BooleanSupplier stop) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count < min && !stop.getAsBoolean()) {
+                notEmpty.awaitNanos(WAIT_NANOS);
+            }
+            int n = Math.min(max, count);
+            for (int i = 0; i < n; i++) {
+                collection.add(dequeue());
+            }
+            leased += n;
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Пробуждает все ожидающие потоки для проверки условий прекращения ожидания
+     */
+    public void wakeUp() {
+        lock.lock();
+        try {
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Добавляет элемент в конец очереди без ожидания, если в очереди есть место
+     * @param e элемент
+     * @return {@code true} если элемент добавлен {@code false} если очередь заполнена
+     */
+    @Override
+    public boolean offer(E e) {
+        if (null == e) {
+            throw new NullPointerException();
+        }
+        lock.lock();
+        try {
+            if (count + leased >= items.length) {
+                return false;
+            }
+            enqueue(e);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll() {
+        lock.lock();
+        try {
+            if (count == 0) {
+                return null;
+            }
+            E e = dequeue();
+            notFull.signal();
+            return e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        lock.lock();
+        try {
+            return (E) items[head];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Возвращает количество элементов в очереди без блокировки
+     * @return количество элементов
+     */
+    @Override
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Удаляет все элементы очереди и пробуждает ожидающие добавления потоки. Место извлеченных элементов остается
+     * занятым до вызова release или restore
+     */
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                items[(head + i) % items.length] = null;
+            }
+            head = 0;
+            count = 0;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator() {
+        lock.lock();
+        try {
+            List<E> snapshot = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                snapshot.add((E) items[(head + i) % items.length]);
+            }
+            return Collections.unmodifiableList(snapshot).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Возвращает емкость очереди
+     * @return длина массива кольцевого буфера
+     */
+    public int capacity() {
+        return items.length;
+    }
+
+    /**
+     * Возвращает количество извлеченных методом drainTo элементов, место которых еще не освобождено
+     * @return количество извлеченных элементов
+     */
+    int leased() {
+        lock.lock();
+        try {
+            return leased;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Добавляет элемент в конец массива. Вызывается под блокировкой, наличие места и сигнал ожидающим потокам
+     * обеспечивает вызывающий метод
+     */
+    private void enqueue(E e) {
+        items[(head + count) % items.length] = e;
+        count++;
+    }
+
+    /**
+     * Добавляет элементы коллекции и подает один сигнал всем ожидающим извлечения потокам
+     */
+    private void enqueueAll(Collection<? extends E> collection) {
+        int added = 0;
+        for (E e : collection) {
+            if (null != e) {
+                enqueue(e);
+                added++;
+            }
+        }
+        if (added > 0) {
+            notEmpty.signalAll();
+        }
+    }
+
+    /**
+     * Извлекает элемент из начала массива. Вызывается под блокировкой, сигнал ожидающим потокам подает вызывающий метод
+     */
+    @SuppressWarnings("unchecked")
+    private E dequeue() {
+        E e = (E) items[head];
+        items[head] = null;
+        head = (head + 1) % items.length;
+        count--;
+        return e;
+    }
+}
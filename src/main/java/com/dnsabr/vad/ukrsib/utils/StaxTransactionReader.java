@@ -0,0 +1,81 @@
+package com.dnsabr.vad.ukrsib.utils;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.XMLEvent;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Чтение блоков <transaction> с помощью Streaming API for XML (StAX)
+ * Метод next в цикле перебирает теги XML-документа до тега <transaction>. Затем в новом цикле (цикл do)
+ * перебирает все теги до закрывающего тега </transaction>, сохраняя значения в соответствующие поля
+ * в конструкции switch case. Теги с другими названиями пропускаются независимо от вложенности.
+ */
+public class StaxTransactionReader implements TransactionReader {
+
+    private final InputStream is;
+    private final StaxStreamProcessor processor;
+
+    public StaxTransactionReader(InputStream is) throws XMLStreamException {
+        this.is = is;
+        processor = new StaxStreamProcessor(is);
+    }
+
+    @Override
+    public boolean next(TransactionFields fields) throws XMLStreamException {
+        XMLStreamReader reader = processor.getReader();
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLEvent.START_ELEMENT && "transaction".equals(reader.getLocalName())) {
+                fields.clear();
+                do {
+                    event = reader.next();
+
+                    if (event == XMLEvent.START_ELEMENT) {
+                        switch (reader.getLocalName()) {
+                            case "place":
+                                fields.setPlaceName(reader.getElementText());
+                                break;
+                            case "amount":
+                                fields.setAmount(reader.getElementText());
+                                break;
+                            case "currency":
+                                fields.setCurrency(reader.getElementText());
+                                break;
+                            case "card":
+                                fields.setCard(reader.getElementText());
+                                break;
+                            case "firstName":
+                                fields.setFirstName(reader.getElementText());
+                                break;
+                            case "lastName":
+                                fields.setLastName(reader.getElementText());
+                                break;
+                            case "middleName":
+                                fields.setMiddleName(reader.getElementText());
+                                break;
+                            case "inn":
+                                fields.setInn(reader.getElementText());
+                                break;
+                            default:
+                        }
+                    }
+                } while (event != XMLEvent.END_ELEMENT || !"transaction".equals(reader.getLocalName()));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Закрывает XMLStreamReader и поток чтения: XMLStreamReader.close не закрывает переданный ему поток
+     */
+    @Override
+    public void close() {
+        processor.close();
+        try {
+            is.close();
+        } catch (IOException e) {/*пустое*/}
+    }
+}
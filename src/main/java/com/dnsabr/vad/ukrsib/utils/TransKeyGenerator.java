@@ -0,0 +1,135 @@
+package com.dnsabr.vad.ukrsib.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Генератор ключей транзакций по порядковому номеру в файле и hash-коду значений полей
+ * Ключ равен BASE * serial + |hash|. Пока serial не больше MAX_DIRECT_SERIAL и |hash| неотрицателен, ключи разных
+ * порядковых номеров лежат в непересекающихся диапазонах [BASE * serial, BASE * serial + Integer.MAX_VALUE], поэтому
+ * такие ключи (прямые) рассчитываются без синхронизации и без хранения, а для одной пары (serial, значения полей)
+ * всегда совпадают, в том числе при повторной загрузке файла.
+ * Остальные ключи (переполнение long при большом serial или hash равный Integer.MIN_VALUE) сдвигаются до первого
+ * положительного значения, не являющегося прямым ключом и не выданного другому порядковому номеру. Такие ключи
+ * хранятся в таблице с открытой адресацией на массивах примитивов под блокировкой объекта генератора.
+ * Таблица пуста для любого файла с количеством транзакций меньше MAX_DIRECT_SERIAL.
+ * Поля:
+ *  keys, serials - таблица с открытой адресацией: ключ -> порядковый номер. 0 в keys обозначает свободную ячейку
+ *  size - количество ключей в таблице
+ *  count - количество выданных ключей (для статистики)
+ */
+public class TransKeyGenerator {
+
+    private static final long BASE = 10000000000L;
+    private static final long STEP = 141414141414L;
+    static final long MAX_DIRECT_SERIAL = (Long.MAX_VALUE - Integer.MAX_VALUE) / BASE;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private int[] serials = new int[INITIAL_CAPACITY];
+    private int size;
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Возвращает ключ транзакции
+     * @param serial порядковый номер транзакции в файле
+     * @param hash hash-код значений полей транзакции
+     * @return положительный ключ, не совпадающий с ключами других порядковых номеров
+     */
+    public long generate(int serial, int hash) {
+        count.incrementAndGet();
+        long key = BASE * serial + Math.abs(hash);
+        if (serial > 0 && serial <= MAX_DIRECT_SERIAL && hash != Integer.MIN_VALUE) {
+            return key;
+        }
+        synchronized (this) {
+            int found;
+            while (key <= 0 || isDirect(key) || (found = get(key)) != 0 && found != serial) {
+                if (key <= 0) {
+                    key = key + Long.MAX_VALUE;
+                } else {
+                    key += STEP;
+                }
+            }
+            put(key, serial);
+        }
+        return key;
+    }
+
+    /**
+     * Возвращает количество выданных ключей с момента создания или очистки
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Возвращает количество хранимых (не прямых) ключей
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Очищает таблицу хранимых ключей и счетчик выданных ключей
+     */
+    public synchronized void clear() {
+        keys = new long[INITIAL_CAPACITY];
+        serials = new int[INITIAL_CAPACITY];
+        size = 0;
+        count.set(0);
+    }
+
+    /**
+     * Проверяет, может ли значение быть прямым ключом какого-либо порядкового номера
+     */
+    private static boolean isDirect(long key) {
+        long serial = key / BASE;
+        return serial >= 1 && serial <= MAX_DIRECT_SERIAL && key % BASE <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Возвращает порядковый номер хранимого ключа или 0, если ключ не хранится
+     */
+    private int get(long key) {
+        int mask = keys.length - 1;
+        for (int i = index(key, mask); keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return serials[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Сохраняет ключ в таблице. Увеличивает таблицу в 2 раза при заполнении наполовину
+     */
+    private void put(long key, int serial) {
+        if (2 * (size + 1) > keys.length) {
+            long[] oldKeys = keys;
+            int[] oldSerials = serials;
+            keys = new long[oldKeys.length * 2];
+            serials = new int[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i], oldSerials[i]);
+                }
+            }
+        }
+        int mask = keys.length - 1;
+        int i = index(key, mask);
+        while (keys[i] != 0 && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == 0) {
+            size++;
+        }
+        keys[i] = key;
+        serials[i] = serial;
+    }
+
+    private static int index(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
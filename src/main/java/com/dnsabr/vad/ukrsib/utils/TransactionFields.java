@@ -0,0 +1,111 @@
+package com.dnsabr.vad.ukrsib.utils;
+
+/**
+ * Значения тегов одного блока <transaction> из файла данных в том виде, в котором они записаны в файле
+ * Объект многократно используется читателем транзакций для очередных блоков, поэтому значения необходимо
+ * забрать до следующего чтения.
+ * Отсутствующие в блоке теги имеют пустые значения
+ */
+public class TransactionFields {
+
+    private String placeName;
+    private String amount;
+    private String currency;
+    private String card;
+    private String firstName;
+    private String lastName;
+    private String middleName;
+    private String inn;
+
+    public TransactionFields() {
+        clear();
+    }
+
+    /**
+     * Устанавливает пустые значения всем полям
+     */
+    public void clear() {
+        placeName = "";
+        amount = "";
+        currency = "";
+        card = "";
+        firstName = "";
+        lastName = "";
+        middleName = "";
+        inn = "";
+    }
+
+    public String getPlaceName() {
+        return placeName;
+    }
+
+    public void setPlaceName(String placeName) {
+        this.placeName = placeName;
+    }
+
+    public String getAmount() {
+        return amount;
+    }
+
+    public void setAmount(String amount) {
+        this.amount = amount;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    public void setCurrency(String currency) {
+        this.currency = currency;
+    }
+
+    public String getCard() {
+        return card;
+    }
+
+    public void setCard(String card) {
+        this.card = card;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public void setFirstName(String firstName) {
+        this.firstName = firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public void setLastName(String lastName) {
+        this.lastName = lastName;
+    }
+
+    public String getMiddleName() {
+        return middleName;
+    }
+
+    public void setMiddleName(String middleName) {
+        this.middleName = middleName;
+    }
+
+    public String getInn() {
+        return inn;
+    }
+
+    public void setInn(String inn) {
+        this.inn = inn;
+    }
+
+    /**
+     * Возвращает значения полей через запятую в порядке следования тегов в файле
+     * @return строка со значениями полей
+     */
+    @Override
+    public String toString() {
+        return placeName + "," + amount + "," + currency + "," + card + "," + firstName + ","
+                + lastName + "," + middleName + "," + inn;
+    }
+}
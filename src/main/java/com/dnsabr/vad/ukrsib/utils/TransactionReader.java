@@ -0,0 +1,33 @@
+package com.dnsabr.vad.ukrsib.utils;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+
+/**
+ * Последовательное чтение блоков <transaction> из XML-документа
+ * Реализации:
+ *  StaxTransactionReader - на основе Streaming API for XML (StAX)
+ *  ByteTransactionReader - специализированный разбор байтов UTF-8 для известной структуры файла
+ */
+public interface TransactionReader extends AutoCloseable {
+
+    /**
+     * Читает следующий блок <transaction>
+     * @param fields объект для значений тегов блока
+     * @return {@code true} если блок прочитан {@code false} если блоков в документе больше нет
+     * @throws XMLStreamException при несоответствии структуры XML-документа ожидаемой
+     * @throws IOException при ошибке чтения
+     */
+    boolean next(TransactionFields fields) throws XMLStreamException, IOException;
+
+    /**
+     * Возвращает позицию в потоке сразу после последнего прочитанного блока </transaction>
+     * @return позиция в байтах от начала потока или -1, если реализация не определяет позицию
+     */
+    default long getEndOffset() {
+        return -1;
+    }
+
+    @Override
+    void close();
+}
@@ -0,0 +1,278 @@
+package com.dnsabr.vad.ukrsib.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Разбивает XML-файл входящих данных на байтовые диапазоны по границам тегов <transaction>
+ * для параллельного разбора несколькими потоками.
+ * Каждый диапазон начинается с тега <transaction> и заканчивается перед следующим таким тегом,
+ * последний - сразу после последнего закрывающего тега </transaction>.
+ * Поиск ведется по байтам, без разбора XML, поэтому тег должен быть записан без префикса и атрибутов.
+ * Для разбора диапазон оборачивается в синтетический корневой тег, что делает его самостоятельным XML-документом.
+ * Все методы используют позиционное чтение FileChannel, не изменяющее позицию канала, поэтому один канал
+ * может одновременно использоваться несколькими потоками.
+ */
+public class XmlChunkSplitter {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final byte[] OPEN_TAG = "<transaction>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CLOSE_TAG = "</transaction>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CHUNK_OPEN = "<chunk>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CHUNK_CLOSE = "</chunk>".getBytes(StandardCharsets.UTF_8);
+
+    private XmlChunkSplitter() {
+    }
+
+    /**
+     * Байтовый диапазон файла [start, end) содержащий целое количество транзакций
+     */
+    public static class Chunk {
+        private final long start;
+        private final long end;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        @Override
+        public String toString() {
+            return "Chunk{" +
+                    "start=" + start +
+                    ", end=" + end +
+                    '}';
+        }
+    }
+
+    /**
+     * Разбивает файл на не более чем parts диапазонов примерно равного размера
+     * @param channel канал открытого для чтения файла
+     * @param parts желаемое количество диапазонов
+     * @return список диапазонов в порядке следования в файле или пустой список, если в файле нет транзакций
+     * @throws IOException при ошибке чтения файла
+     */
+    public static List<Chunk> split(FileChannel channel, int parts) throws IOException {
+        return split(channel, parts, 0);
+    }
+
+    /**
+     * Разбивает часть файла начиная с позиции from на не более чем parts диапазонов примерно равного размера
+     * Используется для возобновления разбора с позиции после последней загруженной транзакции
+     * @param channel канал открытого для чтения файла
+     * @param parts желаемое количество диапазонов
+     * @param from позиция в файле, с которой начинается поиск первого тега <transaction>
+     * @return список диапазонов в порядке следования в файле или пустой список, если после позиции нет транзакций
+     * @throws IOException при ошибке чтения файла
+     */
+    public static List<Chunk> split(FileChannel channel, int parts, long from) throws IOException {
+        long size = channel.size();
+        long first = indexOf(channel, OPEN_TAG, Math.max(0, from), size);
+        if (first < 0) {
+            return Collections.emptyList();
+        }
+        long last = lastIndexOf(channel, CLOSE_TAG, first, size);
+        if (last < 0) {
+            return Collections.emptyList();
+        }
+        long end = last + CLOSE_TAG.length;
+
+        List<Long> starts = new ArrayList<>();
+        starts.add(first);
+        for (int i = 1; i < parts; i++) {
+            long approximate = first + (end - first) * i / parts;
+            if (approximate <= starts.get(starts.size() - 1)) {
+                continue;
+            }
+            long start = indexOf(channel, OPEN_TAG, approximate, end);
+            if (start < 0) {
+                break;
+            }
+            if (start > starts.get(starts.size() - 1)) {
+                starts.add(start);
+            }
+        }
+
+        List<Chunk> chunks = new ArrayList<>(starts.size());
+        for (int i = 0; i < starts.size(); i++) {
+            chunks.add(new Chunk(starts.get(i), i + 1 < starts.size() ? starts.get(i + 1) : end));
+        }
+        return chunks;
+    }
+
+    /**
+     * Подсчитывает количество открывающих тегов <transaction> в диапазоне
+     * @param channel канал открытого для чтения файла
+     * @param chunk диапазон
+     * @return количество транзакций в диапазоне
+     * @throws IOException при ошибке чтения файла
+     */
+    public static int count(FileChannel channel, Chunk chunk) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        byte[] array = buffer.array();
+        int count = 0;
+        long position = chunk.start;
+        while (position < chunk.end) {
+            int read = readFully(channel, buffer, position, (int) Math.min(BLOCK_SIZE, chunk.end - position));
+            if (read <= 0) {
+                break;
+            }
+            for (int i = indexOf(array, 0, read, OPEN_TAG); i >= 0; i = indexOf(array, i + OPEN_TAG.length, read, OPEN_TAG)) {
+                count++;
+            }
+            if (position + read >= chunk.end) {
+                break;
+            }
+            position += Math.max(1, read - OPEN_TAG.length + 1);
+        }
+        return count;
+    }
+
+    /**
+     * Открывает поток чтения диапазона обернутого в синтетический корневой тег
+     * @param channel канал открытого для чтения файла
+     * @param chunk диапазон
+     * @return поток чтения самостоятельного XML-документа
+     */
+    public static InputStream open(FileChannel channel, Chunk chunk) {
+        return open(channel, chunk, false);
+    }
+
+    /**
+     * Открывает поток чтения диапазона обернутого в синтетический корневой тег
+     * @param channel канал открытого для чтения файла
+     * @param chunk диапазон
+     * @param mapped {@code true} читать диапазон через отображение файла в память (MappedInputStream)
+     *               {@code false} позиционным чтением канала (ChunkInputStream)
+     * @return поток чтения самостоятельного XML-документа
+     */
+    public static InputStream open(FileChannel channel, Chunk chunk, boolean mapped) {
+        return wrap(mapped ? new MappedInputStream(channel, chunk.start, chunk.end)
+                : new ChunkInputStream(channel, chunk.start, chunk.end));
+    }
+
+    /**
+     * Переводит позицию в потоке, открытом методом open, в позицию в файле
+     * @param chunk диапазон
+     * @param position позиция в потоке чтения диапазона обернутого в синтетический корневой тег
+     * @return позиция в файле
+     */
+    public static long fileOffset(Chunk chunk, long position) {
+        return chunk.start + position - CHUNK_OPEN.length;
+    }
+
+    /**
+     * Оборачивает поток чтения диапазона в синтетический корневой тег
+     * @param range поток чтения диапазона
+     * @return поток чтения самостоятельного XML-документа
+     */
+    public static InputStream wrap(InputStream range) {
+        return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream(CHUNK_OPEN), range, new ByteArrayInputStream(CHUNK_CLOSE))));
+    }
+
+    /**
+     * Возвращает позицию первого вхождения последовательности байт в диапазоне файла [from, to)
+     * @return позиция в файле или -1, если последовательность не найдена
+     */
+    static long indexOf(FileChannel channel, byte[] pattern, long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        long position = from;
+        while (position < to) {
+            int read = readFully(channel, buffer, position, (int) Math.min(BLOCK_SIZE, to - position));
+            if (read <= 0) {
+                break;
+            }
+            int index = indexOf(buffer.array(), 0, read, pattern);
+            if (index >= 0) {
+                return position + index;
+            }
+            if (position + read >= to) {
+                break;
+            }
+            position += Math.max(1, read - pattern.length + 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Возвращает позицию последнего вхождения последовательности байт в диапазоне файла [from, to)
+     * @return позиция в файле или -1, если последовательность не найдена
+     */
+    static long lastIndexOf(FileChannel channel, byte[] pattern, long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        long blockEnd = to;
+        while (blockEnd > from) {
+            long blockStart = Math.max(from, blockEnd - BLOCK_SIZE);
+            int read = readFully(channel, buffer, blockStart, (int) (blockEnd - blockStart));
+            int index = lastIndexOf(buffer.array(), read, pattern);
+            if (index >= 0) {
+                return blockStart + index;
+            }
+            if (blockStart == from) {
+                break;
+            }
+            blockEnd = blockStart + pattern.length - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Читает из канала не более length байт начиная с позиции position
+     * @return количество прочитанных байт
+     */
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+
+    private static int indexOf(byte[] array, int from, int to, byte[] pattern) {
+        outer:
+        for (int i = from; i <= to - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (array[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] array, int to, byte[] pattern) {
+        outer:
+        for (int i = to - pattern.length; i >= 0; i--) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (array[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -3,6 +3,7 @@ package com.dnsabr.vad.ukrsib;
 import com.dnsabr.vad.ukrsib.models.*;
 import com.dnsabr.vad.ukrsib.repository.*;
 import com.dnsabr.vad.ukrsib.services.*;
+import com.dnsabr.vad.ukrsib.utils.TransKeyGenerator;
 import org.hibernate.Session;
 import org.junit.After;
 import org.junit.Before;
@@ -29,6 +30,7 @@ import javax.persistence.PersistenceContext;
 import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -59,6 +61,8 @@ public class LongTests {
     @Autowired
     TransService transService;
     @Autowired
+    private MainService mainService;
+    private LoadJob job;
     private StoreService store;
     @Autowired
     private TransRepository transRepository;
@@ -72,6 +76,10 @@ public class LongTests {
     private JdbcTemplate jdbcTemplate;
     @Autowired
     private CacheManager cacheManager;
+    @Autowired
+    private DimensionService dimensions;
+    @Autowired
+    private BatchSizeService batches;
 
     private final Map<Long,Trans> transactionsExpected = new HashMap<>();
     private final Map<String,Client> clientsExpected = new HashMap<>();
@@ -83,16 +91,18 @@ public class LongTests {
      */
     @Before
     public void setUp() {
+        job = mainService.newJob();
+        store = job.getStore();
         queryService.dropTriggers();
         jdbcTemplate.execute("DELETE FROM transactions WHERE id>0;");
         jdbcTemplate.execute("DELETE FROM clients WHERE inn>0;");
         jdbcTemplate.execute("DELETE FROM places WHERE id>0;");
         jdbcTemplate.execute("commit;");
-        ReflectionTestUtils.invokeMethod(StoreService.class,"doTerminate");
-        ReflectionTestUtils.setField(StoreService.class, "parserDone", false);
-        ReflectionTestUtils.setField(StoreService.class, "terminated", false);
-        ReflectionTestUtils.setField(StoreService.class, "countErrorsBeforeShutdown", new AtomicInteger(0));
-        ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).clear();
+        ReflectionTestUtils.invokeMethod(store,"doTerminate");
+        ReflectionTestUtils.setField(store, "parserDone", false);
+        ReflectionTestUtils.setField(store, "terminated", false);
+        ReflectionTestUtils.setField(store, "countErrorsBeforeShutdown", new AtomicInteger(0));
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
 
         try {
             TimeUnit.SECONDS.sleep(5);
@@ -105,11 +115,11 @@ public class LongTests {
      */
     @After
     public void tearDown() {
-        ReflectionTestUtils.invokeMethod(StoreService.class,"doTerminate");
-        ReflectionTestUtils.setField(StoreService.class, "parserDone", false);
-        ReflectionTestUtils.setField(StoreService.class, "terminated", false);
-        ReflectionTestUtils.setField(StoreService.class, "countErrorsBeforeShutdown", new AtomicInteger(0));
-        ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).clear();
+        ReflectionTestUtils.invokeMethod(store,"doTerminate");
+        ReflectionTestUtils.setField(store, "parserDone", false);
+        ReflectionTestUtils.setField(store, "terminated", false);
+        ReflectionTestUtils.setField(store, "countErrorsBeforeShutdown", new AtomicInteger(0));
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
     }
 
     /**
@@ -142,10 +152,10 @@ public class LongTests {
 
         // Запуск сервисов добавления данных в БД
         ExecutorService executor = Executors.newFixedThreadPool(threadsAvailable);
-        executor.execute(saveService);
+        executor.execute(() -> saveService.save(job, null));
         for (int i=2;i<threadsAvailable;i++) {
             if (!store.isParserDone()) {
-                executor.execute(saveService);
+                executor.execute(() -> saveService.save(job, null));
             }
         }
         executor.shutdown();
@@ -239,18 +249,100 @@ public class LongTests {
         logger.info("Время работы теста " + (int)watch.getTotalTimeSeconds() + " сек.");
     }
 
+    /**
+     * Бенчмарк упорядоченной выдачи пакетов хранилищем (spring.jpa.properties.app.sql.ordered)
+     * Загружает одни и те же сгенерированные транзакции (генератор с постоянным начальным значением) без упорядочения
+     * и с упорядочением пакетов по первичному ключу и выводит в журнал скорость загрузки и заполнение страниц
+     * кластерного индекса таблицы transactions (байт данных на транзакцию по information_schema.tables после
+     * ANALYZE TABLE), а затем среднюю скорость каждого способа.
+     * Перед каждой загрузкой очищаются таблицы transactions, clients и places, кэш 2-го уровня, словари
+     * DimensionService и подобранный размер пакета BatchSizeService, чтобы загрузки начинались в одинаковых условиях.
+     * Способы чередуются в порядке ABBA, чтобы прогрев БД и JVM не давал преимущества способу, загружаемому вторым.
+     * После теста восстанавливается исходный способ выдачи пакетов
+     *
+     * Если запустить тест, то при обоих способах все сгенерированные транзакции будут добавлены в БД
+     */
+    @Test
+    public void orderedBatchesBenchmarkLongTest() {
+        Logger logger = LoggerFactory.getLogger(this.getClass());
+        boolean orderedBefore = (boolean) ReflectionTestUtils.getField(store, "ordered");
+        Map<Boolean, Double> rates = new HashMap<>();
+        boolean[] runs = {false, true, true, false};
+        try {
+            for (boolean ordered : runs) {
+                queryService.dropTriggers();
+                jdbcTemplate.execute("TRUNCATE TABLE transactions;");
+                jdbcTemplate.execute("DELETE FROM clients WHERE inn>0;");
+                jdbcTemplate.execute("DELETE FROM places WHERE id>0;");
+                jdbcTemplate.execute("commit;");
+                cacheManager.getCacheNames().forEach(cache->cacheManager.getCache(cache).clear());
+                dimensions.warmUp();
+                ((AtomicInteger) ReflectionTestUtils.getField(batches, "size")).set(0);
+                ReflectionTestUtils.setField(batches, "rowsPerSecond", 0.0);
+                ReflectionTestUtils.setField(store, "parserDone", false);
+                ReflectionTestUtils.setField(store, "terminated", false);
+                ReflectionTestUtils.setField(store, "countErrorsBeforeShutdown", new AtomicInteger(0));
+                ReflectionTestUtils.setField(store, "ordered", ordered);
+                ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
+                transactionsExpected.clear();
+                clientsExpected.clear();
+                placesExpected.clear();
+
+                int threadsAvailable = Math.max(2,Math.min(amountOfThreads+1,Runtime.getRuntime().availableProcessors()));
+                ExecutorService executor = Executors.newFixedThreadPool(threadsAvailable);
+                for (int i=1;i<threadsAvailable;i++) {
+                    executor.execute(() -> saveService.save(job, null));
+                }
+                executor.shutdown();
+
+                StopWatch watch = new StopWatch();
+                watch.start();
+                addToStore(new Random(amountOfTransactionsExpected));
+                try {
+                    executor.awaitTermination(1, TimeUnit.HOURS);
+                } catch (InterruptedException e) {/*пустое*/}
+                watch.stop();
+
+                long amountOfTransactionsActual = jdbcTemplate.queryForObject("select count(*) from transactions;", Long.class);
+                Assert.isTrue(amountOfTransactionsActual==amountOfTransactionsExpected
+                        ,"Количество транзакций не совпадает\nожидаемое:" +amountOfTransactionsExpected+
+                                "\nактуальное :"+amountOfTransactionsActual);
+                jdbcTemplate.execute("ANALYZE TABLE transactions;");
+                Long dataLength = jdbcTemplate.queryForObject("select data_length from information_schema.tables " +
+                        "where table_schema = database() and table_name = 'transactions';", Long.class);
+                double rate = amountOfTransactionsExpected / watch.getTotalTimeSeconds();
+                rates.merge(ordered, rate / 2, Double::sum);
+                logger.info("Упорядочение пакетов " + ordered + ": " + (int) rate
+                        + " транзакций/сек., страниц данных " + (null == dataLength ? 0 : dataLength / 16384)
+                        + ", байт на транзакцию " + (null == dataLength ? 0 : dataLength / amountOfTransactionsExpected));
+            }
+        } finally {
+            ReflectionTestUtils.setField(store, "ordered", orderedBefore);
+        }
+        logger.info("Средняя скорость загрузки без упорядочения пакетов " + rates.get(false).intValue()
+                + " транзакций/сек., с упорядочением " + rates.get(true).intValue() + " транзакций/сек.");
+    }
+
     /**
      * Генерирует и добавляет транзакции в хранилище. Имитирует работу ParseService
      */
     private void addToStore() {
+        addToStore(new Random());
+    }
+
+    /**
+     * Генерирует и добавляет транзакции в хранилище. Имитирует работу ParseService
+     * @param random генератор значений. С одним и тем же начальным значением генерируются одни и те же транзакции
+     */
+    private void addToStore(Random random) {
         for (int serial=1;serial<=amountOfTransactionsExpected;serial++) {
-            String inn = (1+(int)(Math.random()*amountOfClientsExpected)+"0000000000").substring(0,10);
+            String inn = (1+random.nextInt(amountOfClientsExpected)+"0000000000").substring(0,10);
             Client client = Client.newClient("Ivan","Ivanoff","Ivanoff",inn).orElse(null);
             clientsExpected.put(inn,client);
-            String placeName = "A PLACE "+(int)(Math.random()*amountOfPlacesExpected);
+            String placeName = "A PLACE "+random.nextInt(amountOfPlacesExpected);
             Place place = Place.newPlace(placeName).orElse(null);
             placesExpected.put(placeName,place);
-            Trans transaction = Trans.newTrans(new BigDecimal((1+(int)(Math.random()*1000000))),"UAH","123456****1234",client,place,serial).orElse(null);
+            Trans transaction = Trans.newTrans(new BigDecimal(1+random.nextInt(1000000)),"UAH","123456****1234",client,place,serial).orElse(null);
             transactionsExpected.put(transaction.getId(),transaction);
             store.add(transaction);
         }
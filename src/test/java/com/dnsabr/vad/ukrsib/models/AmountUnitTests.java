@@ -0,0 +1,105 @@
+package com.dnsabr.vad.ukrsib.models;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import java.math.BigDecimal;
+
+/**
+ * Unit-тесты Amount и AmountConverter
+ */
+@RunWith(JUnit4.class)
+public class AmountUnitTests {
+
+    private static final String[] AMOUNTS = {"110.75", "10.01", "0.29", "1", "1.5", "-3.07", "+42.10", "0.000001",
+            "999999999999999999", "123456789012345678901234.56", "1E+3", "92233720368547758.07"};
+
+    /**
+     * Тест разбора записи суммы
+     * Когда сумма разобрана, ее значение, масштаб и double совпадают с new BigDecimal(запись)
+     */
+    @Test
+    public void parseTest() {
+        for (String text : AMOUNTS) {
+            BigDecimal expected = new BigDecimal(text);
+            Amount amount = Amount.parse(text);
+            Assert.assertEquals("Неверное значение суммы " + text, expected, amount.toBigDecimal());
+            Assert.assertEquals("Неверный double суммы " + text, expected.doubleValue(), amount.doubleValue(), 0);
+            Assert.assertEquals("Неверная проверка суммы " + text, expected.signum() > 0, amount.isPositive());
+            Assert.assertEquals("Неверная запись суммы " + text, expected.toPlainString(), amount.toString());
+        }
+    }
+
+    /**
+     * Тест разбора записи суммы в BigDecimal (режим decimal)
+     * Когда сумма разобрана в BigDecimal, она эквивалентна сумме, разобранной по цифрам, и дает тот же double
+     */
+    @Test
+    public void decimalTest() {
+        for (String text : AMOUNTS) {
+            Amount amount = Amount.decimal(text);
+            Assert.assertEquals("Неверное значение суммы " + text, new BigDecimal(text), amount.toBigDecimal());
+            Assert.assertEquals("Суммы режимов не эквивалентны " + text, Amount.parse(text), amount);
+            Assert.assertEquals("Разные hash-коды сумм режимов " + text, Amount.parse(text).hashCode(), amount.hashCode());
+            Assert.assertEquals("Неверный double суммы " + text, Amount.parse(text).doubleValue(), amount.doubleValue(), 0);
+        }
+        try {
+            Amount.decimal(null);
+            Assert.fail("Пустая сумма разобрана");
+        } catch (NumberFormatException e) {/*пустое*/}
+    }
+
+    /**
+     * Тест double суммы для вычисления ключа транзакции
+     * Когда суммы имеют 2 знака после точки, (int)(doubleValue()*100) совпадает с вычислением через BigDecimal
+     */
+    @Test
+    public void doubleValueTest() {
+        for (int cents = 0; cents < 100000; cents++) {
+            String text = cents / 100 + "." + (cents % 100 < 10 ? "0" : "") + cents % 100;
+            Assert.assertEquals("Неверный ключ суммы " + text, (int) (new BigDecimal(text).doubleValue() * 100),
+                    (int) (Amount.parse(text).doubleValue() * 100));
+        }
+    }
+
+    /**
+     * Тест эквивалентности и hash-кода
+     * Когда суммы численно равны, они эквивалентны и имеют одинаковый hash-код независимо от масштаба
+     */
+    @Test
+    public void equalsTest() {
+        Assert.assertEquals("Равные суммы не эквивалентны", Amount.parse("1.50"), Amount.parse("1.5"));
+        Assert.assertEquals("Разные hash-коды равных сумм", Amount.parse("1.50").hashCode(), Amount.parse("1.5").hashCode());
+        Assert.assertEquals("Равные суммы не эквивалентны", Amount.parse("1000"), Amount.parse("1E+3"));
+        Assert.assertNotEquals("Разные суммы эквивалентны", Amount.parse("1.51"), Amount.parse("1.5"));
+    }
+
+    /**
+     * Тест недопустимой записи суммы
+     * Когда запись недопустима для new BigDecimal, выбрасывается NumberFormatException
+     */
+    @Test
+    public void parseInvalidTest() {
+        for (String text : new String[]{null, "", "-", ".", "1.2.3", "12a", "1,5"}) {
+            try {
+                Amount.parse(text);
+                Assert.fail("Недопустимая сумма разобрана: " + text);
+            } catch (NumberFormatException e) {/*пустое*/}
+        }
+    }
+
+    /**
+     * Тест преобразования суммы для записи в БД
+     */
+    @Test
+    public void converterTest() {
+        AmountConverter converter = new AmountConverter();
+        Assert.assertEquals("Неверное значение для БД", new BigDecimal("110.75"),
+                converter.convertToDatabaseColumn(Amount.parse("110.75")));
+        Assert.assertEquals("Неверное значение из БД", Amount.parse("110.75"),
+                converter.convertToEntityAttribute(new BigDecimal("110.75")));
+        Assert.assertNull("Неверное значение null", converter.convertToDatabaseColumn(null));
+        Assert.assertNull("Неверное значение null", converter.convertToEntityAttribute(null));
+    }
+}
@@ -0,0 +1,63 @@
+package com.dnsabr.vad.ukrsib.models;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit-тесты Card и CardConverter
+ */
+@RunWith(JUnit4.class)
+public class CardUnitTests {
+
+    /**
+     * Тест номера карты вида "123456****1234"
+     * Когда номер упакован в число, строка номера восстанавливается с ведущими нулями, а hash-код совпадает
+     * с hash-кодом строки номера
+     */
+    @Test
+    public void packedCardTest() {
+        for (String number : new String[]{"123456****1234", "000001****0009", "999999****9999"}) {
+            Card card = Card.valueOf(number);
+            Assert.assertEquals("Строка номера восстановлена неверно", number, card.toString());
+            Assert.assertEquals("Hash-код не совпадает с hash-кодом строки", number.hashCode(), card.hashCode());
+            Assert.assertEquals("Номера не эквивалентны", Card.valueOf(number), card);
+            Assert.assertSame("Строка номера создана повторно", card.toString(), card.toString());
+            Assert.assertTrue("Не принят номер " + number, Card.isValid(number));
+            Assert.assertEquals("Номер разобран неверно", card, Card.parse(number));
+        }
+        Assert.assertNotEquals("Разные номера эквивалентны", Card.valueOf("123456****1234"), Card.valueOf("123456****1235"));
+    }
+
+    /**
+     * Тест номера карты другого вида
+     * Когда номер не вида "123456****1234", он не допустим для новой транзакции, а прочитанный из БД хранится строкой
+     * без изменений
+     */
+    @Test
+    public void rawCardTest() {
+        for (String number : new String[]{"1234", "123456****123", "1234567***1234", "12345a****1234"}) {
+            Card card = Card.valueOf(number);
+            Assert.assertEquals("Строка номера изменена", number, card.toString());
+            Assert.assertEquals("Hash-код не совпадает с hash-кодом строки", number.hashCode(), card.hashCode());
+            Assert.assertFalse("Принят номер " + number, Card.isValid(number));
+            Assert.assertNull("Разобран номер " + number, Card.parse(number));
+        }
+        Assert.assertFalse("Принят пустой номер", Card.isValid(" "));
+        Assert.assertFalse("Принят номер null", Card.isValid(null));
+    }
+
+    /**
+     * Тест преобразования номера карты для столбца БД
+     */
+    @Test
+    public void converterTest() {
+        CardConverter converter = new CardConverter();
+        Assert.assertEquals("Неверная строка для БД", "123456****1234"
+                , converter.convertToDatabaseColumn(Card.valueOf("123456****1234")));
+        Assert.assertEquals("Неверный номер из БД", Card.valueOf("123456****1234")
+                , converter.convertToEntityAttribute("123456****1234"));
+        Assert.assertNull("Неверное преобразование null", converter.convertToEntityAttribute(null));
+    }
+}
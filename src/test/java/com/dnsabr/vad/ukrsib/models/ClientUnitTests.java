@@ -76,12 +76,13 @@ public class ClientUnitTests {
     /**
      * Тест геттера для inn
      * Когда запрашиваем inn клиента, получаем правильный inn клиента
+     * Когда запрашиваем inn клиента повторно, получаем ту же строку без создания новой
      */
     @Test
     public void getInnTest() {
         Client client = Client.newClient("Ivan","Ivanoff","Ivanoff","0123456789").orElse(null);
         Assert.assertEquals("Метод Client.getInn вернул неправильный ИНН клиента","0123456789",client.getInn());
-
+        Assert.assertSame("Метод Client.getInn создал строку ИНН повторно",client.getInn(),client.getInn());
     }
 
     /**
@@ -91,6 +92,7 @@ public class ClientUnitTests {
     @Test
     public void setInnTest() {
         Client client = Client.newClient("Ivan","Ivanoff","Ivanoff","0123456789").orElse(null);
+        client.getInn();
         client.setInn("1111111111");
         Assert.assertEquals("Метод Client.setInn не изменил ИНН клиента","1111111111",client.getInn());
     }
@@ -241,14 +243,14 @@ public class ClientUnitTests {
 
     /**
      * Тест метода toString
-     * Результат метода должен содержать все поля объекта, кроме serialVersionUID
+     * Результат метода должен содержать все поля объекта, кроме serialVersionUID и innText (строка поля inn)
      */
     @Test
     public void toStringTest() {
         String tostring = Client.newClient("Ivan","Ivanoff","Ivanoff","0123456789").orElse(null).toString();
         Field[] fields = Client.class.getDeclaredFields();
         for (Field field : fields) {
-            if (!"serialVersionUID".equals(field.getName())) {
+            if (!"serialVersionUID".equals(field.getName()) && !"innText".equals(field.getName())) {
                 Assert.assertTrue("Метод Client.toString не содержит поле " + field.getName()
                         , tostring.contains(field.getName()));
             }
@@ -276,12 +278,12 @@ public class ClientUnitTests {
         hashActual = client.hashCode();
         Assert.assertEquals("Значение hash не совпадает с ожидаемым",hashActual,hashExpected);
 
-        ReflectionTestUtils.setField(client,"inn","0000000000");
+        ReflectionTestUtils.setField(client,"inn",0L);
         hashExpected = 1419845120;
         hashActual = client.hashCode();
         Assert.assertEquals("Значение hash не совпадает с ожидаемым",hashActual,hashExpected);
 
-        ReflectionTestUtils.setField(client,"inn",null);
+        ReflectionTestUtils.setField(client,"inn",-1L);
         hashExpected = 0;
         hashActual = client.hashCode();
         Assert.assertEquals("Значение hash не совпадает с ожидаемым",hashActual,hashExpected);
@@ -341,4 +343,22 @@ public class ClientUnitTests {
         Assert.assertThrows("Метод Client.clone клонировал объект, хотя должен был бросить исключение"
                 , CloneNotSupportedException.class,()->client.clone());
     }
+
+    /**
+     * Тест проверки и преобразования ИНН в число
+     * Если ИНН 10 цифр и не все цифры 0, возвращается число, иначе -1. Строка ИНН восстанавливается с ведущими нулями,
+     * а hash-код клиента совпадает с hash-кодом строки ИНН
+     */
+    @Test
+    public void parseInnTest() {
+        Assert.assertEquals("Неверный ИНН числом",123456789L,Client.parseInn("0123456789"));
+        Assert.assertEquals("Принят ИНН не из 10 цифр",-1L,Client.parseInn("012345678"));
+        Assert.assertEquals("Принят ИНН с другими символами",-1L,Client.parseInn("01234567a9"));
+        Assert.assertEquals("Принят ИНН из нулей",-1L,Client.parseInn("0000000000"));
+        Assert.assertEquals("Принят ИНН null",-1L,Client.parseInn(null));
+
+        Client client = Client.newClient("Ivan","Ivanoff","Ivanoff","0000000019").orElse(null);
+        Assert.assertEquals("Строка ИНН восстановлена неверно","0000000019",client.getInn());
+        Assert.assertEquals("Hash-код не совпадает с hash-кодом строки ИНН","0000000019".hashCode(),client.hashCode());
+    }
 }
\ No newline at end of file
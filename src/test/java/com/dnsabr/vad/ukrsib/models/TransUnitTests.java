@@ -1,5 +1,6 @@
 package com.dnsabr.vad.ukrsib.models;
 
+import com.dnsabr.vad.ukrsib.utils.TransKeyGenerator;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -9,7 +10,6 @@ import org.junit.runners.JUnit4;
 import org.springframework.test.util.ReflectionTestUtils;
 import java.lang.reflect.Field;
 import java.math.BigDecimal;
-import java.util.Map;
 
 /**
  * Unit-тесты Trans
@@ -78,16 +78,18 @@ public class TransUnitTests {
     }
 
     /**
-     * Тест сохранения данных о транзакции в Map<id,serial>
-     * Если создан новый объект класса Trans, то его id и serial содержатся в Trans.transactions
+     * Тест стабильности ключей без хранения
+     * Когда повторно создается транзакция с тем же порядковым номером и значениями полей, ее id совпадает с прежним,
+     * а генератор ключей не хранит прямые ключи
      */
     @Test
-    public void transactionsListContainsTest() {
+    public void keysAreStableAndNotStoredTest() {
+        TransKeyGenerator keys = (TransKeyGenerator)ReflectionTestUtils.getField(Trans.class,"keys");
+        int storedBefore = keys.size();
         Trans transaction = Trans.newTrans(new BigDecimal("1"),"UAH","123456****1234",client,place,15).orElse(null);
-        Map<Long,Integer> transactions = (Map<Long,Integer>)ReflectionTestUtils.getField(Trans.class,"transactions");
-        Assert.assertTrue("Метод Trans.newTrans не сохранил id в Map для последующего сравнения", transactions.containsKey(transaction.getId()));
-        Assert.assertTrue("Метод Trans.newTrans не сохранил serial в Map для последующего сравнения", 15==transactions.get(transaction.getId()));
-
+        Trans repeated = Trans.newTrans(new BigDecimal("1"),"UAH","123456****1234",client,place,15).orElse(null);
+        Assert.assertEquals("Метод Trans.newTrans вернул другой id для тех же порядкового номера и значений", transaction.getId(), repeated.getId());
+        Assert.assertEquals("Генератор ключей сохранил прямой ключ", storedBefore, keys.size());
     }
 
     /**
@@ -215,6 +217,10 @@ public class TransUnitTests {
         transaction.setCard(" ");
         Assert.assertEquals("Метод Trans.setCard установил недопустимую карту транзакции - пустое значение"
                 ,"123456****1234",transaction.getCard());
+
+        transaction.setCard("1234567***1234");
+        Assert.assertEquals("Метод Trans.setCard установил недопустимую карту транзакции - номер другого вида"
+                ,"123456****1234",transaction.getCard());
     }
 
     /**
@@ -290,14 +296,15 @@ public class TransUnitTests {
 
     /**
      * Тест метода toString
-     * Результат метода должен содержать все поля объекта, кроме serialVersionUID и transactions
+     * Результат метода должен содержать все поля объекта, кроме serialVersionUID, transactions и innText
+     * (строка поля inn)
      */
     @Test
     public void toStringTest() {
         String tostring = Client.newClient("Ivan","Ivanoff","Ivanoff","0123456789").orElse(null).toString();
         Field[] fields = Client.class.getDeclaredFields();
         for (Field field : fields) {
-            if (!"serialVersionUID".equals(field.getName())) {
+            if (!"serialVersionUID".equals(field.getName()) && !"innText".equals(field.getName())) {
                 Assert.assertTrue("Метод Trans.toString не содержит поле " + field.getName()
                         , tostring.contains(field.getName()));
             }
@@ -0,0 +1,67 @@
+package com.dnsabr.vad.ukrsib.services;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.Assert;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit-тесты BatchSizeService
+ */
+@RunWith(JUnit4.class)
+public class BatchSizeServiceUnitTests {
+
+    private final BatchSizeService batches = new BatchSizeService();
+
+    /**
+     * Метод для выполнения действий перед каждым тестом класса
+     * Начальный размер пакета 100, границы [10, 200], допустимая длительность записи 100 мс
+     */
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(batches, "initialSize", 100);
+        ReflectionTestUtils.setField(batches, "minSize", 10);
+        ReflectionTestUtils.setField(batches, "maxSize", 200);
+        ReflectionTestUtils.setField(batches, "maxLatency", 100L);
+    }
+
+    /**
+     * Тест аддитивного увеличения размера пакета
+     * Когда полные пакеты записываются быстро, размер пакета увеличивается на четверть начального, но не более maxSize.
+     * Когда пакет неполный, размер не изменяется
+     */
+    @Test
+    public void additiveIncreaseTest() {
+        Assert.isTrue(100 == batches.getBatchSize(), "Неверный начальный размер пакета");
+        batches.committed(100, TimeUnit.MILLISECONDS.toNanos(10));
+        Assert.isTrue(125 == batches.getBatchSize(), "Размер пакета не увеличен: " + batches.getBatchSize());
+        batches.committed(50, TimeUnit.MILLISECONDS.toNanos(5));
+        Assert.isTrue(125 == batches.getBatchSize(), "Размер пакета изменен после неполного пакета");
+        for (int i = 0; i < 10; i++) {
+            int size = batches.getBatchSize();
+            batches.committed(size, TimeUnit.MILLISECONDS.toNanos(size / 10));
+        }
+        Assert.isTrue(200 == batches.getBatchSize(), "Размер пакета превысил границу: " + batches.getBatchSize());
+        Assert.isTrue(batches.getRowsPerSecond() > 9000, "Неверная скорость записи: " + batches.getRowsPerSecond());
+    }
+
+    /**
+     * Тест мультипликативного уменьшения размера пакета
+     * Когда пакет записывается медленно или запись не удалась, размер пакета уменьшается в 2 раза, но не менее minSize.
+     * Когда скорость записи полного пакета упала, размер не увеличивается
+     */
+    @Test
+    public void multiplicativeDecreaseTest() {
+        batches.committed(100, TimeUnit.MILLISECONDS.toNanos(200));
+        Assert.isTrue(50 == batches.getBatchSize(), "Размер пакета не уменьшен при медленной записи");
+        batches.failed();
+        batches.failed();
+        batches.failed();
+        Assert.isTrue(10 == batches.getBatchSize(), "Размер пакета меньше границы: " + batches.getBatchSize());
+        batches.committed(10, TimeUnit.MILLISECONDS.toNanos(90));
+        Assert.isTrue(10 == batches.getBatchSize(), "Размер пакета увеличен при снижении скорости записи");
+    }
+}
@@ -0,0 +1,88 @@
+package com.dnsabr.vad.ukrsib.services;
+
+import com.dnsabr.vad.ukrsib.models.Trans;
+import com.dnsabr.vad.ukrsib.utils.Utils;
+import com.dnsabr.vad.ukrsib.utils.TransKeyGenerator;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.Assert;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit-тесты CheckpointService
+ */
+@RunWith(JUnit4.class)
+public class CheckpointServiceUnitTests {
+
+    private final CheckpointService checkpoints = new CheckpointService();
+    private final List<Trans> transactions = new ArrayList<>();
+
+    /**
+     * Метод для выполнения действий перед каждым тестом класса
+     * Транзакции тестового файла получают позиции в файле равные 100 * порядковый номер
+     */
+    @Before
+    public void setUp() {
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
+        ReflectionTestUtils.setField(checkpoints, "active", true);
+        transactions.clear();
+        Utils.fillLists(transactions, 24);
+        for (Trans transaction : transactions) {
+            transaction.setOffset(100L * transaction.getSerial());
+        }
+    }
+
+    /**
+     * Тест продвижения контрольной точки
+     * Когда пакеты транзакций добавляются в БД в произвольном порядке, контрольная точка указывает на наибольший
+     * порядковый номер, до которого включительно добавлены все транзакции, и позицию в файле после этой транзакции
+     */
+    @Test
+    public void committedOutOfOrderTest() {
+        checkpoints.committed(transactions.subList(8, 12));
+        check(0, -1);
+
+        checkpoints.committed(Arrays.asList(transactions.get(3), transactions.get(1), transactions.get(2)));
+        check(0, -1);
+
+        checkpoints.committed(transactions.subList(4, 8));
+        check(0, -1);
+
+        checkpoints.committed(transactions.subList(0, 1));
+        check(12, 1200);
+
+        // Повторно добавленные транзакции не изменяют контрольную точку
+        checkpoints.committed(transactions.subList(0, 12));
+        check(12, 1200);
+
+        // Пакет с пропуском продвигает контрольную точку только до пропуска
+        checkpoints.committed(Arrays.asList(transactions.get(12), transactions.get(13), transactions.get(15)));
+        check(14, 1400);
+
+        // Отклоненная транзакция закрывает пропуск
+        ReflectionTestUtils.invokeMethod(checkpoints, "done", 15, 1500L);
+        check(16, 1600);
+    }
+
+    /**
+     * Тест неактивного сервиса
+     * Когда контрольные точки не используются, контрольная точка не продвигается
+     */
+    @Test
+    public void inactiveTest() {
+        ReflectionTestUtils.setField(checkpoints, "active", false);
+        checkpoints.committed(transactions);
+        check(0, -1);
+    }
+
+    private void check(int serialExpected, long offsetExpected) {
+        Assert.isTrue(checkpoints.getSerial() == serialExpected && checkpoints.getOffset() == offsetExpected
+                ,"Контрольная точка определена неверно\nожидаемая: " + serialExpected + " / " + offsetExpected
+                        + "\nактуальная:" + checkpoints.getSerial() + " / " + checkpoints.getOffset());
+    }
+}
@@ -0,0 +1,120 @@
+package com.dnsabr.vad.ukrsib.services;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.Assert;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit-тесты CircuitBreakerService
+ */
+@RunWith(JUnit4.class)
+public class CircuitBreakerServiceUnitTests {
+
+    private final CircuitBreakerService breaker = new CircuitBreakerService();
+    private final StoreService store = Mockito.mock(StoreService.class);
+
+    /**
+     * Метод для выполнения действий перед каждым тестом класса
+     */
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(breaker, "threshold", 2);
+        ReflectionTestUtils.setField(breaker, "openMillis", 50L);
+    }
+
+    /**
+     * Тест размыкания выключателя
+     * Когда ошибки недоступности БД следуют подряд, выключатель размыкается после threshold ошибок. Удачная запись
+     * сбрасывает счетчик последовательных ошибок, а прочие ошибки его не изменяют
+     */
+    @Test
+    public void opensAfterConsecutiveFailuresTest() {
+        Assert.isTrue(!breaker.failed(RetryPolicyService.Failure.TRANSIENT), "Выключатель разомкнут после 1 ошибки");
+        breaker.succeeded();
+        Assert.isTrue(!breaker.failed(RetryPolicyService.Failure.CONNECTION), "Счетчик ошибок не сброшен");
+        Assert.isTrue(!breaker.failed(RetryPolicyService.Failure.CONSTRAINT), "Нарушение ограничения разомкнуло выключатель");
+        Assert.isTrue(breaker.failed(RetryPolicyService.Failure.CONNECTION), "Выключатель не разомкнут");
+        Assert.isTrue(CircuitBreakerService.State.OPEN == breaker.getState() && 1 == breaker.getOpened()
+                , "Неверное состояние выключателя");
+    }
+
+    /**
+     * Тест пробной записи
+     * Когда выключатель разомкнут, пробную запись получает только один поток, остальные ожидают замыкания
+     * выключателя после удачной пробы
+     */
+    @Test
+    public void singleProbeThenResumeTest() throws InterruptedException {
+        breaker.failed(RetryPolicyService.Failure.CONNECTION);
+        breaker.failed(RetryPolicyService.Failure.CONNECTION);
+        long started = System.currentTimeMillis();
+        breaker.acquire(store);
+        Assert.isTrue(System.currentTimeMillis() - started >= 50, "Пробная запись разрешена до истечения времени");
+        Assert.isTrue(CircuitBreakerService.State.HALF_OPEN == breaker.getState(), "Нет пробной записи");
+
+        CountDownLatch resumed = new CountDownLatch(1);
+        Thread other = new Thread(() -> {
+            breaker.acquire(store);
+            resumed.countDown();
+        });
+        other.start();
+        Assert.isTrue(!resumed.await(100, TimeUnit.MILLISECONDS), "Второй поток допущен во время пробы");
+        breaker.succeeded();
+        Assert.isTrue(resumed.await(1, TimeUnit.SECONDS) && breaker.isClosed(), "Запись не возобновлена после пробы");
+    }
+
+    /**
+     * Тест ошибок данных при разомкнутом выключателе
+     * Когда запись не удалась из-за ошибки данных (нарушение ограничений и прочие), выключатель не замыкается ни
+     * в состоянии OPEN, ни при пробной записи. Разрешение на пробу освобождается для следующего потока, остальные
+     * потоки ожидают удачной записи
+     */
+    @Test
+    public void dataFailureDoesNotCloseTest() throws InterruptedException {
+        breaker.failed(RetryPolicyService.Failure.CONNECTION);
+        breaker.failed(RetryPolicyService.Failure.CONNECTION);
+        Assert.isTrue(!breaker.failed(RetryPolicyService.Failure.CONSTRAINT)
+                        && CircuitBreakerService.State.OPEN == breaker.getState()
+                , "Нарушение ограничения замкнуло разомкнутый выключатель");
+
+        breaker.acquire(store);
+        Assert.isTrue(!breaker.failed(RetryPolicyService.Failure.OTHER)
+                        && CircuitBreakerService.State.HALF_OPEN == breaker.getState()
+                , "Ошибка данных при пробной записи замкнула выключатель");
+        breaker.acquire(store);
+        Assert.isTrue(CircuitBreakerService.State.HALF_OPEN == breaker.getState(), "Проба не выдана повторно");
+
+        CountDownLatch resumed = new CountDownLatch(1);
+        Thread other = new Thread(() -> {
+            breaker.acquire(store);
+            resumed.countDown();
+        });
+        other.start();
+        Assert.isTrue(!resumed.await(100, TimeUnit.MILLISECONDS), "Второй поток допущен во время пробы");
+        breaker.succeeded();
+        Assert.isTrue(resumed.await(1, TimeUnit.SECONDS) && breaker.isClosed(), "Запись не возобновлена после пробы");
+    }
+
+    /**
+     * Тест неудачной пробной записи и закрытия хранилища
+     * Когда пробная запись не удалась, выключатель снова размыкается. Когда хранилище закрыто, ожидание прекращается
+     */
+    @Test
+    public void failedProbeReopensTest() {
+        breaker.failed(RetryPolicyService.Failure.TRANSIENT);
+        breaker.failed(RetryPolicyService.Failure.TRANSIENT);
+        breaker.acquire(store);
+        Assert.isTrue(breaker.failed(RetryPolicyService.Failure.TRANSIENT), "Ошибка пробы расходует попытки");
+        Assert.isTrue(CircuitBreakerService.State.OPEN == breaker.getState() && 2 == breaker.getOpened()
+                , "Выключатель не разомкнут после неудачной пробы");
+        Mockito.when(store.isTerminated()).thenReturn(true);
+        breaker.acquire(store);
+        Assert.isTrue(CircuitBreakerService.State.OPEN == breaker.getState(), "Проба при закрытом хранилище");
+    }
+}
@@ -0,0 +1,162 @@
+package com.dnsabr.vad.ukrsib.services;
+
+import com.dnsabr.vad.ukrsib.models.Client;
+import com.dnsabr.vad.ukrsib.models.Place;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+import org.springframework.util.Assert;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit-тесты DimensionService
+ * Вместо БД используется заглушка JdbcTemplate, для которой все места уже есть в таблице places с идентификатором 7
+ */
+@RunWith(JUnit4.class)
+public class DimensionServiceUnitTests {
+
+    private final DimensionService dimensions = new DimensionService();
+    private final JdbcTemplate jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+    private final List<Client> clients = Arrays.asList(
+            Client.newClient("Ivan","Ivanoff","Ivanoff","2222222222").orElse(null),
+            Client.newClient("Petr","Petroff","Petroff","1111111111").orElse(null));
+    private final List<Place> places = Arrays.asList(
+            Place.newPlace("A PLACE 2").orElse(null),
+            Place.newPlace("A PLACE 1").orElse(null));
+
+    /**
+     * Метод для выполнения действий перед каждым тестом класса
+     */
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(dimensions, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(dimensions, "enabled", true);
+        ReflectionTestUtils.setField(dimensions, "preloadBatchSize", 1);
+        ReflectionTestUtils.setField(dimensions, "placesCapacity", 100);
+        ReflectionTestUtils.setField(dimensions, "clientsCapacity", 100);
+        Mockito.doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (int i = 2; i < invocation.getArguments().length; i++) {
+                ResultSet rs = Mockito.mock(ResultSet.class);
+                Mockito.when(rs.getString(2)).thenReturn(((String) invocation.getArgument(i)).toLowerCase());
+                Mockito.when(rs.getInt(1)).thenReturn(7);
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcTemplate).query(ArgumentMatchers.anyString(), ArgumentMatchers.any(RowCallbackHandler.class),
+                ArgumentMatchers.<Object>any());
+    }
+
+    /**
+     * Тест первой фазы двухфазной загрузки
+     * Когда клиенты и места добавлены методом preload, их идентификаторы берутся из словарей,
+     * повторно клиенты и места в БД не добавляются и не запрашиваются.
+     * Названия мест сравниваются без учета регистра
+     */
+    @Test
+    public void preloadFillsDictionariesTest() {
+        Assert.isTrue(dimensions.preload(clients, places), "Справочники не добавлены в БД");
+        Mockito.verify(jdbcTemplate, Mockito.times(2)).batchUpdate(ArgumentMatchers.startsWith("insert ignore into clients"),
+                ArgumentMatchers.anyList(), ArgumentMatchers.eq(1), ArgumentMatchers.any());
+        Assert.isTrue(Integer.valueOf(7).equals(dimensions.getPlaceId("A PLACE 1"))
+                && dimensions.isClientSaved(1111111111L), "Словари не заполнены");
+
+        Mockito.clearInvocations(jdbcTemplate);
+        dimensions.saveClients(clients);
+        Map<String, Integer> ids = dimensions.savePlaces(places);
+        Assert.isTrue(ids.size() == 2 && Integer.valueOf(7).equals(ids.get("A PLACE 2")), "Неверные идентификаторы мест: " + ids);
+        Mockito.verifyNoInteractions(jdbcTemplate);
+    }
+
+    /**
+     * Тест записи справочников в JPA-транзакции записи пакета транзакций
+     * Когда клиенты добавляются в JPA-транзакции, словарь пополняется только после ее фиксации, а при откате
+     * не пополняется. Места, найденные в БД запросом, запоминаются сразу
+     */
+    @Test
+    public void saveRemembersAfterCommitTest() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            dimensions.saveClients(clients);
+            Map<String, Integer> ids = dimensions.savePlaces(Collections.singletonList(places.get(0)));
+            Assert.isTrue(Integer.valueOf(7).equals(ids.get("A PLACE 2")), "Неверные идентификаторы мест: " + ids);
+            Assert.isTrue(Integer.valueOf(7).equals(dimensions.getPlaceId("A PLACE 2")), "Найденное место не запомнено");
+            TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+                    TransactionSynchronization.STATUS_ROLLED_BACK);
+            Assert.isTrue(!dimensions.isClientSaved(2222222222L), "Словарь пополнен после отката");
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            dimensions.saveClients(clients);
+            TransactionSynchronizationUtils.invokeAfterCommit(TransactionSynchronizationManager.getSynchronizations());
+            Assert.isTrue(dimensions.isClientSaved(2222222222L), "Словарь не пополнен после фиксации");
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    /**
+     * Тест названий мест, различающихся только регистром
+     * Когда место найдено в БД по названию в другом регистре, оно запоминается в словаре и находится в словаре под
+     * любым регистром названия без повторного запроса к БД, как и при сравнении названий в БД
+     */
+    @Test
+    public void placeNamesCaseInsensitiveTest() {
+        Map<String, Integer> ids = dimensions.savePlaces(Arrays.asList(places.get(1),
+                Place.newPlace("a place 1").orElse(null)));
+        Assert.isTrue(Integer.valueOf(7).equals(ids.get("A PLACE 1")) && Integer.valueOf(7).equals(ids.get("a place 1"))
+                , "Неверные идентификаторы мест: " + ids);
+        Assert.isTrue(1 == dimensions.getPlaceCache().size(), "Место запомнено в словаре дважды: " + dimensions.getPlaceCache());
+
+        Mockito.clearInvocations(jdbcTemplate);
+        Assert.isTrue(Integer.valueOf(7).equals(dimensions.getPlaceId("A Place 1")), "Место не найдено в словаре");
+        ids = dimensions.savePlaces(Collections.singletonList(Place.newPlace("A Place 1").orElse(null)));
+        Assert.isTrue(Integer.valueOf(7).equals(ids.get("A Place 1")), "Неверные идентификаторы мест: " + ids);
+        Mockito.verifyNoInteractions(jdbcTemplate);
+    }
+
+    /**
+     * Тест заполнения словарей из БД
+     * Когда словари заполнены методом warmUp, прежние записи удалены, идентификаторы мест берутся из словаря без
+     * запроса к БД, а обращения учитываются как попадания
+     */
+    @Test
+    public void warmUpTest() {
+        dimensions.saveClients(clients);
+        Assert.isTrue(dimensions.isClientSaved(1111111111L), "Множество ИНН не пополнено");
+        Mockito.doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            ResultSet rs = Mockito.mock(ResultSet.class);
+            Mockito.when(rs.getString(1)).thenReturn("A PLACE 1");
+            Mockito.when(rs.getInt(2)).thenReturn(5);
+            handler.processRow(rs);
+            return null;
+        }).when(jdbcTemplate).query(ArgumentMatchers.any(PreparedStatementCreator.class),
+                ArgumentMatchers.any(RowCallbackHandler.class));
+        dimensions.warmUp();
+        Assert.isTrue(!dimensions.isClientSaved(1111111111L), "Словари не очищены");
+        Map<String, Integer> ids = dimensions.savePlaces(Collections.singletonList(places.get(1)));
+        Assert.isTrue(Integer.valueOf(5).equals(ids.get("A PLACE 1")), "Неверные идентификаторы мест: " + ids);
+        Assert.isTrue(1 == dimensions.getPlaceCache().getHits() && 0 == dimensions.getPlaceCache().getMisses()
+                , "Неверное количество попаданий: " + dimensions.getPlaceCache());
+        Mockito.verify(jdbcTemplate, Mockito.never()).query(ArgumentMatchers.anyString(),
+                ArgumentMatchers.any(RowCallbackHandler.class), ArgumentMatchers.<Object>any());
+    }
+}
@@ -3,6 +3,7 @@ package com.dnsabr.vad.ukrsib.services;
 import com.dnsabr.vad.ukrsib.models.Client;
 import com.dnsabr.vad.ukrsib.models.Place;
 import com.dnsabr.vad.ukrsib.models.Trans;
+import com.dnsabr.vad.ukrsib.utils.TransKeyGenerator;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -21,7 +22,6 @@ import java.io.PrintStream;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -64,11 +64,7 @@ public class EtcTests {
      */
     @After
     public void tearDown() {
-        ReflectionTestUtils.invokeMethod(StoreService.class,"doTerminate");
-        ReflectionTestUtils.setField(StoreService.class, "parserDone", false);
-        ReflectionTestUtils.setField(StoreService.class, "terminated", false);
-        ReflectionTestUtils.setField(StoreService.class, "countErrorsBeforeShutdown", new AtomicInteger(0));
-        ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).clear();
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
     }
 
     /**
@@ -0,0 +1,106 @@
+package com.dnsabr.vad.ukrsib.services;
+
+import com.dnsabr.vad.ukrsib.models.*;
+import com.dnsabr.vad.ukrsib.repository.*;
+import com.dnsabr.vad.ukrsib.utils.TransKeyGenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.Assert;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Интеграционные тесты сервиса JdbcTransService
+ */
+@RunWith(SpringRunner.class)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@SpringBootTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class JdbcTransServiceTests {
+
+    @Autowired
+    private JdbcTransService jdbcTransService;
+    @Autowired
+    private TransService transService;
+    @Autowired
+    private TransRepository transRepository;
+    @Autowired
+    private ClientRepository clientRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Метод для выполнения действий перед каждым тестом класса
+     */
+    @Before
+    public void setUp() {
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
+    }
+
+    /**
+     * Метод для выполнения действий после каждого теста класса
+     */
+    @After
+    public void tearDown() {
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
+    }
+
+    /**
+     * Тест пакетной вставки JDBC
+     * Когда добавляются новые транзакции, в БД добавляются транзакции и по одному разу клиенты и места
+     * Когда место уже добавлено через TransService, транзакции ссылаются на существующее место по названию
+     * Когда повторно добавляются транзакции, измененные в БД поля восстанавливаются, а новые строки не добавляются
+     */
+    @Test
+    public void saveTransactionsWithJdbcBatchInsertAndRepeatTest() {
+
+        long transAmountBefore = transRepository.count();
+        Client client = Client.newClient("Ivan","Ivanoff","Ivanoff","4444444444").orElse(null);
+        Place place = Place.newPlace("A PLACE 15").orElse(null);
+
+        // Место добавляется через TransService
+        Trans first = Trans.newTrans(new BigDecimal("10.01"),"UAH","123456****1234",client,place,20).orElse(null);
+        ReflectionTestUtils.setField(first,"id",20);
+        List<Trans> list = new ArrayList<>(1);
+        list.add(first);
+        Assert.isTrue(1==transService.saveAll(list),"Транзакция не добавлена в БД через TransService!");
+        int placeIdExpected = jdbcTemplate.queryForObject("select id from places where place='A PLACE 15';", Integer.class);
+
+        List<Trans> transactions = new ArrayList<>();
+        Place newPlace = Place.newPlace("A PLACE 16").orElse(null);
+        for (int i=21;i<=24;i++) {
+            Trans transaction = Trans.newTrans(new BigDecimal("10.01"),"UAH","123456****1234",client,
+                    i%2==0 ? place : newPlace,i).orElse(null);
+            ReflectionTestUtils.setField(transaction,"id",i);
+            transactions.add(transaction);
+        }
+        Assert.isTrue(4==jdbcTransService.saveAll(transactions),"Транзакции не добавлены в БД!");
+        Assert.isTrue(transAmountBefore+5==transRepository.count(),"Количество транзакций не совпадает");
+        Assert.isTrue(clientRepository.findById("4444444444").isPresent(),"Клиент не добавлен в БД");
+
+        Integer placeIdActual = jdbcTemplate.queryForObject("select place_id from transactions where id=22;", Integer.class);
+        Assert.isTrue(null!=placeIdActual && placeIdExpected==placeIdActual,"Транзакция ссылается не на существующее место"
+                + "\nожидаемое: " + placeIdExpected + "\nактуальное:" + placeIdActual);
+        Integer places = jdbcTemplate.queryForObject("select count(*) from places where place='A PLACE 16';", Integer.class);
+        Assert.isTrue(null!=places && 1==places,"Новое место не добавлено в БД");
+
+        // Имитация изменения внешним источником части данных в БД
+        jdbcTemplate.execute("update transactions set amount=111 where id=23");
+
+        Assert.isTrue(4==jdbcTransService.saveAll(transactions),"Транзакции не добавлены в БД повторно!");
+        Assert.isTrue(transAmountBefore+5==transRepository.count(),"При повторной вставке добавлены новые транзакции");
+        BigDecimal amountActual = jdbcTemplate.queryForObject("select amount from transactions where id=23;", BigDecimal.class);
+        Assert.isTrue(null!=amountActual && new BigDecimal("10.01").compareTo(amountActual)==0
+                ,"Не было выполнено обновление неключевого поля amount\nожидаемое: 10.01\nактуальное:" + amountActual);
+    }
+}
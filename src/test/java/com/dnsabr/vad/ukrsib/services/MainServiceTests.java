@@ -1,6 +1,7 @@
 package com.dnsabr.vad.ukrsib.services;
 
 import com.dnsabr.vad.ukrsib.models.Trans;
+import com.dnsabr.vad.ukrsib.utils.TransKeyGenerator;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -51,11 +52,7 @@ public class MainServiceTests {
         jdbcTemplate.execute("DELETE FROM transactions WHERE id>0;");
         jdbcTemplate.execute("DELETE FROM clients WHERE inn>0;");
         jdbcTemplate.execute("DELETE FROM places WHERE id>0;");
-        ReflectionTestUtils.invokeMethod(StoreService.class,"doTerminate");
-        ReflectionTestUtils.setField(StoreService.class, "parserDone", false);
-        ReflectionTestUtils.setField(StoreService.class, "terminated", false);
-        ReflectionTestUtils.setField(StoreService.class, "countErrorsBeforeShutdown", new AtomicInteger(0));
-        ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).clear();
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
         try {
             TimeUnit.SECONDS.sleep(5);
         } catch (InterruptedException e) {/*пустое*/}
@@ -63,11 +60,7 @@ public class MainServiceTests {
 
     @After
     public void tearDown() {
-        ReflectionTestUtils.invokeMethod(StoreService.class,"doTerminate");
-        ReflectionTestUtils.setField(StoreService.class, "parserDone", false);
-        ReflectionTestUtils.setField(StoreService.class, "terminated", false);
-        ReflectionTestUtils.setField(StoreService.class, "countErrorsBeforeShutdown", new AtomicInteger(0));
-        ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).clear();
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
 
         try {
             TimeUnit.SECONDS.sleep(5);
@@ -2,10 +2,12 @@ package com.dnsabr.vad.ukrsib.services;
 
 import com.dnsabr.vad.ukrsib.models.Trans;
 import com.dnsabr.vad.ukrsib.utils.Utils;
+import com.dnsabr.vad.ukrsib.utils.TransKeyGenerator;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
@@ -13,14 +15,16 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.util.Assert;
+
+import javax.persistence.EntityManagerFactory;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -42,6 +46,11 @@ public class ParseServiceTests {
     private StoreService store;
     @Autowired
     private ParseService parseService;
+    @Autowired
+    private RejectService rejects;
+    @Autowired
+    private CheckpointService checkpoints;
+    private LoadJob job;
 
     /**
      * Метод для выполнения действий перед каждым тестом класса
@@ -49,11 +58,12 @@ public class ParseServiceTests {
      */
     @Before
     public void setUp() {
-        ReflectionTestUtils.invokeMethod(StoreService.class,"doTerminate");
-        ReflectionTestUtils.setField(StoreService.class, "parserDone", false);
-        ReflectionTestUtils.setField(StoreService.class, "terminated", false);
-        ReflectionTestUtils.setField(StoreService.class, "countErrorsBeforeShutdown", new AtomicInteger(0));
-        ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).clear();
+        ReflectionTestUtils.invokeMethod(store,"doTerminate");
+        ReflectionTestUtils.setField(store, "parserDone", false);
+        ReflectionTestUtils.setField(store, "terminated", false);
+        ReflectionTestUtils.setField(store, "countErrorsBeforeShutdown", new AtomicInteger(0));
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
+        job = new LoadJob(fileName, parseService.isCheckEnabled(), store, rejects, checkpoints, null);
     }
 
     /**
@@ -62,11 +72,11 @@ public class ParseServiceTests {
      */
     @After
     public void tearDown() {
-        ReflectionTestUtils.invokeMethod(StoreService.class,"doTerminate");
-        ReflectionTestUtils.setField(StoreService.class, "parserDone", false);
-        ReflectionTestUtils.setField(StoreService.class, "terminated", false);
-        ReflectionTestUtils.setField(StoreService.class, "countErrorsBeforeShutdown", new AtomicInteger(0));
-        ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).clear();
+        ReflectionTestUtils.invokeMethod(store,"doTerminate");
+        ReflectionTestUtils.setField(store, "parserDone", false);
+        ReflectionTestUtils.setField(store, "terminated", false);
+        ReflectionTestUtils.setField(store, "countErrorsBeforeShutdown", new AtomicInteger(0));
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
     }
 
     /**
@@ -77,7 +87,7 @@ public class ParseServiceTests {
     public void transactionsCountAndDataAccuracyTest() {
 
         int amountExpected = 3000;
-        Thread parser = new Thread(parseService);
+        Thread parser = new Thread(() -> parseService.run(job));
         parser.start();
 
         // Забираем все транзакции из хранилища
@@ -86,6 +96,7 @@ public class ParseServiceTests {
         while (!store.isParserDone() || 0<store.getSize()) {
             store.get(list);
             transActual.addAll(list);
+            store.release(list.size());
             list.clear();
         }
         int amountActual = transActual.size();
@@ -113,7 +124,7 @@ public class ParseServiceTests {
         ReflectionTestUtils.setField(store,"terminated", true);
         int storeSizeExpected = store.getSize();
         // Запускаем сервис разбора входящего файла
-        Thread parser = new Thread(parseService);
+        Thread parser = new Thread(() -> parseService.run(job));
         parser.start();
         try {
             TimeUnit.MILLISECONDS.sleep(200);
@@ -141,6 +152,26 @@ public class ParseServiceTests {
         public StoreService storeService() {
             return new StoreService();
         }
+        @Bean
+        public RejectService rejectService() {
+            return new RejectService();
+        }
+        @Bean
+        public CheckpointService checkpointService() {
+            return new CheckpointService();
+        }
+        @Bean
+        public DimensionService dimensionService() {
+            return new DimensionService();
+        }
+        @Bean
+        public EntityManagerFactory getEntityManagerFactory() {
+            return Mockito.mock(EntityManagerFactory.class);
+        }
+        @Bean
+        public JdbcTemplate jdbcTemplate() {
+            return Mockito.mock(JdbcTemplate.class);
+        }
     }
 }
 
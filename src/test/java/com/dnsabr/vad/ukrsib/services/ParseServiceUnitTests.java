@@ -2,19 +2,35 @@ package com.dnsabr.vad.ukrsib.services;
 
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.LoggerContext;
+import com.dnsabr.vad.ukrsib.models.Client;
+import com.dnsabr.vad.ukrsib.models.Place;
 import com.dnsabr.vad.ukrsib.models.Trans;
+import com.dnsabr.vad.ukrsib.utils.Utils;
+import com.dnsabr.vad.ukrsib.utils.TransKeyGenerator;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
 import org.slf4j.LoggerFactory;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.util.Assert;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -25,6 +41,11 @@ public class ParseServiceUnitTests {
 
     private final ParseService parseService = new ParseService();
     private final StoreService store = new StoreService();
+    private final RejectService rejects = new RejectService();
+    private CheckpointService checkpoints = new CheckpointService();
+    private final DimensionService dimensions = new DimensionService();
+    private String fileName;
+    private LoadJob job;
 
     /**
      * Метод для выполнения действий перед началом всех тестов класса
@@ -42,15 +63,27 @@ public class ParseServiceUnitTests {
      */
     @Before
     public void setUp() {
-        ReflectionTestUtils.invokeMethod(StoreService.class,"doTerminate");
-        ReflectionTestUtils.setField(StoreService.class, "parserDone", false);
-        ReflectionTestUtils.setField(StoreService.class, "terminated", false);
-        ReflectionTestUtils.setField(StoreService.class, "countErrorsBeforeShutdown", new AtomicInteger(0));
-        ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).clear();
-        ReflectionTestUtils.setField(parseService, "store", store);
         ReflectionTestUtils.setField(store, "batchSize", 150);
         ReflectionTestUtils.setField(store, "batchAmount", 100);
+        store.init();
+        ReflectionTestUtils.invokeMethod(store,"doTerminate");
+        ReflectionTestUtils.setField(store, "parserDone", false);
+        ReflectionTestUtils.setField(store, "terminated", false);
+        ReflectionTestUtils.setField(store, "countErrorsBeforeShutdown", new AtomicInteger(0));
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
+        ReflectionTestUtils.setField(parseService, "dimensions", dimensions);
+        ReflectionTestUtils.setField(checkpoints, "resumeSerial", 0);
+        ReflectionTestUtils.setField(checkpoints, "resumeOffset", -1L);
+        ReflectionTestUtils.setField(rejects, "fileName", "target/rejected_unit_tests.csv");
+        ReflectionTestUtils.setField(rejects, "threshold", 0);
          ReflectionTestUtils.setField(parseService,"doCheck",false);
+        ReflectionTestUtils.setField(parseService,"staging",false);
+        ReflectionTestUtils.setField(parseService,"threads",1);
+        ReflectionTestUtils.setField(parseService,"mapped",false);
+        ReflectionTestUtils.setField(parseService,"engine","stax");
+        ReflectionTestUtils.setField(parseService,"amountMode","decimal");
+        ReflectionTestUtils.setField(parseService,"batchSize",150);
+        ReflectionTestUtils.setField(parseService,"internCapacity",1000);
     }
 
     /**
@@ -58,12 +91,11 @@ public class ParseServiceUnitTests {
      */
     @After
     public void tearDown() {
-        ReflectionTestUtils.invokeMethod(StoreService.class,"doTerminate");
-        ReflectionTestUtils.setField(StoreService.class, "parserDone", false);
-        ReflectionTestUtils.setField(StoreService.class, "terminated", false);
-        ReflectionTestUtils.setField(StoreService.class, "countErrorsBeforeShutdown", new AtomicInteger(0));
-        ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).clear();
-        ReflectionTestUtils.setField(parseService, "store", store);
+        ReflectionTestUtils.invokeMethod(store,"doTerminate");
+        ReflectionTestUtils.setField(store, "parserDone", false);
+        ReflectionTestUtils.setField(store, "terminated", false);
+        ReflectionTestUtils.setField(store, "countErrorsBeforeShutdown", new AtomicInteger(0));
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
         ReflectionTestUtils.setField(store, "batchSize", 150);
         ReflectionTestUtils.setField(store, "batchAmount", 100);
         ReflectionTestUtils.setField(parseService,"doCheck",false);
@@ -79,13 +111,13 @@ public class ParseServiceUnitTests {
     public void parseFileWithErrorsWithPreCheckTest() {
 
         ReflectionTestUtils.setField(parseService,"doCheck",true);
-        ReflectionTestUtils.setField(parseService,"fileName","Java_test_nulls.xml");
+        fileName = "Java_test_nulls.xml";
 
         final PrintStream standardOut = System.out;
         final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
         System.setOut(new PrintStream(outputStreamCaptor));
 
-        ReflectionTestUtils.invokeMethod(parseService,"run");
+        run();
 
         System.setOut(standardOut);
         String logs = outputStreamCaptor.toString();
@@ -106,13 +138,13 @@ public class ParseServiceUnitTests {
     @Test
     public void parseFileWithErrorsNoPreCheckTest() {
         ReflectionTestUtils.setField(parseService,"doCheck",false);
-        ReflectionTestUtils.setField(parseService,"fileName","Java_test_nulls.xml");
+        fileName = "Java_test_nulls.xml";
 
         final PrintStream standardOut = System.out;
         final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
         System.setOut(new PrintStream(outputStreamCaptor));
 
-        ReflectionTestUtils.invokeMethod(parseService,"run");
+        run();
 
         System.setOut(standardOut);
         String logs = outputStreamCaptor.toString();
@@ -123,6 +155,121 @@ public class ParseServiceUnitTests {
                 ,"ParseService не нашел ошибки в файле их содержащем: Java_test_nulls.xml");
     }
 
+    /**
+     * Тест непредвиденной ошибки при разборе файла
+     * Когда при разборе выбрасывается RuntimeException, ParseService закрывает хранилище и оповещает о завершении
+     * разбора, поэтому потоки записи не ожидают транзакций
+     */
+    @Test
+    public void parseFileUnexpectedErrorTest() {
+        CheckpointService failing = Mockito.mock(CheckpointService.class);
+        Mockito.when(failing.getResumeSerial()).thenThrow(new IllegalStateException("Тестовая ошибка"));
+        checkpoints = failing;
+        fileName = "Java_test.xml";
+
+        try {
+            run();
+            Assert.isTrue(false, "ParseService не передал непредвиденную ошибку");
+        } catch (IllegalStateException e) {/*пустое*/}
+
+        Assert.isTrue(store.isTerminated() && store.isParserDone()
+                        && !job.fileDoNotHaveMistakes
+                ,"ParseService не оповестил хранилище о завершении разбора после непредвиденной ошибки");
+    }
+
+    /**
+     * Тест двухфазной загрузки
+     * Когда включена двухфазная загрузка, ParseService до передачи пакета в хранилище один раз добавляет в БД клиентов
+     * и места пакета (DimensionService.preload), каждого по одному разу, и не читает файл повторно
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void preloadDimensionsDuringParseTest() {
+        DimensionService preloading = Mockito.mock(DimensionService.class);
+        Mockito.when(preloading.isEnabled()).thenReturn(true);
+        Mockito.when(preloading.getPlaceId(ArgumentMatchers.anyString())).thenReturn(null);
+        Mockito.when(preloading.preload(ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(true);
+        ReflectionTestUtils.setField(parseService, "dimensions", preloading);
+        fileName = "Java_test.xml";
+
+        run();
+
+        ArgumentCaptor<Collection<Client>> clients = ArgumentCaptor.forClass(Collection.class);
+        ArgumentCaptor<Collection<Place>> places = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(preloading, Mockito.times(1)).preload(clients.capture(), places.capture());
+        Set<String> inns = new HashSet<>();
+        clients.getValue().forEach(client -> inns.add(client.getInn()));
+        Set<String> names = new HashSet<>();
+        places.getValue().forEach(place -> names.add(place.getPlaceName()));
+        Assert.isTrue(!store.isTerminated() && store.getSize() == 12
+                ,"ParseService не передал транзакции в хранилище после добавления клиентов и мест");
+        Assert.isTrue(inns.size() == 3 && clients.getValue().size() == 3
+                        && names.size() == 4 && places.getValue().size() == 4
+                ,"ParseService передал для добавления в БД повторяющихся клиентов или места");
+    }
+
+    /**
+     * Тест двухфазной загрузки при ошибке добавления клиентов и мест
+     * Когда клиентов и места пакета не удалось добавить в БД, ParseService не передает пакет в хранилище
+     * и закрывает хранилище
+     */
+    @Test
+    public void preloadDimensionsFailureTest() {
+        DimensionService preloading = Mockito.mock(DimensionService.class);
+        Mockito.when(preloading.isEnabled()).thenReturn(true);
+        Mockito.when(preloading.preload(ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(false);
+        ReflectionTestUtils.setField(parseService, "dimensions", preloading);
+        fileName = "Java_test.xml";
+
+        run();
+
+        Assert.isTrue(store.isTerminated() && store.getSize() == 0
+                ,"ParseService передал в хранилище транзакции, клиенты и места которых не добавлены в БД");
+    }
+
+    /**
+     * Тест работы парсера без предварительной проверки с файлом содержащим ошибки и порогом отклоненных транзакций
+     * Когда количество транзакций с недопустимыми значениями не превышает порог, ParseService записывает их в файл
+     * отклоненных транзакций и передает в хранилище остальные транзакции файла
+     */
+    @Test
+    public void parseFileWithErrorsWithRejectsTest() throws IOException {
+        fileName = "Java_test_nulls.xml";
+        ReflectionTestUtils.setField(rejects, "threshold", 100);
+
+        run();
+
+        int rejected = rejects.getCount();
+        int stored = store.getSize();
+        Assert.isTrue(!store.isTerminated() && store.isParserDone()
+                ,"ParseService остановил хранилище, хотя порог отклоненных транзакций не превышен");
+        Assert.isTrue(rejected > 0 && rejected + stored == 12
+                ,"ParseService неверно разделил транзакции файла Java_test_nulls.xml\nотклонено: " + rejected
+                        + "\nпередано в хранилище: " + stored);
+        List<String> lines = Files.readAllLines(Paths.get("target/rejected_unit_tests.csv"));
+        Assert.isTrue(lines.size() == rejected + 1
+                ,"Файл отклоненных транзакций содержит неверное количество строк\nожидаемое: " + (rejected + 1)
+                        + "\nактуальное:" + lines.size());
+    }
+
+    /**
+     * Тест работы парсера без предварительной проверки с файлом содержащим ошибки при превышении порога
+     * Когда количество транзакций с недопустимыми значениями превышает порог, ParseService закрывает хранилище
+     */
+    @Test
+    public void parseFileWithErrorsOverRejectThresholdTest() {
+        fileName = "Java_test_nulls.xml";
+        ReflectionTestUtils.setField(rejects, "threshold", 1);
+
+        run();
+
+        Assert.isTrue(store.isTerminated()
+                ,"ParseService не остановил хранилище при превышении порога отклоненных транзакций");
+        Assert.isTrue(rejects.getCount() == 2
+                ,"ParseService продолжил разбор после превышения порога отклоненных транзакций\nотклонено: "
+                        + rejects.getCount());
+    }
+
     /**
      * Тест работы парсера с несуществующим файлом
      * Переопределяет системный вывод для чтения сообщений ParseService
@@ -130,13 +277,13 @@ public class ParseServiceUnitTests {
      */
     @Test
     public void parseFileDoesNotExistsTest() {
-        ReflectionTestUtils.setField(parseService,"fileName","k:\\srg5afs565awffd43.chfggdf5tb4");
+        fileName = "k:\\srg5afs565awffd43.chfggdf5tb4";
 
         final PrintStream standardOut = System.out;
         final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
         System.setOut(new PrintStream(outputStreamCaptor));
 
-        ReflectionTestUtils.invokeMethod(parseService,"run");
+        run();
 
         System.setOut(standardOut);
         String logs = outputStreamCaptor.toString();
@@ -155,12 +302,12 @@ public class ParseServiceUnitTests {
     @Test
     public void parseFileWithoutErrorsTest() {
 
-        ReflectionTestUtils.setField(parseService,"fileName","Java_test.xml");
+        fileName = "Java_test.xml";
         final PrintStream standardOut = System.out;
         final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
         System.setOut(new PrintStream(outputStreamCaptor));
 
-        ReflectionTestUtils.invokeMethod(parseService,"run");
+        run();
 
         System.setOut(standardOut);
         String logs = outputStreamCaptor.toString();
@@ -171,6 +318,298 @@ public class ParseServiceUnitTests {
                 ,"ParseService нашел ошибки в файле их не содержащем: Java_test.xml");
     }
 
+    /**
+     * Тест параллельного разбора файла
+     * Когда файл разбирается несколькими потоками, в хранилище передаются те же транзакции с теми же порядковыми
+     * номерами (и соответственно id), что и при разборе одним потоком
+     */
+    @Test
+    public void parseFileInParallelTest() {
+        fileName = "Java_test_3000.xml";
+        ReflectionTestUtils.setField(parseService,"threads",4);
+
+        run();
+
+        checkStoreContainsFile(3000);
+    }
+
+    /**
+     * Тест общих экземпляров клиентов, мест и валют
+     * Когда файл разбирается несколькими потоками, транзакции с одинаковыми клиентом, местом и валютой ссылаются
+     * на один экземпляр клиента, места и строки валюты
+     */
+    @Test
+    public void internRepeatedValuesTest() {
+        fileName = "Java_test_3000.xml";
+        ReflectionTestUtils.setField(parseService,"threads",4);
+
+        run();
+
+        Map<Long,Trans> transActual = drainStore();
+        Map<String,Object> shared = new HashMap<>();
+        for (Trans transaction : transActual.values()) {
+            Assert.isTrue(shared.computeIfAbsent("p" + transaction.getPlace().getPlaceName(), k -> transaction.getPlace())
+                    == transaction.getPlace(), "Место не разделяется транзакциями: " + transaction);
+            Assert.isTrue(shared.computeIfAbsent("c" + transaction.getClient(), k -> transaction.getClient())
+                    == transaction.getClient(), "Клиент не разделяется транзакциями: " + transaction);
+            Assert.isTrue(shared.computeIfAbsent("v" + transaction.getCurrency(), k -> transaction.getCurrency())
+                    == transaction.getCurrency(), "Валюта не разделяется транзакциями: " + transaction);
+        }
+        Assert.isTrue(3000 == transActual.size() && shared.size() < transActual.size()
+                , "Нет повторяющихся значений в тестовом файле");
+    }
+
+    /**
+     * Тест разбора файла отображенного в память
+     * Когда файл читается через отображение в память одним или несколькими потоками,
+     * в хранилище передаются те же транзакции, что и при чтении через FileInputStream
+     */
+    @Test
+    public void parseMappedFileTest() {
+        fileName = "Java_test_3000.xml";
+        ReflectionTestUtils.setField(parseService,"mapped",true);
+
+        run();
+        checkStoreContainsFile(3000);
+
+        ReflectionTestUtils.setField(store, "parserDone", false);
+        ReflectionTestUtils.setField(parseService,"threads",3);
+        run();
+        checkStoreContainsFile(3000);
+    }
+
+    /**
+     * Тест разбора файла с суммами в минимальных единицах
+     * Когда суммы разбираются по цифрам (amountMode=fixed), в хранилище передаются те же транзакции, что и при
+     * разборе сумм в BigDecimal
+     */
+    @Test
+    public void parseFileWithFixedAmountsTest() {
+        fileName = "Java_test_3000.xml";
+        ReflectionTestUtils.setField(parseService,"amountMode","fixed");
+
+        run();
+        checkStoreContainsFile(3000);
+    }
+
+    /**
+     * Тест разбора файла специализированным разбором байтов
+     * Когда файл разбирается ByteTransactionReader одним или несколькими потоками, в хранилище передаются те же
+     * транзакции, что и при разборе с помощью StAX
+     */
+    @Test
+    public void parseFileWithBytesEngineTest() {
+        fileName = "Java_test_3000.xml";
+        ReflectionTestUtils.setField(parseService,"engine","bytes");
+
+        run();
+        checkStoreContainsFile(3000);
+
+        ReflectionTestUtils.setField(store, "parserDone", false);
+        ReflectionTestUtils.setField(parseService,"threads",3);
+        run();
+        checkStoreContainsFile(3000);
+    }
+
+    /**
+     * Тест проверки за один проход с файлом содержащим ошибки
+     * Если ParseService проверяет файл содержащий недостатки с промежуточной таблицей, то закончив проверку
+     * закрывает хранилище, и транзакции не будут перенесены из промежуточной таблицы
+     */
+    @Test
+    public void parseFileWithErrorsWithStagingTest() {
+        ReflectionTestUtils.setField(parseService,"doCheck",true);
+        ReflectionTestUtils.setField(parseService,"staging",true);
+        fileName = "Java_test_nulls.xml";
+
+        run();
+
+        Assert.isTrue(store.isTerminated()
+                ,"ParseService не закрыл хранилище после проверки файла содержащего ошибки: Java_test_nulls.xml");
+        Assert.isTrue(!parseService.isDoCheck(job) && !job.isDoCheck()
+                ,"ParseService не завершил режим проверки после разбора файла");
+    }
+
+    /**
+     * Тест проверки за один проход с файлом не содержащим ошибки
+     * Когда ParseService проверяет файл не содержащий недостатки с промежуточной таблицей, то файл разбирается
+     * один раз, и все транзакции передаются в хранилище во время проверки
+     */
+    @Test
+    public void parseFileWithoutErrorsWithStagingTest() {
+        ReflectionTestUtils.setField(parseService,"doCheck",true);
+        ReflectionTestUtils.setField(parseService,"staging",true);
+        fileName = "Java_test_3000.xml";
+
+        run();
+
+        Assert.isTrue(!store.isTerminated() && store.isParserDone()
+                ,"ParseService не завершил работу после проверки файла не содержащего ошибки: Java_test_3000.xml");
+        checkStoreContainsFile(3000);
+    }
+
+    /**
+     * Тест возобновления разбора с позиции контрольной точки
+     * Когда контрольная точка содержит позицию в файле, ParseService продолжает разбор с этой позиции и передает
+     * в хранилище только транзакции после контрольной точки с теми же порядковыми номерами и id
+     */
+    @Test
+    public void resumeFromCheckpointOffsetTest() {
+        fileName = "Java_test_3000.xml";
+        ReflectionTestUtils.setField(parseService,"engine","bytes");
+
+        run();
+        long offset = -1;
+        for (Trans transaction : drainStore().values()) {
+            if (transaction.getSerial() == 1000) {
+                offset = transaction.getOffset();
+            }
+        }
+        Assert.isTrue(offset > 0,"ParseService не определил позицию транзакции в файле");
+
+        ReflectionTestUtils.setField(store, "parserDone", false);
+        ReflectionTestUtils.setField(checkpoints, "resumeSerial", 1000);
+        ReflectionTestUtils.setField(checkpoints, "resumeOffset", offset);
+        run();
+        checkStoreContainsFile(3000, 1000);
+
+        // Позиция контрольной точки используется и при разборе с помощью StAX несколькими потоками
+        ReflectionTestUtils.setField(store, "parserDone", false);
+        ReflectionTestUtils.setField(parseService,"engine","stax");
+        ReflectionTestUtils.setField(parseService,"batchSize",150);
+        ReflectionTestUtils.setField(parseService,"threads",3);
+        run();
+        checkStoreContainsFile(3000, 1000);
+    }
+
+    /**
+     * Тест возобновления разбора по порядковому номеру контрольной точки
+     * Когда позиция контрольной точки неизвестна, ParseService читает файл сначала, но передает в хранилище
+     * только транзакции после контрольной точки
+     */
+    @Test
+    public void resumeFromCheckpointSerialTest() {
+        fileName = "Java_test_3000.xml";
+        ReflectionTestUtils.setField(checkpoints, "resumeSerial", 2500);
+
+        run();
+        checkStoreContainsFile(3000, 2500);
+    }
+
+    /**
+     * Тест файла отклоненных транзакций при возобновлении разбора
+     * Когда разбор продолжает прерванную загрузку, транзакции, отклоненные до контрольной точки, остаются в файле
+     * отклоненных транзакций, а отклоненные после нее дописываются
+     */
+    @Test
+    public void resumeKeepsRejectedTransactionsTest() throws IOException {
+        fileName = "Java_test_nulls.xml";
+        ReflectionTestUtils.setField(rejects, "threshold", 100);
+        run();
+        drainStore();
+        List<String> before = Files.readAllLines(Paths.get("target/rejected_unit_tests.csv"));
+        Assert.isTrue(before.size() > 2,"Недостаточно отклоненных транзакций для теста: " + before);
+        int resumeSerial = Integer.parseInt(before.get(1).split(";")[0]);
+
+        ReflectionTestUtils.setField(store, "parserDone", false);
+        ReflectionTestUtils.setField(checkpoints, "resumeSerial", resumeSerial);
+        run();
+
+        List<String> after = Files.readAllLines(Paths.get("target/rejected_unit_tests.csv"));
+        Assert.isTrue(after.size() == before.size() + rejects.getCount() && after.subList(0, before.size()).equals(before)
+                        && rejects.getCount() == before.size() - 2
+                ,"Отклоненные до контрольной точки транзакции не сохранены в файле\nдо: " + before + "\nпосле:" + after);
+    }
+
+    /**
+     * Тест одновременной загрузки двух файлов
+     * Когда два задания загрузки разбирают разные файлы одновременно, каждое задание передает транзакции своего файла
+     * в свое хранилище, а закрытие хранилища одного задания при превышении порога отклоненных транзакций
+     * не останавливает другое задание
+     */
+    @Test
+    public void parseTwoFilesConcurrentlyTest() throws InterruptedException {
+        StoreService otherStore = new StoreService();
+        ReflectionTestUtils.setField(otherStore, "batchSize", 150);
+        ReflectionTestUtils.setField(otherStore, "batchAmount", 100);
+        otherStore.init();
+        RejectService otherRejects = new RejectService();
+        ReflectionTestUtils.setField(otherRejects, "fileName", "target/rejected_unit_tests_other.csv");
+        ReflectionTestUtils.setField(otherRejects, "threshold", 0);
+        CheckpointService otherCheckpoints = new CheckpointService();
+        ReflectionTestUtils.setField(otherCheckpoints, "resumeOffset", -1L);
+        ReflectionTestUtils.setField(parseService,"threads",2);
+
+        job = new LoadJob("Java_test_3000.xml", false, store, rejects, checkpoints, null);
+        LoadJob other = new LoadJob("Java_test_nulls.xml", false, otherStore, otherRejects, otherCheckpoints, null);
+        Thread parser = new Thread(() -> parseService.run(job));
+        Thread otherParser = new Thread(() -> parseService.run(other));
+        parser.start();
+        otherParser.start();
+        parser.join();
+        otherParser.join();
+
+        Assert.isTrue(otherStore.isTerminated() && otherRejects.getCount() > 0
+                ,"Задание не закрыло свое хранилище при превышении порога отклоненных транзакций");
+        Assert.isTrue(!store.isTerminated() && store.isParserDone() && rejects.getCount() == 0
+                ,"Закрытие хранилища одного задания остановило другое задание");
+        checkStoreContainsFile(3000);
+    }
+
+    /**
+     * Создает задание загрузки файла fileName с хранилищем, карантином и контрольными точками теста и разбирает файл
+     */
+    private void run() {
+        job = new LoadJob(fileName, parseService.isCheckEnabled(), store, rejects, checkpoints, null);
+        parseService.run(job);
+    }
+
+    /**
+     * Забирает все транзакции из хранилища
+     * @return транзакции по id
+     */
+    private Map<Long,Trans> drainStore() {
+        Map<Long,Trans> transActual = new HashMap<>();
+        List<Trans> list = new ArrayList<>();
+        while (store.getSize()>0) {
+            store.get(list);
+            for (Trans transaction : list) {
+                transActual.put(transaction.getId(), transaction);
+            }
+            store.release(list.size());
+            list.clear();
+        }
+        return transActual;
+    }
+
+    /**
+     * Забирает все транзакции из хранилища и сравнивает их с транзакциями тестового файла
+     * @param amountExpected количество транзакций в тестовом файле
+     */
+    private void checkStoreContainsFile(int amountExpected) {
+        checkStoreContainsFile(amountExpected, 0);
+    }
+
+    /**
+     * Забирает все транзакции из хранилища и сравнивает их с транзакциями тестового файла
+     * после порядкового номера fromSerial
+     * @param amountExpected количество транзакций в тестовом файле
+     * @param fromSerial порядковый номер транзакции, после которой транзакции должны быть в хранилище
+     */
+    private void checkStoreContainsFile(int amountExpected, int fromSerial) {
+        Map<Long,Trans> transActual = drainStore();
+        Assert.isTrue(transActual.size()==amountExpected-fromSerial,"ParseService передал в хранилище неверное " +
+                "количество транзакций!" +"\nожидаемое: "+(amountExpected-fromSerial) + "\nактуальное:"+transActual.size());
+
+        List<Trans> transExpected = new ArrayList<>(amountExpected);
+        Utils.fillLists(transExpected,amountExpected);
+        for (Trans transaction : transExpected.subList(fromSerial, amountExpected)) {
+            Assert.isTrue(transaction.deepEquals(transActual.get(transaction.getId()))
+                    ,"Данные транзакций переданных ParseService в хранилище не совпадают!\nожидаемые: "
+                            +transaction+"\nактуальные:" +transActual.get(transaction.getId()));
+        }
+    }
+
     /**
      * Тест метода isDoCheck
      * Когда запрашиваем режим работы парсера, то получаем правильное состояние
@@ -179,14 +618,25 @@ public class ParseServiceUnitTests {
     public void isDoCheckTest() {
 
         ReflectionTestUtils.setField(parseService,"doCheck",false);
-        boolean actual = parseService.isDoCheck();
+        job = new LoadJob("Java_test.xml", parseService.isCheckEnabled(), store, rejects, checkpoints, null);
+        boolean actual = parseService.isDoCheck(job);
         Assert.isTrue(!actual
                 ,"Метод ParseService.isDoCheck вернул неправильное значение\nожидаемое false\nактуальное:"+actual);
 
         ReflectionTestUtils.setField(parseService,"doCheck",true);
-        actual = parseService.isDoCheck();
+        job = new LoadJob("Java_test.xml", parseService.isCheckEnabled(), store, rejects, checkpoints, null);
+        actual = parseService.isDoCheck(job);
         Assert.isTrue(actual
                 ,"Метод ParseService.isDoCheck вернул неправильное значение\nожидаемое true\nактуальное:"+actual);
+
+        // При проверке за один проход транзакции передаются в хранилище во время проверки
+        ReflectionTestUtils.setField(parseService,"staging",true);
+        actual = parseService.isDoCheck(job);
+        Assert.isTrue(!actual
+                ,"Метод ParseService.isDoCheck вернул неправильное значение\nожидаемое false\nактуальное:"+actual);
+        actual = parseService.isStaging();
+        Assert.isTrue(actual
+                ,"Метод ParseService.isStaging вернул неправильное значение\nожидаемое true\nактуальное:"+actual);
     }
 }
 
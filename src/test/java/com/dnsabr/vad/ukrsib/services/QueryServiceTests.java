@@ -88,4 +88,31 @@ public class QueryServiceTests {
         listExpected.forEach(triggerExpected->Assert.isTrue(!listActual.contains(triggerExpected)
                 ,"Триггер "+triggerExpected+" не удален из БД!"));
     }
+
+    /**
+     * Тест создания, переноса и удаления промежуточных таблиц транзакций, клиентов и мест
+     * Когда промежуточные таблицы созданы, они содержатся в списке таблиц БД, перенос пустых таблиц
+     * не добавляет транзакций. Когда таблицы удалены, они отсутствуют в списке таблиц БД
+     */
+    @Test
+    public void createPromoteAndDropStagingTest() {
+
+        final List<String> stagingTables = Arrays.asList(QueryService.STAGING_TABLE, QueryService.CLIENTS_STAGING_TABLE,
+                QueryService.PLACES_STAGING_TABLE);
+
+        Assert.isTrue(queryService.createStaging(),"Промежуточные таблицы не созданы!");
+        for (String table : stagingTables) {
+            List<String> tables = jdbcTemplate.queryForList("show tables like '" + table + "';", String.class);
+            Assert.isTrue(tables.contains(table),"Промежуточная таблица " + table + " отсутствует в БД!");
+        }
+
+        int promoted = queryService.promoteStaging();
+        Assert.isTrue(promoted == 0,"Из пустой промежуточной таблицы перенесены транзакции: " + promoted);
+
+        queryService.dropStaging();
+        for (String table : stagingTables) {
+            List<String> tables = jdbcTemplate.queryForList("show tables like '" + table + "';", String.class);
+            Assert.isTrue(!tables.contains(table),"Промежуточная таблица " + table + " не удалена из БД!");
+        }
+    }
 }
\ No newline at end of file
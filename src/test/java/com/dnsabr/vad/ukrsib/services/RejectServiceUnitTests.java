@@ -0,0 +1,134 @@
+package com.dnsabr.vad.ukrsib.services;
+
+import com.dnsabr.vad.ukrsib.models.Client;
+import com.dnsabr.vad.ukrsib.models.Place;
+import com.dnsabr.vad.ukrsib.models.Trans;
+import com.dnsabr.vad.ukrsib.utils.TransactionFields;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.Assert;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Unit-тесты RejectService
+ */
+@RunWith(JUnit4.class)
+public class RejectServiceUnitTests {
+
+    private final RejectService rejects = new RejectService();
+    private final Path file = Paths.get("target/rejected_reject_tests.csv");
+
+    /**
+     * Метод для выполнения действий перед каждым тестом класса
+     */
+    @Before
+    public void setUp() throws IOException {
+        Files.deleteIfExists(file);
+        ReflectionTestUtils.setField(rejects, "fileName", file.toString());
+        ReflectionTestUtils.setField(rejects, "threshold", 2);
+        ReflectionTestUtils.invokeMethod(rejects, "open");
+    }
+
+    /**
+     * Тест записи отклоненных транзакций
+     * Когда транзакция отклонена, в файл записывается ее порядковый номер и значения тегов,
+     * значения содержащие разделитель или кавычки экранируются
+     */
+    @Test
+    public void rejectWritesSerialAndRawFieldsTest() throws IOException {
+        TransactionFields fields = new TransactionFields();
+        fields.setPlaceName("A PLACE; 1");
+        fields.setAmount("abc");
+        fields.setCurrency("UAH");
+        fields.setCard("123456****1234");
+        fields.setFirstName("Ivan \"Big\"");
+        fields.setLastName("Ivanoff");
+        fields.setMiddleName("");
+        fields.setInn("1234567890");
+
+        ReflectionTestUtils.invokeMethod(rejects, "reject", 7, fields);
+        ReflectionTestUtils.invokeMethod(rejects, "close");
+
+        List<String> lines = Files.readAllLines(file);
+        Assert.isTrue(lines.size() == 2, "Файл отклоненных транзакций содержит неверное количество строк: " + lines.size());
+        String expected = "7;\"A PLACE; 1\";abc;UAH;123456****1234;\"Ivan \"\"Big\"\"\";Ivanoff;;1234567890";
+        Assert.isTrue(expected.equals(lines.get(1)), "Отклоненная транзакция записана неверно\nожидаемое: "
+                + expected + "\nактуальное:" + lines.get(1));
+    }
+
+    /**
+     * Тест отклонения транзакции, которую не удалось добавить в БД
+     * Когда файл закрыт после разбора файла данных, а транзакция отклоняется потоком записи в БД, строка дописывается
+     * в файл значениями полей транзакции
+     */
+    @Test
+    public void rejectTransactionAppendsAfterCloseTest() throws IOException {
+        ReflectionTestUtils.invokeMethod(rejects, "reject", 1, new TransactionFields());
+        ReflectionTestUtils.invokeMethod(rejects, "close");
+
+        Client client = Client.newClient("Ivan","Ivanoff","Ivanoff","1234567890").orElse(null);
+        Place place = Place.newPlace("A PLACE 1").orElse(null);
+        Trans transaction = Trans.newTrans(new BigDecimal("10.01"),"UAH","123456****1234",client,place,5).orElse(null);
+        Assert.isTrue(rejects.reject(transaction), "Порог отклоненных транзакций определен неверно");
+        ReflectionTestUtils.invokeMethod(rejects, "close");
+
+        List<String> lines = Files.readAllLines(file);
+        String expected = "5;A PLACE 1;10.01;UAH;123456****1234;Ivan;Ivanoff;Ivanoff;1234567890";
+        Assert.isTrue(lines.size() == 3 && expected.equals(lines.get(2)), "Отклоненная транзакция записана неверно: "
+                + lines);
+    }
+
+    /**
+     * Тест продолжения прерванной загрузки
+     * Когда разбор продолжает прерванную загрузку, существующий файл отклоненных транзакций дописывается без
+     * заголовка и транзакции, отклоненные до прерывания, сохраняются. Новый разбор перезаписывает файл
+     */
+    @Test
+    public void resumeAppendsToExistingFileTest() throws IOException {
+        ReflectionTestUtils.invokeMethod(rejects, "reject", 1, new TransactionFields());
+        ReflectionTestUtils.invokeMethod(rejects, "reject", 2, new TransactionFields());
+        ReflectionTestUtils.invokeMethod(rejects, "close");
+
+        ReflectionTestUtils.invokeMethod(rejects, "open", true);
+        ReflectionTestUtils.invokeMethod(rejects, "reject", 9, new TransactionFields());
+        ReflectionTestUtils.invokeMethod(rejects, "close");
+
+        List<String> lines = Files.readAllLines(file);
+        Assert.isTrue(lines.size() == 4 && lines.get(1).startsWith("1;") && lines.get(2).startsWith("2;")
+                && lines.get(3).startsWith("9;") && 1 == rejects.getCount(), "Файл отклоненных транзакций не дописан: " + lines);
+
+        ReflectionTestUtils.invokeMethod(rejects, "open", false);
+        ReflectionTestUtils.invokeMethod(rejects, "reject", 3, new TransactionFields());
+        ReflectionTestUtils.invokeMethod(rejects, "close");
+        lines = Files.readAllLines(file);
+        Assert.isTrue(lines.size() == 2 && lines.get(1).startsWith("3;"), "Файл отклоненных транзакций не перезаписан: " + lines);
+    }
+
+    /**
+     * Тест порога отклоненных транзакций
+     * Когда количество отклоненных транзакций превышает порог, метод reject возвращает false.
+     * Метод open сбрасывает счетчик, а файл создается только при первой отклоненной транзакции
+     */
+    @Test
+    public void rejectThresholdTest() {
+        TransactionFields fields = new TransactionFields();
+        Assert.isTrue(!Files.exists(file), "Файл отклоненных транзакций создан без отклоненных транзакций");
+
+        boolean first = ReflectionTestUtils.invokeMethod(rejects, "reject", 1, fields);
+        boolean second = ReflectionTestUtils.invokeMethod(rejects, "reject", 2, fields);
+        boolean third = ReflectionTestUtils.invokeMethod(rejects, "reject", 3, fields);
+        Assert.isTrue(first && second && !third, "Порог отклоненных транзакций определен неверно");
+        Assert.isTrue(rejects.getCount() == 3, "Неверное количество отклоненных транзакций: " + rejects.getCount());
+
+        ReflectionTestUtils.invokeMethod(rejects, "open");
+        Assert.isTrue(rejects.getCount() == 0, "Счетчик отклоненных транзакций не сброшен");
+    }
+}
@@ -0,0 +1,93 @@
+package com.dnsabr.vad.ukrsib.services;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionTimedOutException;
+import org.springframework.util.Assert;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+
+/**
+ * Unit-тесты RetryPolicyService
+ */
+@RunWith(JUnit4.class)
+public class RetryPolicyServiceUnitTests {
+
+    private final RetryPolicyService policy = new RetryPolicyService();
+
+    /**
+     * Метод для выполнения действий перед каждым тестом класса
+     */
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(policy, "backoff", 1L);
+        ReflectionTestUtils.setField(policy, "maxBackoff", 5L);
+        ReflectionTestUtils.setField(policy, "pause", 50L);
+    }
+
+    /**
+     * Тест определения вида ошибки
+     * Когда в цепочке причин исключения есть SQLException, вид ошибки определяется по SQLState и коду ошибки MySQL,
+     * иначе по типу исключения Spring
+     */
+    @Test
+    public void classifyTest() {
+        Assert.isTrue(RetryPolicyService.Failure.TRANSIENT == policy.classify(new SQLException("Deadlock", "40001", 1213))
+                , "Взаимоблокировка не определена");
+        Assert.isTrue(RetryPolicyService.Failure.TRANSIENT == policy.classify(new SQLException("Lock wait", "HY000", 1205))
+                , "Превышение ожидания блокировки не определено");
+        Assert.isTrue(RetryPolicyService.Failure.CONSTRAINT == policy.classify(
+                new RuntimeException(new SQLException("Duplicate entry", "23000", 1062))), "Нарушение ограничения не определено");
+        Assert.isTrue(RetryPolicyService.Failure.CONNECTION == policy.classify(
+                new RuntimeException(new SQLNonTransientConnectionException("Communications link failure")))
+                , "Потеря соединения не определена");
+        Assert.isTrue(RetryPolicyService.Failure.CONNECTION == policy.classify(new SQLException("Lost", "08S01"))
+                , "Потеря соединения не определена по SQLState");
+        Assert.isTrue(RetryPolicyService.Failure.TRANSIENT == policy.classify(new TransactionTimedOutException("Timeout"))
+                , "Таймаут транзакции не определен");
+        Assert.isTrue(RetryPolicyService.Failure.CONSTRAINT == policy.classify(new DataIntegrityViolationException("x"))
+                , "Нарушение ограничения не определено по типу исключения Spring");
+        Assert.isTrue(RetryPolicyService.Failure.OTHER == policy.classify(new IllegalStateException("x"))
+                , "Прочая ошибка определена неверно");
+    }
+
+    /**
+     * Тест стратегий видов ошибок
+     * Когда ошибка временная или потеряно соединение, следует повторить ту же часть пакета, иначе делить пакет.
+     * При потере соединения запись приостанавливается. Ошибки учитываются по видам
+     */
+    @Test
+    public void onFailureTest() {
+        Assert.isTrue(policy.onFailure(RetryPolicyService.Failure.TRANSIENT, 3), "Временная ошибка не повторяется");
+        Assert.isTrue(!policy.onFailure(RetryPolicyService.Failure.CONSTRAINT, 1), "Нарушение ограничения повторяется");
+        Assert.isTrue(!policy.onFailure(RetryPolicyService.Failure.OTHER, 1), "Прочая ошибка повторяется");
+
+        long started = System.currentTimeMillis();
+        Assert.isTrue(policy.onFailure(RetryPolicyService.Failure.CONNECTION, 1), "Потеря соединения не повторяется");
+        policy.awaitAvailable();
+        Assert.isTrue(System.currentTimeMillis() - started >= 50, "Запись не приостановлена при потере соединения");
+
+        Assert.isTrue(1 == policy.getCount(RetryPolicyService.Failure.TRANSIENT)
+                && 1 == policy.getCount(RetryPolicyService.Failure.CONNECTION)
+                && 1 == policy.getCount(RetryPolicyService.Failure.CONSTRAINT)
+                && 1 == policy.getCount(RetryPolicyService.Failure.OTHER), "Неверное количество ошибок: " + policy.getCounts());
+    }
+
+    /**
+     * Тест передачи вида ошибки от сервиса записи
+     * Когда сервис записи сообщил исключение, вид ошибки возвращается один раз в том же потоке
+     */
+    @Test
+    public void takeFailureTest() throws InterruptedException {
+        policy.failed(new SQLException("Deadlock", "40001", 1213));
+        Thread other = new Thread(() -> policy.failed(new SQLException("Duplicate entry", "23000", 1062)));
+        other.start();
+        other.join();
+        Assert.isTrue(RetryPolicyService.Failure.TRANSIENT == policy.takeFailure(), "Неверный вид ошибки");
+        Assert.isTrue(RetryPolicyService.Failure.OTHER == policy.takeFailure(), "Вид ошибки не забыт");
+    }
+}
@@ -2,18 +2,19 @@ package com.dnsabr.vad.ukrsib.services;
 
 import com.dnsabr.vad.ukrsib.models.*;
 import com.dnsabr.vad.ukrsib.repository.*;
+import com.dnsabr.vad.ukrsib.utils.TransKeyGenerator;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
-import org.mockito.junit.jupiter.MockitoSettings;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.*;
 import org.springframework.stereotype.Service;
 import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.util.ReflectionTestUtils;
@@ -22,8 +23,12 @@ import org.springframework.util.Assert;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import java.math.BigDecimal;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLNonTransientConnectionException;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -45,9 +50,22 @@ public class SaveServiceTests {
     @Autowired
     private TransServiceT transService;
     @Autowired
+    private JdbcTransServiceT jdbcTransService;
+    @Autowired
     private StoreService store;
     @Autowired
     private SaveService saveService;
+    @Autowired
+    private RejectService rejects;
+    @Autowired
+    private CheckpointService checkpoints;
+    @Autowired
+    private RetryPolicyService retryPolicy;
+    @Autowired
+    private CircuitBreakerService breaker;
+    @Autowired
+    private BatchSizeService batches;
+    private LoadJob job;
 
     /**
      * Метод для выполнения действий перед каждым тестом класса
@@ -55,13 +73,14 @@ public class SaveServiceTests {
      */
     @Before
     public void setUp() {
-        ReflectionTestUtils.invokeMethod(StoreService.class,"doTerminate");
-        ReflectionTestUtils.setField(StoreService.class, "parserDone", false);
-        ReflectionTestUtils.setField(StoreService.class, "terminated", false);
-        ReflectionTestUtils.setField(StoreService.class, "countErrorsBeforeShutdown", new AtomicInteger(0));
-        ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).clear();
+        ReflectionTestUtils.invokeMethod(store,"doTerminate");
+        ReflectionTestUtils.setField(store, "parserDone", false);
+        ReflectionTestUtils.setField(store, "terminated", false);
+        ReflectionTestUtils.setField(store, "countErrorsBeforeShutdown", new AtomicInteger(0));
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
         ReflectionTestUtils.setField(store, "batchSize", 4);
         ReflectionTestUtils.setField(store, "batchAmount", 100);
+        job = new LoadJob("Java_test.xml", false, store, rejects, checkpoints, null);
     }
 
     /**
@@ -70,11 +89,11 @@ public class SaveServiceTests {
      */
     @After
     public void tearDown() {
-        ReflectionTestUtils.invokeMethod(StoreService.class,"doTerminate");
-        ReflectionTestUtils.setField(StoreService.class, "parserDone", false);
-        ReflectionTestUtils.setField(StoreService.class, "terminated", false);
-        ReflectionTestUtils.setField(StoreService.class, "countErrorsBeforeShutdown", new AtomicInteger(0));
-        ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).clear();
+        ReflectionTestUtils.invokeMethod(store,"doTerminate");
+        ReflectionTestUtils.setField(store, "parserDone", false);
+        ReflectionTestUtils.setField(store, "terminated", false);
+        ReflectionTestUtils.setField(store, "countErrorsBeforeShutdown", new AtomicInteger(0));
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
     }
 
     /**
@@ -94,7 +113,7 @@ public class SaveServiceTests {
         ReflectionTestUtils.setField(store, "parserDone", false);
 
         // Когда работает ParserService и в хранилище нет транзакций, SaveService не завершает работу
-        Thread saver = new Thread(saveService);
+        Thread saver = new Thread(() -> saveService.save(job, null));
         saver.start();
         try {
             TimeUnit.MILLISECONDS.sleep(100);
@@ -166,7 +185,7 @@ public class SaveServiceTests {
     public void stopIfStoreIsClosedTest() {
 
         // Запускаем поток SaveService и ждем немного
-        Thread saver = new Thread(saveService);
+        Thread saver = new Thread(() -> saveService.save(job, null));
         saver.start();
         try {
             TimeUnit.MILLISECONDS.sleep(100);
@@ -207,7 +226,7 @@ public class SaveServiceTests {
 
         transService.calls = 0;
 
-        Thread saver = new Thread(saveService);
+        Thread saver = new Thread(() -> saveService.save(job, null));
         saver.start();
 
         Client client = Client.newClient("Ivan","Ivanoff","Ivanoff","5151515151").orElse(null);
@@ -229,6 +248,195 @@ public class SaveServiceTests {
                         +"\nожидаемое: "+callsExpected + "\nактуальное:"+callsActual);
     }
 
+    /**
+     * Тест деления пакета при неудачной попытке
+     * Когда в пакете есть транзакция, с которой запись не удается, пакет делится пополам до отдельных транзакций:
+     * остальные транзакции добавляются в БД, а ошибочная после всех попыток отклоняется и не возвращается в хранилище
+     */
+    @Test
+    public void bisectFailedBatchTest() {
+        ReflectionTestUtils.setField(saveService, "attempts", 3);
+        ReflectionTestUtils.setField(rejects, "fileName", "");
+        ReflectionTestUtils.setField(rejects, "threshold", 1);
+        rejects.open();
+        Client client = Client.newClient("Ivan","Ivanoff","Ivanoff","3333333333").orElse(null);
+        Place place = Place.newPlace("A PLACE 3").orElse(null);
+        for (int i=1;i<=batchSize;i++) {
+            Trans transaction = Trans.newTrans(new BigDecimal("10.01"),"UAH","123456****1234",client,place,i).orElse(null);
+            store.add(transaction);
+        }
+        store.parserDone();
+        transService.calls = 0;
+        transService.poison.add(2);
+        saveService.save(job, null);
+        transService.poison.clear();
+
+        // Весь пакет, две половины, транзакция 1, транзакция 2 и еще 2 попытки для транзакции 2
+        Assert.isTrue(transService.calls==7, "TransService был вызван неверное количество раз: " + transService.calls);
+        Assert.isTrue(rejects.getCount()==1, "Ошибочная транзакция не отклонена");
+        Assert.isTrue(store.getSize()==0 && !store.isTerminated(), "Транзакции возвращены в хранилище или оно закрыто");
+    }
+
+    /**
+     * Тест отклонения транзакции, нарушающей ограничения БД
+     * Когда запись не удается из-за нарушения ограничений БД, пакет делится без повторных попыток, а транзакция,
+     * нарушающая ограничения, отклоняется сразу, даже если попытки не исчерпаны
+     */
+    @Test
+    public void constraintViolationRejectedWithoutRetryTest() {
+        ReflectionTestUtils.setField(saveService, "attempts", 3);
+        ReflectionTestUtils.setField(rejects, "fileName", "");
+        ReflectionTestUtils.setField(rejects, "threshold", 1);
+        rejects.open();
+        Client client = Client.newClient("Ivan","Ivanoff","Ivanoff","3333333333").orElse(null);
+        Place place = Place.newPlace("A PLACE 3").orElse(null);
+        for (int i=1;i<=batchSize;i++) {
+            Trans transaction = Trans.newTrans(new BigDecimal("10.01"),"UAH","123456****1234",client,place,i).orElse(null);
+            store.add(transaction);
+        }
+        store.parserDone();
+        transService.calls = 0;
+        transService.invalid.add(2);
+        saveService.save(job, null);
+        transService.invalid.clear();
+
+        // Весь пакет, две половины, транзакция 1 и транзакция 2 без повторных попыток
+        Assert.isTrue(transService.calls==5, "TransService был вызван неверное количество раз: " + transService.calls);
+        Assert.isTrue(retryPolicy.getCount(RetryPolicyService.Failure.CONSTRAINT)==3
+                , "Неверное количество нарушений ограничений БД: " + retryPolicy.getCounts());
+        Assert.isTrue(rejects.getCount()==1, "Транзакция, нарушающая ограничения БД, не отклонена");
+        Assert.isTrue(store.getSize()==0 && !store.isTerminated(), "Транзакции возвращены в хранилище или оно закрыто");
+    }
+
+    /**
+     * Тест учета ошибок данных при подборе размера пакета и количества потоков записи
+     * Когда запись не удается из-за ошибочных транзакций (прочая ошибка и нарушение ограничений БД), пакет делится
+     * и ошибочные транзакции отклоняются, но размер пакета не уменьшается, а пулу потоков записи не сообщается
+     * о неудачных попытках
+     */
+    @Test
+    public void dataErrorsDoNotShrinkBatchOrPoolTest() {
+        ReflectionTestUtils.setField(saveService, "attempts", 3);
+        ReflectionTestUtils.setField(rejects, "fileName", "");
+        ReflectionTestUtils.setField(rejects, "threshold", 2);
+        int minSize = (int) ReflectionTestUtils.getField(batches, "minSize");
+        ReflectionTestUtils.setField(batches, "minSize", 1);
+        rejects.open();
+        Client client = Client.newClient("Ivan","Ivanoff","Ivanoff","3333333333").orElse(null);
+        Place place = Place.newPlace("A PLACE 3").orElse(null);
+        for (int i=1;i<=batchSize;i++) {
+            Trans transaction = Trans.newTrans(new BigDecimal("10.01"),"UAH","123456****1234",client,place,i).orElse(null);
+            store.add(transaction);
+        }
+        store.parserDone();
+        WriterPoolService pool = Mockito.mock(WriterPoolService.class);
+        int sizeExpected = batches.getBatchSize();
+        transService.calls = 0;
+        transService.poison.add(2);
+        transService.invalid.add(3);
+        try {
+            saveService.save(job, pool);
+        } finally {
+            transService.poison.clear();
+            transService.invalid.clear();
+            ReflectionTestUtils.setField(batches, "minSize", minSize);
+        }
+
+        Assert.isTrue(rejects.getCount()==2, "Ошибочные транзакции не отклонены");
+        Assert.isTrue(batches.getBatchSize()==sizeExpected, "Размер пакета изменен после ошибок данных: "
+                + batches.getBatchSize());
+        Mockito.verify(pool, Mockito.never()).failed();
+    }
+
+    /**
+     * Тест приостановки записи при недоступности БД
+     * Когда БД недоступна дольше, чем позволяют попытки записи, после нескольких последовательных ошибок запись
+     * приостанавливается и возобновляется после удачной пробной записи. Транзакции не возвращаются в хранилище,
+     * а счетчик ошибок не увеличивается
+     */
+    @Test
+    public void breakerStallsInsteadOfAbortTest() {
+        ReflectionTestUtils.setField(saveService, "attempts", 3);
+        Client client = Client.newClient("Ivan","Ivanoff","Ivanoff","4444444444").orElse(null);
+        Place place = Place.newPlace("A PLACE 4").orElse(null);
+        for (int i=1;i<=batchSize;i++) {
+            Trans transaction = Trans.newTrans(new BigDecimal("10.01"),"UAH","123456****1234",client,place,i).orElse(null);
+            store.add(transaction);
+        }
+        store.parserDone();
+        transService.calls = 0;
+        transService.outage = 5;
+        saveService.save(job, null);
+
+        // 2 попытки до размыкания, ошибка, после которой выключатель разомкнут, 2 неудачные и 1 удачная пробы
+        Assert.isTrue(transService.calls==6, "TransService был вызван неверное количество раз: " + transService.calls);
+        Assert.isTrue(breaker.getOpened()==3 && breaker.isClosed(), "Неверное состояние выключателя: " + breaker.getState());
+        Assert.isTrue(transService.amount==batchSize && store.getSize()==0, "Пакет не записан после восстановления БД");
+        Assert.isTrue(0==((AtomicInteger) ReflectionTestUtils.getField(store, "countErrorsBeforeShutdown")).get()
+                , "Увеличен счетчик ошибок");
+    }
+
+    /**
+     * Тест конвейерной записи
+     * Когда пакет записывается в БД, поток записи получает из хранилища следующий пакет, но не больше, чем позволяет
+     * pipeline. После записи всех пакетов поток записи завершается
+     */
+    @Test
+    public void pipelinedCommitsTest() throws InterruptedException {
+        int pipeline = (int) ReflectionTestUtils.getField(saveService, "pipeline");
+        ReflectionTestUtils.setField(saveService, "pipeline", 2);
+        Client client = Client.newClient("Ivan","Ivanoff","Ivanoff","5555555555").orElse(null);
+        Place place = Place.newPlace("A PLACE 5").orElse(null);
+        for (int i=1;i<=batchSize*3;i++) {
+            Trans transaction = Trans.newTrans(new BigDecimal("10.01"),"UAH","123456****1234",client,place,i).orElse(null);
+            store.add(transaction);
+        }
+        store.parserDone();
+        transService.calls = 0;
+        transService.hold = new CountDownLatch(1);
+        Thread writerThread = new Thread(() -> saveService.save(job, null));
+        try {
+            writerThread.start();
+            for (int i=0;i<100 && store.getSize()>batchSize;i++) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+
+            // Первый пакет записывается, второй получен из хранилища, третий ожидает в хранилище
+            Assert.isTrue(store.getSize()==batchSize, "Неверное количество транзакций в хранилище: " + store.getSize());
+        } finally {
+            transService.hold.countDown();
+            writerThread.join(5000);
+            transService.hold = null;
+            ReflectionTestUtils.setField(saveService, "pipeline", pipeline);
+        }
+        Assert.isTrue(!writerThread.isAlive() && transService.calls==3 && store.getSize()==0
+                , "Пакеты не записаны: " + transService.calls);
+    }
+
+    /**
+     * Тест выбора способа записи данных в БД
+     * Когда установлен способ записи jdbc, SaveService передает транзакции в JdbcTransService, а не в TransService
+     */
+    @Test
+    public void jdbcWriterSelectedTest() {
+        ReflectionTestUtils.setField(saveService, "writer", "jdbc");
+        Client client = Client.newClient("Ivan","Ivanoff","Ivanoff","2222222222").orElse(null);
+        Place place = Place.newPlace("A PLACE 2").orElse(null);
+        for (int i=1;i<=batchSize;i++) {
+            Trans transaction = Trans.newTrans(new BigDecimal("10.01"),"UAH","123456****1234",client,place,i).orElse(null);
+            store.add(transaction);
+        }
+        store.parserDone();
+        transService.calls = 0;
+        saveService.save(job, null);
+        ReflectionTestUtils.setField(saveService, "writer", "jpa");
+
+        Assert.isTrue(jdbcTransService.amount==batchSize, "JdbcTransService получил от SaveService неверное количество" +
+                " транзакций!" +"\nожидаемое: "+batchSize + "\nактуальное:"+jdbcTransService.amount);
+        Assert.isTrue(transService.calls==0, "SaveService передал транзакции в TransService при способе записи jdbc");
+    }
+
     /**
      * Наследник TransService с переопределенным методом saveAll подключен в конфигурации для этого тестового класса
      * вместо оригинального TransService для считывания данных полученных от SaveService
@@ -238,22 +446,63 @@ public class SaveServiceTests {
 
         int calls = 0; // Количество удачных вызовов метода saveAll
         int amount;    // Количество переданных транзакций
+        Set<Integer> poison = new HashSet<>(); // Порядковые номера транзакций, с которыми запись не удается
+        Set<Integer> invalid = new HashSet<>(); // Порядковые номера транзакций, нарушающих ограничения БД
+        int outage;    // Количество вызовов, при которых БД недоступна
+        volatile CountDownLatch hold; // Если задан, запись ожидает его открытия
+        @Autowired
+        RetryPolicyService policy;
         public int saveAll(List<Trans> transactions) {
             if (null==transactions || transactions.isEmpty()) {
                 calls++;
                 return 0;
             }
+            if (null != hold) {
+                try {
+                    hold.await();
+                } catch (InterruptedException e) {/*пустое*/}
+            }
+            if (outage > 0) {
+                outage--;
+                policy.failed(new SQLNonTransientConnectionException("Communications link failure"));
+                calls++;
+                return 0;
+            }
             // Специальное условие для одного из тестов
             if (transactions.get(0).getId()==-1) {
                 calls++;
                 return -1;
             }
+            for (Trans transaction : transactions) {
+                if (poison.contains(transaction.getSerial())) {
+                    calls++;
+                    return 0;
+                }
+                if (invalid.contains(transaction.getSerial())) {
+                    policy.failed(new SQLIntegrityConstraintViolationException("Duplicate entry", "23000", 1062));
+                    calls++;
+                    return 0;
+                }
+            }
             amount = transactions.size();
             calls++;
             return amount;
         }
     }
 
+    /**
+     * Наследник JdbcTransService с переопределенным методом saveAll для считывания данных полученных от SaveService
+     */
+    @Service
+    public static class JdbcTransServiceT extends JdbcTransService {
+
+        int amount;    // Количество переданных транзакций
+        public int saveAll(List<Trans> transactions) {
+            amount += transactions.size();
+            return transactions.size();
+        }
+    }
+
     /**
      * Отдельная конфигурация с заглушками вместо неиспользуемых компонентов приложения и заменой TransService
      * на его наследника с переопределенным методом saveAll
@@ -264,36 +513,49 @@ public class SaveServiceTests {
 
         @Bean
         public EntityManagerFactory getEntityManagerFactory() {
-            @MockitoSettings
             EntityManagerFactory entityManagerFactory = Mockito.mock(EntityManagerFactory.class);
             return entityManagerFactory;
         }
         @Bean
         public EntityManager getEntityManager() {
-            @MockitoSettings
             EntityManager entityManager = Mockito.mock(EntityManager.class);
             return entityManager;
         }
         @Bean
+        public JdbcTemplate jdbcTemplate() {
+            JdbcTemplate jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+            return jdbcTemplate;
+        }
+        @Bean
         public TransServiceT transService() {
             TransServiceT transService = new TransServiceT();
             return transService;
         }
         @Bean
+        public JdbcTransServiceT jdbcTransService() {
+            return new JdbcTransServiceT();
+        }
+        @Bean
+        public DimensionService dimensionService() {
+            return new DimensionService();
+        }
+        @Bean
+        public QueryService queryService() {
+            QueryService queryService = Mockito.mock(QueryService.class);
+            return queryService;
+        }
+        @Bean
         public TransRepository transRepository() {
-            @MockitoSettings
             TransRepository transRepository = Mockito.mock(TransRepository.class);
             return transRepository;
         }
         @Bean
         public ClientRepository clientRepository() {
-            @MockitoSettings
             ClientRepository clientRepository = Mockito.mock(ClientRepository.class);
             return clientRepository;
         }
         @Bean
         public PlaceRepository placeRepository() {
-            @MockitoSettings
             PlaceRepository placeRepository = Mockito.mock(PlaceRepository.class);
             return placeRepository;
         }
@@ -302,6 +564,26 @@ public class SaveServiceTests {
             return new StoreService();
         }
         @Bean
+        public BatchSizeService batchSizeService() {
+            return new BatchSizeService();
+        }
+        @Bean
+        public RejectService rejectService() {
+            return new RejectService();
+        }
+        @Bean
+        public RetryPolicyService retryPolicyService() {
+            return new RetryPolicyService();
+        }
+        @Bean
+        public CircuitBreakerService circuitBreakerService() {
+            return new CircuitBreakerService();
+        }
+        @Bean
+        public CheckpointService checkpointService() {
+            return new CheckpointService();
+        }
+        @Bean
         public SaveService saveService() {
             return new SaveService();
         }
@@ -3,6 +3,7 @@ package com.dnsabr.vad.ukrsib.services;
 import com.dnsabr.vad.ukrsib.models.Client;
 import com.dnsabr.vad.ukrsib.models.Place;
 import com.dnsabr.vad.ukrsib.models.Trans;
+import com.dnsabr.vad.ukrsib.utils.TransKeyGenerator;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -21,7 +22,6 @@ import org.springframework.util.Assert;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -46,11 +46,11 @@ public class StoreServiceTests {
      */
     @Before
     public void setUp() {
-        ReflectionTestUtils.invokeMethod(StoreService.class,"doTerminate");
-        ReflectionTestUtils.setField(StoreService.class, "parserDone", false);
-        ReflectionTestUtils.setField(StoreService.class, "terminated", false);
-        ReflectionTestUtils.setField(StoreService.class, "countErrorsBeforeShutdown", new AtomicInteger(0));
-        ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).clear();
+        ReflectionTestUtils.invokeMethod(store,"doTerminate");
+        ReflectionTestUtils.setField(store, "parserDone", false);
+        ReflectionTestUtils.setField(store, "terminated", false);
+        ReflectionTestUtils.setField(store, "countErrorsBeforeShutdown", new AtomicInteger(0));
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
     }
 
     /**
@@ -59,11 +59,11 @@ public class StoreServiceTests {
      */
     @After
     public void tearDown() {
-        ReflectionTestUtils.invokeMethod(StoreService.class,"doTerminate");
-        ReflectionTestUtils.setField(StoreService.class, "parserDone", false);
-        ReflectionTestUtils.setField(StoreService.class, "terminated", false);
-        ReflectionTestUtils.setField(StoreService.class, "countErrorsBeforeShutdown", new AtomicInteger(0));
-        ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).clear();
+        ReflectionTestUtils.invokeMethod(store,"doTerminate");
+        ReflectionTestUtils.setField(store, "parserDone", false);
+        ReflectionTestUtils.setField(store, "terminated", false);
+        ReflectionTestUtils.setField(store, "countErrorsBeforeShutdown", new AtomicInteger(0));
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
     }
 
     /**
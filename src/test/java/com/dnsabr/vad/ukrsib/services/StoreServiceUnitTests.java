@@ -1,6 +1,8 @@
 package com.dnsabr.vad.ukrsib.services;
 
 import com.dnsabr.vad.ukrsib.models.*;
+import com.dnsabr.vad.ukrsib.utils.RingBuffer;
+import com.dnsabr.vad.ukrsib.utils.TransKeyGenerator;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -12,7 +14,6 @@ import org.springframework.util.Assert;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -33,14 +34,15 @@ public class StoreServiceUnitTests {
      */
     @Before
     public void setUp() {
-        ReflectionTestUtils.invokeMethod(StoreService.class,"doTerminate");
-        ReflectionTestUtils.setField(StoreService.class, "parserDone", false);
-        ReflectionTestUtils.setField(StoreService.class, "terminated", false);
-        ReflectionTestUtils.setField(StoreService.class, "countErrorsBeforeShutdown", new AtomicInteger(0));
-        ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).clear();
         ReflectionTestUtils.setField(store, "batchSize", 4);
         ReflectionTestUtils.setField(store, "batchAmount", 100);
         ReflectionTestUtils.setField(store, "errorsBeforeTerminate", 10000);
+        store.init();
+        ReflectionTestUtils.invokeMethod(store,"doTerminate");
+        ReflectionTestUtils.setField(store, "parserDone", false);
+        ReflectionTestUtils.setField(store, "terminated", false);
+        ReflectionTestUtils.setField(store, "countErrorsBeforeShutdown", new AtomicInteger(0));
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
     }
 
     /**
@@ -48,11 +50,11 @@ public class StoreServiceUnitTests {
      */
     @After
     public void tearDown() {
-        ReflectionTestUtils.invokeMethod(StoreService.class,"doTerminate");
-        ReflectionTestUtils.setField(StoreService.class, "parserDone", false);
-        ReflectionTestUtils.setField(StoreService.class, "terminated", false);
-        ReflectionTestUtils.setField(StoreService.class, "countErrorsBeforeShutdown", new AtomicInteger(0));
-        ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).clear();
+        ReflectionTestUtils.invokeMethod(store,"doTerminate");
+        ReflectionTestUtils.setField(store, "parserDone", false);
+        ReflectionTestUtils.setField(store, "terminated", false);
+        ReflectionTestUtils.setField(store, "countErrorsBeforeShutdown", new AtomicInteger(0));
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
     }
 
     /**
@@ -99,6 +101,43 @@ public class StoreServiceUnitTests {
         thread.interrupt();
     }
 
+    /**
+     * Тест метода добавления пакета транзакций в хранилище StoreService.addAll
+     * Когда добавляем пакет транзакций, все транзакции пакета находятся в хранилище в том же порядке,
+     * а при переполнении хранилища пакет не добавляется до освобождения места
+     */
+    @Test
+    public void addBatchTest() {
+        Client client = Client.newClient("Ivan","Ivanoff","Ivanoff","6868686868").orElse(null);
+        Place place = Place.newPlace("A PLACE 000068").orElse(null);
+        List<Trans> batch = new ArrayList<>();
+        for (int i=0;i<batchSize;i++) {
+            batch.add(Trans.newTrans(new BigDecimal("10.01"),"UAH","123456****1234",client,place,680+i).orElse(null));
+        }
+        store.addAll(batch);
+        List<Trans> transListActual = new ArrayList<>();
+        store.get(transListActual);
+        Assert.isTrue(transListActual.equals(batch), "Хранилище возвратило неверный пакет транзакций!"
+                +"\nожидаемый: "+batch + "\nактуальный:"+transListActual);
+
+        Thread thread = new Thread(()-> {
+            for (int i=0;i<1000;i++) {
+                store.addAll(batch);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            TimeUnit.MILLISECONDS.sleep(100);
+        } catch (InterruptedException e) {/*пустое*/}
+        int storeSizeExpected = batchSize*100;
+        int storeSizeActual = store.getSize();
+        Assert.isTrue(storeSizeActual<=storeSizeExpected
+                ,"В хранилище добавлено транзакций больше, чем может вместить\nмаксимальное:"+storeSizeExpected
+                        +"\nтекущее :    " +storeSizeActual);
+        thread.interrupt();
+    }
+
     /**
      * Тест метода добавления транзакций в хранилище StoreService.add при получении неправильных данных
      * Если передать недопустимые параметры, то в хранилище не прибавится новых объектов
@@ -133,34 +172,40 @@ public class StoreServiceUnitTests {
     }
 
     /**
-     * Тест метода добавления списка транзакций в хранилище StoreService.addDueToError независимо от достижения
-     * максимальной емкости хранилище
-     * Когда добавляем список транзакций в хранилище при его переполнении с помощью метода StoreService.addDueToErrorTest,
-     * транзакции из списка там находятся
+     * Тест метода возврата транзакций в хранилище StoreService.addDueToError при заполненном хранилище
+     * Когда хранилище заполнено, выданные из него транзакции возвращаются без ожидания, а место выданных транзакций
+     * не занимается новыми транзакциями до возврата или освобождения методом StoreService.release
      */
     @Test
-    public void addDueToErrorNoLimitTest() {
+    public void addDueToErrorReservedTest() throws InterruptedException {
         Client client = Client.newClient("Ivan","Ivanoff","Ivanoff","6363636363").orElse(null);
         Place place = Place.newPlace("A PLACE 000063").orElse(null);
         Trans transactionExpected = Trans.newTrans(new BigDecimal("10.01"),"UAH","123456****1234",client,place,63).orElse(null);
-        List<Trans> transactionsExpected = new ArrayList<>();
-        transactionsExpected.add(transactionExpected);
-        Thread thread = new Thread(()-> {
-            for (int i=0;i<150*batchSize;i++) {
-                store.addDueToError(transactionsExpected);
-            }
-        });
+        int capacity = batchSize*100;
+        for (int i=0;i<capacity;i++) {
+            store.add(transactionExpected);
+        }
+        List<Trans> batch = new ArrayList<>();
+        store.get(batch);
+        Thread thread = new Thread(()-> store.add(transactionExpected));
         thread.setDaemon(true);
         thread.start();
-        try {
-            TimeUnit.MILLISECONDS.sleep(100);
-        } catch (InterruptedException e) {/*пустое*/}
-        int storeMinSizeExpected = 100*batchSize+1;
-        int storeSizeActual = store.getSize();
-        Assert.isTrue(storeSizeActual>storeMinSizeExpected
-                ,"В хранилище не добавлено транзакций больше, чем оно может вместить\nмаксимальное:"
-                        +storeMinSizeExpected + "\nтекущее :    "+storeSizeActual);
-        thread.interrupt();
+        TimeUnit.MILLISECONDS.sleep(100);
+        Assert.isTrue(thread.isAlive() && store.getSize()==capacity-batchSize
+                ,"Место выданных транзакций занято новой транзакцией: "+store.getSize());
+
+        store.addDueToError(batch);
+        Assert.isTrue(store.getSize()==capacity && thread.isAlive()
+                ,"Выданные транзакции не возвращены в заполненное хранилище: "+store.getSize());
+
+        batch.clear();
+        store.get(batch);
+        store.release(batch.size());
+        thread.join(1000);
+        Assert.isTrue(!thread.isAlive() && store.getSize()==capacity-batchSize+1
+                ,"Новая транзакция не добавлена после освобождения места: "+store.getSize());
+        RingBuffer<Trans> transactions = (RingBuffer<Trans>)ReflectionTestUtils.getField(store,"transactions");
+        Assert.isTrue(transactions.capacity()==capacity, "Изменена емкость хранилища: "+transactions.capacity());
     }
 
     /**
@@ -329,6 +374,69 @@ public class StoreServiceUnitTests {
                         "StoreService.transactions\nожидаемый: 0\nактуальный:"+transactionsSize);
     }
 
+    /**
+     * Тест независимости состояния экземпляров StoreService
+     * Когда создаем другой экземпляр хранилища, его очередь и флаги состояния не зависят от исходного хранилища
+     */
+    @Test
+    public void instanceStateTest() {
+        Client client = Client.newClient("Ivan","Ivanoff","Ivanoff","6969696969").orElse(null);
+        Place place = Place.newPlace("A PLACE 000069").orElse(null);
+        Trans transactionExpected = Trans.newTrans(new BigDecimal("10.01"),"UAH","123456****1234",client,place,69).orElse(null);
+        StoreService job = new StoreService();
+        ReflectionTestUtils.setField(job, "batchSize", batchSize);
+        ReflectionTestUtils.setField(job, "batchAmount", 100);
+        job.init();
+
+        job.add(transactionExpected);
+        Assert.isTrue(job.getSize()==1 && store.getSize()==0
+                ,"Транзакция добавлена не в другой экземпляр хранилища");
+
+        ReflectionTestUtils.invokeMethod(store,"doTerminate");
+        Assert.isTrue(!job.isTerminated() && !job.isParserDone() && job.getSize()==1
+                ,"Закрытие исходного хранилища изменило состояние другого экземпляра");
+        ReflectionTestUtils.invokeMethod(job,"doTerminate");
+        Assert.isTrue(job.isTerminated() && job.getSize()==0
+                ,"Другой экземпляр хранилища не закрыт");
+    }
+
+    /**
+     * Тест упорядоченной выдачи пакетов StoreService.get
+     * Когда включена упорядоченная выдача, пакет выдается только целиком и упорядоченным по первичному ключу, а после
+     * завершения разбора файла выдается оставшаяся часть пакета
+     */
+    @Test
+    public void orderedGetTest() throws InterruptedException {
+        ReflectionTestUtils.setField(store, "ordered", true);
+        Client client = Client.newClient("Ivan","Ivanoff","Ivanoff","7070707070").orElse(null);
+        Place place = Place.newPlace("A PLACE 000070").orElse(null);
+        List<Trans> added = new ArrayList<>();
+        for (int serial : new int[]{5, 3, 4, 1, 2}) {
+            added.add(Trans.newTrans(new BigDecimal("10.01"),"UAH","123456****1234",client,place,serial).orElse(null));
+        }
+        store.add(added.get(0));
+        store.add(added.get(1));
+        List<Trans> batch = new ArrayList<>();
+        Thread writer = new Thread(() -> ReflectionTestUtils.invokeMethod(store, "get", batch, 3));
+        writer.start();
+        TimeUnit.MILLISECONDS.sleep(300);
+        Assert.isTrue(writer.isAlive() && batch.isEmpty(), "Выдан неполный пакет");
+
+        store.add(added.get(2));
+        writer.join(1000);
+        Assert.isTrue(!writer.isAlive() && 3==batch.size(), "Пакет не выдан: " + batch.size());
+        for (int i = 1; i < batch.size(); i++) {
+            Assert.isTrue(batch.get(i-1).getId() < batch.get(i).getId(), "Пакет не упорядочен: " + batch);
+        }
+
+        store.add(added.get(3));
+        store.add(added.get(4));
+        ReflectionTestUtils.invokeMethod(store, "parserDone");
+        List<Trans> rest = new ArrayList<>();
+        ReflectionTestUtils.invokeMethod(store, "get", rest, 3);
+        Assert.isTrue(2==rest.size() && rest.get(0).getId() < rest.get(1).getId(), "Остаток не выдан: " + rest);
+    }
+
     /**
      * Тест метода StoreService.isTerminated
      * Когда запрашиваем закрыто ли хранилище, получаем правильный результат
@@ -2,6 +2,7 @@ package com.dnsabr.vad.ukrsib.services;
 
 import com.dnsabr.vad.ukrsib.models.*;
 import com.dnsabr.vad.ukrsib.repository.*;
+import com.dnsabr.vad.ukrsib.utils.TransKeyGenerator;
 import com.vladmihalcea.sql.SQLStatementCountValidator;
 import org.hibernate.Session;
 import org.junit.After;
@@ -61,11 +62,7 @@ public class TransServiceTests {
      */
     @Before
     public void setUp() {
-        ReflectionTestUtils.invokeMethod(StoreService.class,"doTerminate");
-        ReflectionTestUtils.setField(StoreService.class, "parserDone", false);
-        ReflectionTestUtils.setField(StoreService.class, "terminated", false);
-        ReflectionTestUtils.setField(StoreService.class, "countErrorsBeforeShutdown", new AtomicInteger(0));
-        ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).clear();
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
     }
 
     /**
@@ -73,11 +70,7 @@ public class TransServiceTests {
      */
     @After
     public void tearDown() {
-        ReflectionTestUtils.invokeMethod(StoreService.class,"doTerminate");
-        ReflectionTestUtils.setField(StoreService.class, "parserDone", false);
-        ReflectionTestUtils.setField(StoreService.class, "terminated", false);
-        ReflectionTestUtils.setField(StoreService.class, "countErrorsBeforeShutdown", new AtomicInteger(0));
-        ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).clear();
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
     }
 
     /**
@@ -415,4 +408,154 @@ public class TransServiceTests {
         Assert.isTrue(placesBefore+4==placesAfter,"В базу добавлено неверное количество мест!"
                 +"\nожидаемое: 4"+ "\nактуальное:" +(placesAfter-placesBefore));
     }
+
+    /**
+     * Тест записи в промежуточные таблицы и переноса в таблицы БД (проверка файла за один проход)
+     * Когда транзакции записываются в режиме проверки с промежуточными таблицами, транзакции, клиенты и места
+     *  добавляются только в промежуточные таблицы (транзакции - с названием места вместо идентификатора)
+     * Когда промежуточные таблицы перенесены, клиенты и места добавлены в БД, а транзакции ссылаются
+     *  на идентификаторы своих мест
+     */
+    @Test
+    public void stageAndPromoteTransactionsTest() {
+        ReflectionTestUtils.setField(transService, "doCheck", true);
+        ReflectionTestUtils.setField(transService, "staging", true);
+        try {
+            Assert.isTrue(queryService.createStaging(),"Промежуточная таблица не создана!");
+            long transAmountBefore = transRepository.count();
+            jdbcTemplate.update("delete from transactions where id between 41 and 44;");
+            jdbcTemplate.update("delete from clients where inn='7272727272';");
+            jdbcTemplate.update("delete from places where place in ('A PLACE 23','A PLACE 24');");
+            Client client = Client.newClient("Ivan","Ivanoff","Ivanoff","7272727272").orElse(null);
+            Place place = Place.newPlace("A PLACE 23").orElse(null);
+            Place otherPlace = Place.newPlace("A PLACE 24").orElse(null);
+            List<Trans> transactions = new ArrayList<>();
+            for (int i=41;i<=44;i++) {
+                Trans transaction = Trans.newTrans(new BigDecimal("10.01"),"UAH","123456****1234",client,
+                        i%2==0 ? place : otherPlace,i).orElse(null);
+                ReflectionTestUtils.setField(transaction,"id",i);
+                transactions.add(transaction);
+            }
+
+            Assert.isTrue(4==transService.saveAll(transactions),"Транзакции не записаны в промежуточную таблицу!");
+            Assert.isTrue(transAmountBefore==transRepository.count(),"Транзакции записаны в таблицу transactions до переноса");
+            Assert.isTrue(!clientRepository.findById("7272727272").isPresent(),"Клиент добавлен в БД до переноса");
+            Assert.isTrue(0==jdbcTemplate.queryForObject("select count(*) from places where place in ('A PLACE 23','A PLACE 24');",
+                    Integer.class),"Места добавлены в БД до переноса");
+            Assert.isTrue(1==jdbcTemplate.queryForObject("select count(*) from " + QueryService.CLIENTS_STAGING_TABLE +
+                    " where inn='7272727272';", Integer.class),"Клиент не добавлен в промежуточную таблицу");
+            Assert.isTrue(2==jdbcTemplate.queryForObject("select count(*) from " + QueryService.PLACES_STAGING_TABLE +
+                    ";", Integer.class),"Места не добавлены в промежуточную таблицу");
+            List<Map<String,Object>> staged = jdbcTemplate.queryForList("select * from " + QueryService.STAGING_TABLE
+                    + " where id between 41 and 44 order by id;");
+            Assert.isTrue(4==staged.size(),"Неверное количество строк промежуточной таблицы\nожидаемое: 4"
+                    + "\nактуальное:" + staged.size());
+            Map<String,Object> row = staged.get(1);
+            Assert.isTrue("A PLACE 23".equals(row.get("place")) && "7272727272".equals(row.get("client_id"))
+                            && "123456****1234".equals(row.get("card")) && "UAH".equals(row.get("currency"))
+                            && new BigDecimal("10.01").compareTo((BigDecimal) row.get("amount"))==0
+                    ,"Неверные данные строки промежуточной таблицы: " + row);
+
+            int promoted = queryService.promoteStaging();
+            Assert.isTrue(4==promoted,"Неверное количество перенесенных транзакций\nожидаемое: 4\nактуальное:" + promoted);
+            Assert.isTrue(transAmountBefore+4==transRepository.count(),"Количество транзакций не совпадает");
+            Assert.isTrue(clientRepository.findById("7272727272").isPresent(),"Клиент не перенесен в БД");
+            Integer placeIdExpected = jdbcTemplate.queryForObject("select id from places where place='A PLACE 23';", Integer.class);
+            Integer placeIdActual = jdbcTemplate.queryForObject("select place_id from transactions where id=42;", Integer.class);
+            Assert.isTrue(null!=placeIdActual && placeIdActual.equals(placeIdExpected),"Транзакция ссылается не на свое место"
+                    + "\nожидаемое: " + placeIdExpected + "\nактуальное:" + placeIdActual);
+        } finally {
+            queryService.dropStaging();
+            ReflectionTestUtils.setField(transService, "doCheck", false);
+            ReflectionTestUtils.setField(transService, "staging", false);
+        }
+    }
+
+    /**
+     * Тест проверки файла с ошибками за один проход
+     * Когда транзакции файла записаны в промежуточные таблицы, но файл не прошел проверку и таблицы удалены без переноса,
+     *  имеющийся в БД клиент не изменен, а новые места и транзакции не добавлены в БД
+     */
+    @Test
+    public void stageInvalidFileLeavesTablesUntouchedTest() {
+        ReflectionTestUtils.setField(transService, "doCheck", true);
+        ReflectionTestUtils.setField(transService, "staging", true);
+        try {
+            jdbcTemplate.update("delete from transactions where id between 45 and 46;");
+            jdbcTemplate.update("delete from places where place='A PLACE 25';");
+            jdbcTemplate.update("insert ignore into clients (first_name, last_name, middle_name, inn) " +
+                    "values ('Petr','Petroff','Petrovich','7373737373');");
+            jdbcTemplate.update("update clients set first_name='Petr', last_name='Petroff', middle_name='Petrovich' " +
+                    "where inn='7373737373';");
+            Assert.isTrue(queryService.createStaging(),"Промежуточная таблица не создана!");
+            long transAmountBefore = transRepository.count();
+            Client client = Client.newClient("Pavel","Pavloff","Pavlovich","7373737373").orElse(null);
+            Place place = Place.newPlace("A PLACE 25").orElse(null);
+            List<Trans> transactions = new ArrayList<>();
+            for (int i=45;i<=46;i++) {
+                Trans transaction = Trans.newTrans(new BigDecimal("10.01"),"UAH","123456****1234",client,place,i)
+                        .orElse(null);
+                ReflectionTestUtils.setField(transaction,"id",i);
+                transactions.add(transaction);
+            }
+
+            Assert.isTrue(2==transService.saveAll(transactions),"Транзакции не записаны в промежуточную таблицу!");
+            // Файл не прошел проверку: промежуточные таблицы удаляются без переноса
+            queryService.dropStaging();
+
+            Map<String,Object> row = jdbcTemplate.queryForMap("select first_name, last_name, middle_name from clients " +
+                    "where inn='7373737373';");
+            Assert.isTrue("Petr".equals(row.get("first_name")) && "Petroff".equals(row.get("last_name"))
+                    && "Petrovich".equals(row.get("middle_name")),"Имеющийся в БД клиент изменен: " + row);
+            Assert.isTrue(0==jdbcTemplate.queryForObject("select count(*) from places where place='A PLACE 25';",
+                    Integer.class),"Место файла с ошибками добавлено в БД");
+            Assert.isTrue(transAmountBefore==transRepository.count(),"Транзакции файла с ошибками добавлены в БД");
+        } finally {
+            queryService.dropStaging();
+            ReflectionTestUtils.setField(transService, "doCheck", false);
+            ReflectionTestUtils.setField(transService, "staging", false);
+        }
+    }
+
+    /**
+     * Тест записи через StatelessSession
+     * Когда добавляются новые транзакции, в БД добавляются транзакции и по одному разу клиенты и места
+     * Когда повторно добавляются транзакции, измененные в БД поля восстанавливаются, а новые строки не добавляются
+     */
+    @Test
+    public void saveTransactionsWithStatelessSessionAndRepeatTest() {
+        String writer = (String) ReflectionTestUtils.getField(transService, "writer");
+        ReflectionTestUtils.setField(transService, "writer", "stateless");
+        try {
+            long transAmountBefore = transRepository.count();
+            Client client = Client.newClient("Ivan","Ivanoff","Ivanoff","5555555555").orElse(null);
+            Place place = Place.newPlace("A PLACE 17").orElse(null);
+            Place otherPlace = Place.newPlace("A PLACE 18").orElse(null);
+            List<Trans> transactions = new ArrayList<>();
+            for (int i=31;i<=34;i++) {
+                Trans transaction = Trans.newTrans(new BigDecimal("10.01"),"UAH","123456****1234",client,
+                        i%2==0 ? place : otherPlace,i).orElse(null);
+                ReflectionTestUtils.setField(transaction,"id",i);
+                transactions.add(transaction);
+            }
+            Assert.isTrue(4==transService.saveAll(transactions),"Транзакции не добавлены в БД!");
+            Assert.isTrue(transAmountBefore+4==transRepository.count(),"Количество транзакций не совпадает");
+            Assert.isTrue(clientRepository.findById("5555555555").isPresent(),"Клиент не добавлен в БД");
+            Integer placeIdExpected = jdbcTemplate.queryForObject("select id from places where place='A PLACE 17';", Integer.class);
+            Integer placeIdActual = jdbcTemplate.queryForObject("select place_id from transactions where id=32;", Integer.class);
+            Assert.isTrue(null!=placeIdActual && placeIdActual.equals(placeIdExpected),"Транзакция ссылается не на свое место"
+                    + "\nожидаемое: " + placeIdExpected + "\nактуальное:" + placeIdActual);
+
+            // Имитация изменения внешним источником части данных в БД
+            jdbcTemplate.execute("update transactions set amount=111 where id=33");
+
+            Assert.isTrue(4==transService.saveAll(transactions),"Транзакции не добавлены в БД повторно!");
+            Assert.isTrue(transAmountBefore+4==transRepository.count(),"При повторной вставке добавлены новые транзакции");
+            BigDecimal amountActual = jdbcTemplate.queryForObject("select amount from transactions where id=33;", BigDecimal.class);
+            Assert.isTrue(null!=amountActual && new BigDecimal("10.01").compareTo(amountActual)==0
+                    ,"Не было выполнено обновление неключевого поля amount\nожидаемое: 10.01\nактуальное:" + amountActual);
+        } finally {
+            ReflectionTestUtils.setField(transService, "writer", writer);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,109 @@
+package com.dnsabr.vad.ukrsib.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.Assert;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit-тесты WriterPoolService
+ * Потоки записи ожидают разрешения на завершение (release), хранилище всегда содержит 100 транзакций
+ */
+@RunWith(JUnit4.class)
+public class WriterPoolServiceUnitTests {
+
+    private final WriterPoolService pool = new WriterPoolService();
+    private final SaveService saveService = Mockito.mock(SaveService.class);
+    private final StoreService store = Mockito.mock(StoreService.class);
+    private final LoadJob job = new LoadJob("Java_test.xml", false, store, null, null, pool);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    /**
+     * Метод для выполнения действий перед каждым тестом класса
+     */
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(pool, "saveService", saveService);
+        ReflectionTestUtils.setField(pool, "breaker", new CircuitBreakerService());
+        ReflectionTestUtils.setField(pool, "maxWorkers", 3);
+        ReflectionTestUtils.setField(pool, "maxLatency", 1000L);
+        ReflectionTestUtils.setField(pool, "batchSize", 2);
+        Mockito.when(store.getSize()).thenReturn(100);
+        Mockito.doAnswer(invocation -> {
+            release.await();
+            return false;
+        }).when(saveService).save(ArgumentMatchers.any(), ArgumentMatchers.any());
+        pool.start(job);
+    }
+
+    /**
+     * Метод для выполнения действий после каждого теста класса
+     */
+    @After
+    public void tearDown() {
+        release.countDown();
+        pool.shutdown();
+    }
+
+    /**
+     * Тест добавления и удаления потока записи по пропускной способности
+     * Когда в хранилище накоплены транзакции, добавляется поток записи. Когда добавленный поток не увеличил
+     * пропускную способность, он завершается перед запросом нового пакета
+     */
+    @Test
+    public void growAndRevertWithoutGainTest() {
+        Assert.isTrue(1 == pool.getWorkers(), "Первый поток записи не запущен");
+        pool.committed(1000, TimeUnit.MILLISECONDS.toNanos(10));
+        pool.adjust();
+        Assert.isTrue(2 == pool.getWorkers() && 2 == pool.getPeakWorkers(), "Поток записи не добавлен");
+
+        pool.adjust();
+        Assert.isTrue(pool.retire() && !pool.retire(), "Лишний поток записи не завершен");
+        Assert.isTrue(1 == pool.getWorkers() && 2 == pool.getPeakWorkers(), "Неверное количество потоков записи");
+    }
+
+    /**
+     * Тест уменьшения количества потоков записи при неудачных попытках
+     * Когда были неудачные попытки записи, количество потоков уменьшается и новые потоки не добавляются
+     * в течение нескольких периодов. Последний поток записи не завершается
+     */
+    @Test
+    public void shrinkOnFailuresTest() {
+        pool.committed(1000, TimeUnit.MILLISECONDS.toNanos(10));
+        pool.adjust();
+        pool.committed(5000, TimeUnit.MILLISECONDS.toNanos(10));
+        pool.adjust();
+        Assert.isTrue(2 == pool.getWorkers(), "Поток записи не добавлен");
+
+        pool.failed();
+        pool.adjust();
+        Assert.isTrue(pool.retire() && !pool.retire(), "Поток записи не завершен при неудачных попытках");
+        pool.committed(1000, TimeUnit.MILLISECONDS.toNanos(5000));
+        pool.adjust();
+        pool.adjust();
+        Assert.isTrue(1 == pool.getWorkers() && !pool.retire(), "Поток записи добавлен или завершен последний поток");
+    }
+
+    /**
+     * Тест завершения потоков записи
+     * Когда потоки записи завершают работу, количество потоков уменьшается до 0
+     */
+    @Test
+    public void workersFinishTest() throws InterruptedException {
+        pool.committed(1000, TimeUnit.MILLISECONDS.toNanos(10));
+        pool.adjust();
+        release.countDown();
+        for (int i = 0; i < 100 && pool.getWorkers() > 0; i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        Assert.isTrue(0 == pool.getWorkers() && 2 == pool.getPeakWorkers(), "Потоки записи не завершены");
+        Mockito.verify(saveService, Mockito.times(2)).save(job, pool);
+    }
+}
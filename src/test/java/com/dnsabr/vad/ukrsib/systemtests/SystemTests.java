@@ -6,6 +6,7 @@ import com.dnsabr.vad.ukrsib.models.*;
 import com.dnsabr.vad.ukrsib.repository.*;
 import com.dnsabr.vad.ukrsib.services.*;
 import com.dnsabr.vad.ukrsib.utils.Utils;
+import com.dnsabr.vad.ukrsib.utils.TransKeyGenerator;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -32,7 +33,6 @@ import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -52,8 +52,6 @@ public class SystemTests {
     @Autowired
     private TransRepository transRepository;
     @Autowired
-    private StoreService store;
-    @Autowired
     private MainService mainService;
     @Autowired
     private JdbcTemplate jdbcTemplate;
@@ -61,8 +59,8 @@ public class SystemTests {
     private CacheManager cacheManager;
     @PersistenceContext
     private EntityManager entityManager;
-    @Autowired
-    private ParseService parseService;
+    private LoadJob job;
+    private StoreService store;
 
     /**
      * Метод для выполнения действий перед каждым тестом класса
@@ -70,11 +68,13 @@ public class SystemTests {
      */
     @Before
     public void setUp() {
-        ReflectionTestUtils.invokeMethod(StoreService.class,"doTerminate");
-        ReflectionTestUtils.setField(StoreService.class, "parserDone", false);
-        ReflectionTestUtils.setField(StoreService.class, "terminated", false);
-        ReflectionTestUtils.setField(StoreService.class, "countErrorsBeforeShutdown", new AtomicInteger(0));
-        ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).clear();
+        job = mainService.newJob();
+        store = job.getStore();
+        ReflectionTestUtils.invokeMethod(store,"doTerminate");
+        ReflectionTestUtils.setField(store, "parserDone", false);
+        ReflectionTestUtils.setField(store, "terminated", false);
+        ReflectionTestUtils.setField(store, "countErrorsBeforeShutdown", new AtomicInteger(0));
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
     }
 
     /**
@@ -83,11 +83,11 @@ public class SystemTests {
      */
     @After
     public void tearDown() {
-        ReflectionTestUtils.invokeMethod(StoreService.class,"doTerminate");
-        ReflectionTestUtils.setField(StoreService.class, "parserDone", false);
-        ReflectionTestUtils.setField(StoreService.class, "terminated", false);
-        ReflectionTestUtils.setField(StoreService.class, "countErrorsBeforeShutdown", new AtomicInteger(0));
-        ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).clear();
+        ReflectionTestUtils.invokeMethod(store,"doTerminate");
+        ReflectionTestUtils.setField(store, "parserDone", false);
+        ReflectionTestUtils.setField(store, "terminated", false);
+        ReflectionTestUtils.setField(store, "countErrorsBeforeShutdown", new AtomicInteger(0));
+        ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).clear();
     }
 
     /**
@@ -112,7 +112,7 @@ public class SystemTests {
     public void dataAccuracyTest() {
 
         // Запуск основного приложения
-        mainService.start();
+        mainService.start(job);
 
         // Очистка кэш 2-го уровня и entityManager
         cacheManager.getCacheNames().forEach(cache->cacheManager.getCache(cache).clear());
@@ -166,7 +166,8 @@ public class SystemTests {
     @Test
     public void servicesStartsAndStopedOnDemandTest() {
 
-        ReflectionTestUtils.setField(parseService,"fileName","Java_test_12000.xml");
+        job = mainService.newJob("Java_test_12000.xml", job.getRejects().getFileName());
+        store = job.getStore();
 
         // Установка уровня логирования
         LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
@@ -189,7 +190,7 @@ public class SystemTests {
         System.setOut(new PrintStream(outputStreamCaptor));
 
         // Запускаем основное приложение
-        mainService.start();
+        mainService.start(job);
 
         // Возврат вывода в консоль
         System.setOut(standardOut);
@@ -210,7 +211,7 @@ public class SystemTests {
 
 
         int parserCountExpected = 162000;
-        int parserCountActual = ((Map<Long,Integer>) ReflectionTestUtils.getField(Trans.class,"transactions")).size();
+        int parserCountActual = (int) ((TransKeyGenerator) ReflectionTestUtils.getField(Trans.class,"keys")).getCount();
         long amountOfTransactionsExpected = 162000;
         long amountOfTransactionsActual = jdbcTemplate.queryForObject("select count(*) from transactions;", Long.class);
 
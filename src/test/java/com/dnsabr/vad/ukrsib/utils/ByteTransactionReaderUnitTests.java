@@ -0,0 +1,106 @@
+package com.dnsabr.vad.ukrsib.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.util.Assert;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit-тесты ByteTransactionReader
+ */
+@RunWith(JUnit4.class)
+public class ByteTransactionReaderUnitTests {
+
+    /**
+     * Тест разбора файлов данных
+     * Когда разбираем файлы данных, получаем те же значения, что и при разборе с помощью StAX,
+     * в том числе при маленьком буфере чтения
+     */
+    @Test
+    public void sameAsStaxTest() throws IOException, XMLStreamException {
+        for (String fileName : new String[]{"Java_test.xml", "Java_test_3000.xml", "Java_test_nulls.xml"}) {
+            List<String> expected = readAll(new StaxTransactionReader(new FileInputStream(fileName)));
+            List<String> actual = readAll(new ByteTransactionReader(new FileInputStream(fileName)));
+            Assert.isTrue(expected.equals(actual), "Результат разбора файла " + fileName + " отличается от StAX");
+            actual = readAll(new ByteTransactionReader(new FileInputStream(fileName), 16));
+            Assert.isTrue(expected.equals(actual), "Результат разбора файла " + fileName
+                    + " с маленьким буфером отличается от StAX");
+        }
+    }
+
+    /**
+     * Тест разбора блоков с неизвестными конструкциями
+     * Когда блок содержит CDATA, сущности, комментарии, неизвестные теги или пустые теги, блок разбирается с помощью
+     * StAX и значения совпадают с результатом StAX
+     */
+    @Test
+    public void fallbackToStaxTest() throws IOException, XMLStreamException {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><transactions>" +
+                "<transaction><place><![CDATA[A <PLACE> 1]]></place><amount>1.5</amount><currency>UAH</currency>" +
+                "<card>123456****1234</card><client><firstName>Ivan</firstName><lastName>Iv&amp;noff</lastName>" +
+                "<middleName>Ivanoff</middleName><inn>1234567890</inn></client></transaction>\n" +
+                "<transaction><!-- комментарий --><place>Место</place><amount/><extra><inn>1</inn></extra></transaction>" +
+                "<transaction>\n <place>Простое место</place>\n <client>\n  <inn>0987654321</inn>\n </client>\n</transaction>" +
+                "</transactions>";
+
+        List<String> expected = readAll(new StaxTransactionReader(stream(xml)));
+        ByteTransactionReader reader = new ByteTransactionReader(stream(xml));
+        List<String> actual = readAll(reader);
+
+        Assert.isTrue(expected.equals(actual), "Результат разбора отличается от StAX\nожидаемый: " + expected
+                + "\nактуальный:" + actual);
+        Assert.isTrue(reader.getFallbacks() == 2, "Неверное количество блоков разобранных с помощью StAX"
+                + "\nожидаемое: 2\nактуальное:" + reader.getFallbacks());
+    }
+
+    /**
+     * Тест позиции блоков в потоке
+     * Когда читаем блок, позиция начала блока указывает на тег <transaction> в потоке
+     */
+    @Test
+    public void offsetTest() throws IOException, XMLStreamException {
+        String xml = "<transactions>\n<transaction><place>Місце</place></transaction>\n<transaction><place>B</place></transaction></transactions>";
+        byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        ByteTransactionReader reader = new ByteTransactionReader(new ByteArrayInputStream(bytes), 20);
+        TransactionFields fields = new TransactionFields();
+        while (reader.next(fields)) {
+            String tag = new String(bytes, (int) reader.getOffset(), "<transaction>".length(), StandardCharsets.UTF_8);
+            Assert.isTrue("<transaction>".equals(tag), "Позиция блока указывает не на тег <transaction>: " + tag);
+            String end = new String(bytes, (int) reader.getEndOffset() - "</transaction>".length(),
+                    "</transaction>".length(), StandardCharsets.UTF_8);
+            Assert.isTrue("</transaction>".equals(end), "Позиция конца блока указывает не на тег </transaction>: " + end);
+        }
+    }
+
+    /**
+     * Тест незавершенного блока
+     * Когда файл заканчивается внутри блока <transaction>, получаем исключение
+     */
+    @Test(expected = XMLStreamException.class)
+    public void unexpectedEndTest() throws IOException, XMLStreamException {
+        readAll(new ByteTransactionReader(stream("<transactions><transaction><place>A</place>")));
+    }
+
+    private List<String> readAll(TransactionReader reader) throws IOException, XMLStreamException {
+        List<String> result = new ArrayList<>();
+        try (reader) {
+            TransactionFields fields = new TransactionFields();
+            while (reader.next(fields)) {
+                result.add(fields.toString());
+            }
+        }
+        return result;
+    }
+
+    private ByteArrayInputStream stream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,80 @@
+package com.dnsabr.vad.ukrsib.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit-тесты ConcurrentLongSet
+ */
+@RunWith(JUnit4.class)
+public class ConcurrentLongSetUnitTests {
+
+    /**
+     * Тест добавления и проверки элементов
+     * Когда добавляются элементы (в том числе 0 и повторные), все они находятся, а повторные не добавляются.
+     * Проверки учитываются как попадания и промахи
+     */
+    @Test
+    public void addAndContainsTest() {
+        ConcurrentLongSet set = new ConcurrentLongSet(10000);
+        for (long inn = 1000000000L; inn < 1000005000L; inn++) {
+            Assert.isTrue(set.add(inn), "Элемент не добавлен: " + inn);
+        }
+        Assert.isTrue(set.add(0) && !set.add(0) && !set.add(1000000000L), "Добавлен повторный элемент");
+        Assert.isTrue(5001 == set.size(), "Неверное количество элементов: " + set);
+        for (long inn = 1000000000L; inn < 1000005000L; inn++) {
+            Assert.isTrue(set.contains(inn), "Элемент не найден: " + inn);
+        }
+        Assert.isTrue(set.contains(0) && !set.contains(1000005000L), "Неверный результат проверки");
+        Assert.isTrue(5001 == set.getHits() && 1 == set.getMisses(), "Неверные счетчики: " + set);
+    }
+
+    /**
+     * Тест ограничения количества элементов
+     * Когда множество заполнено, новые элементы не добавляются, а имеющиеся сохраняются. При емкости 0 элементы
+     * не добавляются
+     */
+    @Test
+    public void capacityTest() {
+        ConcurrentLongSet set = new ConcurrentLongSet(32);
+        int added = 0;
+        for (long i = 1; i <= 1000; i++) {
+            added += set.add(i) ? 1 : 0;
+        }
+        Assert.isTrue(added == set.size() && set.size() <= set.getCapacity() && 32 == set.getCapacity()
+                , "Превышена емкость: " + set);
+        Assert.isTrue(!new ConcurrentLongSet(0).add(1) && !new ConcurrentLongSet(0).isEnabled(), "Добавлен элемент");
+        set.clear();
+        Assert.isTrue(0 == set.size() && !set.contains(1) && set.add(1), "Множество не очищено");
+    }
+
+    /**
+     * Тест одновременного добавления элементов несколькими потоками
+     * Когда потоки добавляют пересекающиеся диапазоны элементов, каждый элемент добавляется ровно один раз
+     */
+    @Test
+    public void concurrentAddTest() throws InterruptedException {
+        ConcurrentLongSet set = new ConcurrentLongSet(100000);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (long i = 1; i <= 20000; i++) {
+                    set.add(i * 7919);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.isTrue(20000 == set.size(), "Неверное количество элементов: " + set);
+        for (long i = 1; i <= 20000; i++) {
+            Assert.isTrue(set.contains(i * 7919), "Элемент не найден: " + i * 7919);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.dnsabr.vad.ukrsib.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.util.Assert;
+
+/**
+ * Unit-тесты DictionaryCache
+ */
+@RunWith(JUnit4.class)
+public class DictionaryCacheUnitTests {
+
+    /**
+     * Тест вытеснения давно не использованных записей
+     * Когда записей больше емкости, размер словаря не превышает емкость, а запись, к которой обращались, сохраняется
+     */
+    @Test
+    public void evictLeastRecentlyUsedTest() {
+        DictionaryCache<Integer, Integer> cache = new DictionaryCache<>(32);
+        cache.put(0, 0);
+        for (int i = 1; i < 1000; i++) {
+            Assert.isTrue(Integer.valueOf(0).equals(cache.get(0)), "Используемая запись вытеснена на шаге " + i);
+            cache.put(i * 16, i);
+        }
+        Assert.isTrue(cache.size() <= cache.getCapacity() && 32 == cache.getCapacity(), "Превышена емкость: " + cache);
+        Assert.isTrue(null == cache.get(16), "Давно не использованная запись не вытеснена");
+    }
+
+    /**
+     * Тест счетчиков попаданий и промахов
+     */
+    @Test
+    public void hitsAndMissesTest() {
+        DictionaryCache<String, Integer> cache = new DictionaryCache<>(100);
+        cache.put("A", 1);
+        cache.get("A");
+        cache.get("A");
+        cache.get("B");
+        Assert.isTrue(2 == cache.getHits() && 1 == cache.getMisses(), "Неверные счетчики: " + cache);
+        cache.clear();
+        Assert.isTrue(0 == cache.size() && 0 == cache.getHits() && 0 == cache.getMisses(), "Словарь не очищен: " + cache);
+    }
+
+    /**
+     * Тест словаря с емкостью 0
+     * Когда емкость 0, записи не хранятся, а обращения учитываются как промахи
+     */
+    @Test
+    public void disabledTest() {
+        DictionaryCache<String, Integer> cache = new DictionaryCache<>(0);
+        cache.put("A", 1);
+        Assert.isTrue(!cache.isEnabled() && null == cache.get("A") && 1 == cache.getMisses(), "Запись сохранена: " + cache);
+    }
+}
@@ -0,0 +1,98 @@
+package com.dnsabr.vad.ukrsib.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.Assert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Unit-тесты MappedInputStream
+ */
+@RunWith(JUnit4.class)
+public class MappedInputStreamUnitTests {
+
+    private final Path file = Paths.get("Java_test.xml");
+
+    /**
+     * Тест чтения файла целиком
+     * Когда читаем файл через отображение в память, получаем те же байты, что и при обычном чтении
+     */
+    @Test
+    public void readWholeFileTest() throws IOException {
+        byte[] expected = Files.readAllBytes(file);
+        byte[] actual;
+        try (InputStream is = new MappedInputStream(file)) {
+            actual = readAll(is);
+        }
+        Assert.isTrue(Arrays.equals(expected, actual), "Прочитанные данные не совпадают с содержимым файла");
+    }
+
+    /**
+     * Тест закрытия канала, открытого потоком
+     * Когда последнее окно отображено, поток закрывает свой канал, не ожидая закрытия потока, и данные окна
+     * читаются после закрытия канала
+     */
+    @Test
+    public void releaseChannelAfterLastWindowTest() throws IOException {
+        byte[] expected = Files.readAllBytes(file);
+        InputStream is = new MappedInputStream(file);
+        FileChannel channel = (FileChannel) ReflectionTestUtils.getField(is, "channel");
+        Assert.isTrue(null != channel && channel.isOpen(), "Канал не открыт");
+        int first = is.read();
+        Assert.isTrue(!channel.isOpen(), "Канал не закрыт после отображения последнего окна");
+        byte[] rest = readAll(is);
+        Assert.isTrue(expected[0] == (byte) first && Arrays.equals(Arrays.copyOfRange(expected, 1, expected.length), rest),
+                "Прочитанные после закрытия канала данные не совпадают с содержимым файла");
+        is.close();
+    }
+
+    /**
+     * Тест чтения диапазона файла маленькими окнами
+     * Когда диапазон больше окна отображения, окна переотображаются и данные читаются без пропусков и повторов
+     */
+    @Test
+    public void readRangeWithSmallWindowsTest() throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        int start = 17, end = bytes.length - 5;
+        byte[] expected = Arrays.copyOfRange(bytes, start, end);
+        byte[] actual;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             InputStream is = new MappedInputStream(channel, start, end, 100, false)) {
+            actual = readAll(is);
+            Assert.isTrue(channel.isOpen(), "Поток закрыл канал, который не открывал");
+        }
+        Assert.isTrue(Arrays.equals(expected, actual), "Прочитанные данные не совпадают с диапазоном файла");
+    }
+
+    /**
+     * Тест недопустимого размера окна
+     * Когда размер окна больше 2 ГБ, получаем исключение
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void windowSizeLimitTest() throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            new MappedInputStream(channel, 0, channel.size(), Integer.MAX_VALUE + 1L, false);
+        }
+    }
+
+    private byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[37];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
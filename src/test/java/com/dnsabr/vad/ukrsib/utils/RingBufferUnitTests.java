@@ -0,0 +1,206 @@
+package com.dnsabr.vad.ukrsib.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Unit-тесты RingBuffer
+ */
+@RunWith(JUnit4.class)
+public class RingBufferUnitTests {
+
+    /**
+     * Тест порядка элементов при переходе через конец массива
+     * Когда элементы добавляются и извлекаются так, что начало очереди смещается по кругу, порядок сохраняется,
+     * а в заполненную очередь элемент не добавляется и массив не увеличивается
+     */
+    @Test
+    public void fifoOrderWithWrapTest() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(4);
+        List<Integer> actual = new ArrayList<>();
+        int next = 0;
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 3; i++) {
+                Assert.isTrue(buffer.offer(next++), "Элемент не добавлен в очередь со свободным местом");
+            }
+            actual.add(buffer.poll());
+            actual.add(buffer.poll());
+            actual.add(buffer.poll());
+        }
+        for (int i = 0; i < 4; i++) {
+            buffer.offer(next++);
+        }
+        Assert.isTrue(!buffer.offer(next), "Элемент добавлен в заполненную очередь");
+        while (!buffer.isEmpty()) {
+            actual.add(buffer.poll());
+        }
+        for (int i = 0; i < next; i++) {
+            Assert.isTrue(actual.get(i) == i, "Нарушен порядок элементов очереди: " + actual);
+        }
+        Assert.isTrue(buffer.capacity() == 4 && buffer.size() == 0, "Неверное состояние очереди");
+    }
+
+    /**
+     * Тест ограничения количества элементов при добавлении методом put
+     * Когда очередь заполнена, put ожидает и добавляет элемент сразу после извлечения элемента,
+     * а при выполнении условия stop прекращает ожидание без добавления
+     */
+    @Test
+    public void putWaitsForSpaceTest() throws InterruptedException {
+        RingBuffer<Integer> buffer = new RingBuffer<>(2);
+        AtomicBoolean stop = new AtomicBoolean();
+        buffer.put(1, stop::get);
+        buffer.put(2, stop::get);
+
+        Thread producer = new Thread(() -> {
+            try {
+                buffer.put(3, stop::get);
+            } catch (InterruptedException e) {/*пустое*/}
+        });
+        producer.start();
+        TimeUnit.MILLISECONDS.sleep(50);
+        Assert.isTrue(buffer.size() == 2, "Добавлен элемент сверх ограничения");
+
+        buffer.poll();
+        producer.join(1000);
+        Assert.isTrue(!producer.isAlive() && buffer.size() == 2, "Элемент не добавлен после освобождения места");
+
+        stop.set(true);
+        buffer.wakeUp();
+        Assert.isTrue(!buffer.put(4, stop::get), "Элемент добавлен после прекращения ожидания");
+        Assert.isTrue(buffer.capacity() == 2, "Массив увеличен при добавлении");
+    }
+
+    /**
+     * Тест пакетного добавления элементов
+     * Когда пакет не помещается в очередь, putAll ожидает освобождения места и добавляет пакет целиком.
+     * Место извлеченных методом drainTo элементов освобождается только методом release
+     */
+    @Test
+    public void putAllWaitsForSpaceTest() throws InterruptedException {
+        RingBuffer<Integer> buffer = new RingBuffer<>(4);
+        AtomicBoolean stop = new AtomicBoolean();
+        Assert.isTrue(buffer.putAll(Arrays.asList(1, 2, 3), stop::get), "Пакет не добавлен в пустую очередь");
+
+        Thread producer = new Thread(() -> {
+            try {
+                buffer.putAll(Arrays.asList(4, 5, 6), stop::get);
+            } catch (InterruptedException e) {/*пустое*/}
+        });
+        producer.start();
+        TimeUnit.MILLISECONDS.sleep(50);
+        Assert.isTrue(buffer.size() == 3, "Пакет добавлен сверх емкости");
+
+        List<Integer> list = new ArrayList<>();
+        buffer.drainTo(list, 2, 2, stop::get);
+        TimeUnit.MILLISECONDS.sleep(50);
+        Assert.isTrue(producer.isAlive() && buffer.size() == 1, "Пакет добавлен на место извлеченных элементов");
+
+        buffer.release(list.size());
+        producer.join(1000);
+        list.clear();
+        buffer.drainTo(list, 10, 0, stop::get);
+        Assert.isTrue(!producer.isAlive() && list.equals(Arrays.asList(3, 4, 5, 6)), "Пакет не добавлен целиком: " + list);
+
+        stop.set(true);
+        Assert.isTrue(!buffer.putAll(Arrays.asList(7), stop::get), "Пакет добавлен после прекращения ожидания");
+        try {
+            buffer.putAll(Arrays.asList(1, 2, 3, 4, 5), stop::get);
+            Assert.isTrue(false, "Добавлен пакет больше емкости очереди");
+        } catch (IllegalArgumentException e) {/*пустое*/}
+    }
+
+    /**
+     * Тест возврата извлеченных элементов
+     * Когда очередь заполнена, извлеченные методом drainTo элементы возвращаются методом restore без ожидания в конец
+     * очереди, а массив не увеличивается
+     */
+    @Test
+    public void restoreUsesLeasedSpaceTest() throws InterruptedException {
+        RingBuffer<Integer> buffer = new RingBuffer<>(4);
+        AtomicBoolean stop = new AtomicBoolean();
+        buffer.putAll(Arrays.asList(1, 2, 3, 4), stop::get);
+        List<Integer> list = new ArrayList<>();
+        buffer.drainTo(list, 2, 2, stop::get);
+        Assert.isTrue(!buffer.offer(5) && buffer.leased() == 2, "Занято место извлеченных элементов");
+
+        buffer.restore(list);
+        Assert.isTrue(buffer.size() == 4 && buffer.leased() == 0 && buffer.capacity() == 4, "Элементы не возвращены");
+        list.clear();
+        buffer.drainTo(list, 4, 4, stop::get);
+        Assert.isTrue(list.equals(Arrays.asList(3, 4, 1, 2)), "Элементы возвращены не в конец очереди: " + list);
+
+        buffer.restore(list.subList(0, 1));
+        buffer.release(3);
+        Assert.isTrue(buffer.size() == 1 && buffer.leased() == 0, "Неверное освобождение места");
+        buffer.putAll(Arrays.asList(6, 7, 8), stop::get);
+        try {
+            buffer.restore(Arrays.asList(9));
+            Assert.isTrue(false, "В заполненную очередь добавлены не извлеченные из нее элементы");
+        } catch (IllegalStateException e) {/*пустое*/}
+    }
+
+    /**
+     * Тест пакетного извлечения элементов
+     * Когда в очереди меньше min элементов, drainTo ожидает их появления, а после прекращения ожидания
+     * извлекает имеющиеся элементы. Извлекается не более max элементов
+     */
+    @Test
+    public void drainToTest() throws InterruptedException {
+        RingBuffer<Integer> buffer = new RingBuffer<>(8);
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Integer> list = new ArrayList<>();
+
+        Thread consumer = new Thread(() -> {
+            try {
+                buffer.drainTo(list, 3, 3, stop::get);
+            } catch (InterruptedException e) {/*пустое*/}
+        });
+        consumer.start();
+        buffer.putAll(Arrays.asList(1, 2), stop::get);
+        TimeUnit.MILLISECONDS.sleep(50);
+        Assert.isTrue(consumer.isAlive(), "Пакет извлечен до появления необходимого количества элементов");
+
+        buffer.putAll(Arrays.asList(3, 4, 5, 6, 7), stop::get);
+        consumer.join(1000);
+        Assert.isTrue(list.equals(Arrays.asList(1, 2, 3)) && buffer.size() == 4, "Извлечен неверный пакет: " + list);
+
+        list.clear();
+        stop.set(true);
+        int drained = buffer.drainTo(list, 10, 10, stop::get);
+        Assert.isTrue(drained == 4 && list.equals(Arrays.asList(4, 5, 6, 7)), "Не извлечены оставшиеся элементы: " + list);
+        Assert.isTrue(null == buffer.take(stop::get), "Из пустой очереди извлечен элемент");
+    }
+
+    /**
+     * Тест пробуждения ожидающего потока
+     * Когда изменяется условие прекращения ожидания и вызывается wakeUp, ожидающий поток завершает ожидание сразу,
+     * не дожидаясь периода повторной проверки условия
+     */
+    @Test
+    public void wakeUpTest() throws InterruptedException {
+        RingBuffer<Integer> buffer = new RingBuffer<>(1);
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread consumer = new Thread(() -> {
+            try {
+                buffer.take(stop::get);
+            } catch (InterruptedException e) {/*пустое*/}
+        });
+        consumer.start();
+        TimeUnit.MILLISECONDS.sleep(20);
+        stop.set(true);
+        long start = System.nanoTime();
+        buffer.wakeUp();
+        consumer.join(1000);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.isTrue(!consumer.isAlive() && elapsed < 80, "Ожидающий поток не пробужден: " + elapsed + " мс");
+    }
+}
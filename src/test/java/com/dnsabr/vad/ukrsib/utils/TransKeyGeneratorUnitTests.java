@@ -0,0 +1,82 @@
+package com.dnsabr.vad.ukrsib.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Unit-тесты TransKeyGenerator
+ */
+@RunWith(JUnit4.class)
+public class TransKeyGeneratorUnitTests {
+
+    /**
+     * Тест прямых ключей
+     * Когда порядковый номер не приводит к переполнению, ключ рассчитывается без хранения и
+     * совпадает для тех же порядкового номера и hash-кода
+     */
+    @Test
+    public void directKeysAreStableAndNotStoredTest() {
+        TransKeyGenerator keys = new TransKeyGenerator();
+        Assert.isTrue(12119887295L == keys.generate(1, 2119887295), "Изменился алгоритм расчета прямого ключа");
+        Assert.isTrue(12119887295L == keys.generate(1, -2119887295), "Изменился алгоритм расчета прямого ключа");
+        long max = keys.generate((int) TransKeyGenerator.MAX_DIRECT_SERIAL, Integer.MAX_VALUE);
+        Assert.isTrue(max > 0, "Прямой ключ отрицательный: " + max);
+        Assert.isTrue(0 == keys.size() && 3 == keys.getCount(), "Неверное состояние генератора");
+    }
+
+    /**
+     * Тест ключей при переполнении
+     * Когда порядковые номера приводят к переполнению, ключи положительны, не совпадают для разных порядковых номеров
+     * и с прямыми ключами, а повторный расчет для того же порядкового номера возвращает прежний ключ
+     */
+    @Test
+    public void overflowKeysDoNotCollideTest() {
+        TransKeyGenerator keys = new TransKeyGenerator();
+        Set<Long> generated = new HashSet<>();
+        for (int serial = Integer.MAX_VALUE - 1000; serial > 0 && serial <= Integer.MAX_VALUE - 1; serial++) {
+            long key = keys.generate(serial, Integer.MIN_VALUE);
+            Assert.isTrue(key > 0 && generated.add(key), "Ключ отрицательный или совпадает с другим: " + key);
+            Assert.isTrue(key % 10000000000L > Integer.MAX_VALUE || key / 10000000000L > TransKeyGenerator.MAX_DIRECT_SERIAL
+                    , "Ключ совпадает с прямым ключом: " + key);
+        }
+        long first = keys.generate(Integer.MAX_VALUE - 1000, Integer.MIN_VALUE);
+        Assert.isTrue(generated.contains(first) && 1000 == keys.size(), "Ключ при повторном расчете изменился");
+        keys.clear();
+        Assert.isTrue(0 == keys.size() && 0 == keys.getCount(), "Генератор не очищен");
+    }
+
+    /**
+     * Тест параллельного расчета ключей
+     * Когда ключи рассчитываются несколькими потоками, ключи разных порядковых номеров не совпадают
+     */
+    @Test
+    public void concurrentGenerateTest() throws InterruptedException {
+        TransKeyGenerator keys = new TransKeyGenerator();
+        Set<Long> generated = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int from = Integer.MAX_VALUE - 4000 + t * 1000;
+            threads.add(new Thread(() -> {
+                for (int serial = from; serial < from + 1000; serial++) {
+                    generated.add(keys.generate(serial, serial % 2 == 0 ? 7 : Integer.MIN_VALUE));
+                    generated.add(keys.generate(serial - 2000000000, 7));
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.isTrue(8000 == generated.size() && 8000 == keys.getCount(), "Ключи совпадают: " + generated.size());
+    }
+}
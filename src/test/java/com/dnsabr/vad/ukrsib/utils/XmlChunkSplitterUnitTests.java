@@ -0,0 +1,84 @@
+package com.dnsabr.vad.ukrsib.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.util.Assert;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.XMLEvent;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Unit-тесты XmlChunkSplitter
+ */
+@RunWith(JUnit4.class)
+public class XmlChunkSplitterUnitTests {
+
+    /**
+     * Тест разбиения файла на части
+     * Когда разбиваем файл на части, части идут подряд без пропусков и общее количество транзакций в частях
+     * равно количеству транзакций в файле
+     */
+    @Test
+    public void splitAndCountTest() throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get("Java_test_3000.xml"), StandardOpenOption.READ)) {
+            List<XmlChunkSplitter.Chunk> chunks = XmlChunkSplitter.split(channel, 4);
+            Assert.isTrue(chunks.size() == 4
+                    ,"Неверное количество частей\nожидаемое: 4\nактуальное:" + chunks.size());
+            int amount = 0;
+            for (int i = 0; i < chunks.size(); i++) {
+                if (i > 0) {
+                    Assert.isTrue(chunks.get(i - 1).getEnd() == chunks.get(i).getStart()
+                            ,"Части файла идут не подряд: " + chunks.get(i - 1) + " " + chunks.get(i));
+                }
+                amount += XmlChunkSplitter.count(channel, chunks.get(i));
+            }
+            Assert.isTrue(amount == 3000
+                    ,"Неверное количество транзакций в частях файла\nожидаемое: 3000\nактуальное:" + amount);
+        }
+    }
+
+    /**
+     * Тест чтения части файла
+     * Когда открываем часть файла, получаем самостоятельный XML-документ с тем же количеством транзакций,
+     * которое подсчитано для этой части
+     */
+    @Test
+    public void openChunkIsWellFormedTest() throws IOException, XMLStreamException {
+        try (FileChannel channel = FileChannel.open(Paths.get("Java_test_3000.xml"), StandardOpenOption.READ)) {
+            for (XmlChunkSplitter.Chunk chunk : XmlChunkSplitter.split(channel, 3)) {
+                int amountExpected = XmlChunkSplitter.count(channel, chunk);
+                int amountActual = 0;
+                try (StaxStreamProcessor processor = new StaxStreamProcessor(XmlChunkSplitter.open(channel, chunk))) {
+                    XMLStreamReader reader = processor.getReader();
+                    while (reader.hasNext()) {
+                        if (reader.next() == XMLEvent.START_ELEMENT && "transaction".equals(reader.getLocalName())) {
+                            amountActual++;
+                        }
+                    }
+                }
+                Assert.isTrue(amountActual == amountExpected
+                        ,"Неверное количество транзакций в части файла " + chunk + "\nожидаемое: " + amountExpected
+                                + "\nактуальное:" + amountActual);
+            }
+        }
+    }
+
+    /**
+     * Тест разбиения файла без транзакций
+     * Когда в файле нет тегов <transaction>, получаем пустой список частей
+     */
+    @Test
+    public void splitFileWithoutTransactionsTest() throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get("pom.xml"), StandardOpenOption.READ)) {
+            Assert.isTrue(XmlChunkSplitter.split(channel, 4).isEmpty()
+                    ,"Найдены части в файле без транзакций");
+        }
+    }
+}